@@ -54,7 +54,7 @@ class Run {
      * @param g - game to run
      */
     static void runGame(Game g) {
-        g.run(null, null);
+        g.runHeadless(LOG_STATS);
     }
 
 
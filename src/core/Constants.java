@@ -5,6 +5,8 @@ public class Constants {
     public static boolean VERBOSE = true;
     public static boolean VISUALS = true;
     public static boolean WRITE_SAVEGAMES = false;
+    public static boolean COPY_ON_WRITE = true; // if true, full copies of the game state share board layers, visibility and tech trees until written.
+    public static boolean INCREMENTAL_ACTIONS = true; // if true, only the actions of actors affected by the last actions executed are recomputed.
     public static boolean DISABLE_NON_HUMAN_GRID_HIGHLIGHT = true;  // If true, human observing/playing doesn't have access to actions of non-human players
     public static int FRAME_DELAY = 0;// 500; //1000;
     public static boolean TURN_TIME_LIMITED = false; // if true, agents have a limited amount of time to finish their turn, which is specified by TURN_TIME_MILLIS
@@ -2,6 +2,7 @@ package core;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import utils.Zobrist;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
@@ -16,6 +17,12 @@ public class TechnologyTree {
     // Flag that indicates if the whole tree has been researched.
     private boolean everythingResearched = false;
 
+    // Copy-on-write: true if 'researched' may be shared with a copy of this tree and must be cloned before writing.
+    private boolean shared = false;
+
+    // Zobrist hash of the researched technologies, updated on every research.
+    private long hash;
+
     /**
      * Creates a TechnologyTree.
      */
@@ -32,6 +39,7 @@ public class TechnologyTree {
         this.researched = new boolean[researched.length];
         System.arraycopy(researched, 0, this.researched, 0, researched.length);
         checkEverythingResearched();
+        computeHash();
     }
 
     /**
@@ -45,6 +53,7 @@ public class TechnologyTree {
             researched[i] = jResearched.getBoolean(i);
         }
         everythingResearched = jTechnologyTree.getBoolean("everythingResearched");
+        computeHash();
     }
 
     /**
@@ -64,7 +73,62 @@ public class TechnologyTree {
      * @return a copy of this tree.
      */
     public TechnologyTree copy(){
-        return new TechnologyTree(researched);
+        if(!Constants.COPY_ON_WRITE)
+            return new TechnologyTree(researched);
+
+        return new TechnologyTree(this);
+    }
+
+    /**
+     * Creates a tree that shares the researched array of another tree until any of them writes on it.
+     * @param other tree to share the researched technologies with.
+     */
+    private TechnologyTree(TechnologyTree other){
+        this.researched = other.researched;
+        this.hash = other.hash;
+        this.shared = true;
+        other.shared = true;
+        checkEverythingResearched();
+    }
+
+    /**
+     * Ensures this tree owns its researched array, cloning it if it's shared with a copy of this tree.
+     * Must be called before writing in 'researched'.
+     */
+    private void ownResearched(){
+        if(shared) {
+            researched = researched.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Marks a technology as researched, updating the hash of the tree.
+     * @param target technology researched.
+     */
+    private void setResearched(Types.TECHNOLOGY target){
+        ownResearched();
+        if(!researched[target.ordinal()])
+            hash ^= Zobrist.key(Zobrist.TECHNOLOGY, target.ordinal(), 1);
+        researched[target.ordinal()] = true;
+    }
+
+    /**
+     * Computes from scratch the hash of the researched technologies.
+     */
+    private void computeHash(){
+        hash = 0;
+        for (int i = 0; i < researched.length; i++)
+            if(researched[i])
+                hash ^= Zobrist.key(Zobrist.TECHNOLOGY, i, 1);
+    }
+
+    /**
+     * Returns the Zobrist hash of the researched technologies of this tree.
+     * @return a 64 bit hash of the researched technologies.
+     */
+    public long getHash() {
+        return hash;
     }
 
     /**
@@ -103,7 +167,7 @@ public class TechnologyTree {
      */
     public boolean doResearch(Types.TECHNOLOGY target) {
         if(isResearchable(target)) {
-            researched[target.ordinal()] = true;
+            setResearched(target);
 
             //researching leaves of the tree may
             if(target == SHIELDS || target == AQUATISM || target == CHIVALRY || target == CONSTRUCTION ||
@@ -122,7 +186,7 @@ public class TechnologyTree {
      * @param target the target tech.
      */
    public void doResearchInit(Types.TECHNOLOGY target){
-        researched[target.ordinal()] = true;
+        setResearched(target);
    }
 
     /**
@@ -27,6 +27,31 @@ public class Build extends CityAction
 
     @Override
     public boolean isFeasible(final GameState gs) {
+        City city = (City) gs.getActor(this.cityId);
+        Tribe tribe = gs.getTribe(city.getTribeId());
+        Board board = gs.getBoard();
+        return isBuildableInCity(buildingType, city, tribe, board) &&
+                isBuildableAt(buildingType, board, targetPos.x, targetPos.y);
+    }
+
+    @Override
+    public Action copy() {
+        Build build = new Build(this.cityId);
+        build.setBuildingType(this.buildingType);
+        build.setTargetPos(this.targetPos.copy());
+        return build;
+    }
+
+    /**
+     * Checks the constraints for a building that don't depend on where it's placed: cost, technology,
+     * uniqueness in the city and, for monuments, uniqueness in the tribe.
+     * @param buildingType type of building to check.
+     * @param city city that builds.
+     * @param tribe tribe of the city.
+     * @param board board of the game.
+     * @return true if the city can build this type of building in some of its tiles.
+     */
+    public static boolean isBuildableInCity(Types.BUILDING buildingType, City city, Tribe tribe, Board board) {
 
         switch (buildingType) {
             //Buildings that can be repeated in a city:
@@ -38,14 +63,20 @@ public class Build extends CityAction
             case WATER_TEMPLE:
             case MOUNTAIN_TEMPLE:
             case FOREST_TEMPLE:
-                return isBuildable(gs, buildingType.getCost(), false);
+                return isAffordable(buildingType, tribe);
 
             //Buildings that must be unique in a city
             case SAWMILL:
             case CUSTOMS_HOUSE:
             case WINDMILL:
             case FORGE:
-                return isBuildable(gs, buildingType.getCost(), true);
+                if(!isAffordable(buildingType, tribe))
+                    return false;
+
+                for(Vector2d tile : board.getCityTiles(city.getActorId())) {
+                    if(board.getBuildingAt(tile.x, tile.y) == buildingType) { return false; }
+                }
+                return true;
 
             //Buildings that must be unique in a tribe (i.e. monuments)
             case ALTAR_OF_PEACE:
@@ -55,49 +86,31 @@ public class Build extends CityAction
             case PARK_OF_FORTUNE:
             case TOWER_OF_WISDOM:
             case GRAND_BAZAR:
-                boolean buildingConstraintsOk = isBuildable(gs, buildingType.getCost(), false);
-                if(buildingConstraintsOk)
-                {
-                    City city = (City) gs.getActor(this.cityId);
-                    Tribe tribe = gs.getTribe(city.getTribeId());
-                    return tribe.isMonumentBuildable(buildingType);
-                }
-                else return false;
+                return isAffordable(buildingType, tribe) && tribe.isMonumentBuildable(buildingType);
         }
         return false;
     }
 
-    @Override
-    public Action copy() {
-        Build build = new Build(this.cityId);
-        build.setBuildingType(this.buildingType);
-        build.setTargetPos(this.targetPos.copy());
-        return build;
-    }
-
-    private boolean isBuildable(final GameState gs, int cost, boolean checkIfUnique) {
-        City city = (City) gs.getActor(this.cityId);
-        Tribe tribe = gs.getTribe(city.getTribeId());
-        Board board = gs.getBoard();
-        TechnologyTree techTree = tribe.getTechTree();
-        int stars = tribe.getStars();
-
-        //Cost constraint
-        if(cost > 0 && stars < cost) { return false; }
-
-        //Technology constraint
-        if(buildingType.getTechnologyRequirement() != null &&
-                !techTree.isResearched(buildingType.getTechnologyRequirement())) { return false; }
+    /**
+     * Checks the constraints for a building that depend on where it's placed: terrain, resource and
+     * adjacent buildings.
+     * @param buildingType type of building to check.
+     * @param board board of the game.
+     * @param x x coordinate of the position of the building.
+     * @param y y coordinate of the position of the building.
+     * @return true if the position is valid for this type of building.
+     */
+    public static boolean isBuildableAt(Types.BUILDING buildingType, Board board, int x, int y) {
 
         //Terrain constraint
-        if (!(buildingType.getTerrainRequirements().contains(board.getTerrainAt(targetPos.x, targetPos.y)))) return false;
+        if (!(buildingType.getTerrainRequirements().contains(board.getTerrainAt(x, y)))) return false;
 
         //Resource constraint
         Types.RESOURCE resNeeded = buildingType.getResourceConstraint();
         if (resNeeded != null)
         {
             //if there's a constraint, resource at location must be what's needed.
-            Types.RESOURCE resAtLocation = board.getResourceAt(targetPos.x, targetPos.y);
+            Types.RESOURCE resAtLocation = board.getResourceAt(x, y);
             if(resAtLocation == null || resNeeded != resAtLocation)
                 return false;
         }
@@ -107,9 +120,9 @@ public class Build extends CityAction
         if(buildingNeeded != null)
         {
             boolean adjFound = false;
-            for(Vector2d adjPos : targetPos.neighborhood(1,0,board.getSize()))
+            for(int adjPos : board.getNeighbourTable().get(x, y, 1))
             {
-                if(board.getBuildingAt(adjPos.x, adjPos.y) == buildingNeeded)
+                if(board.getBuildingAt(adjPos / board.getSize(), adjPos % board.getSize()) == buildingNeeded)
                 {
                     adjFound = true;
                     break;
@@ -119,16 +132,21 @@ public class Build extends CityAction
             if(!adjFound) return false;
         }
 
-        //Uniqueness constrain
-        if(checkIfUnique) {
-            for(Vector2d tile : board.getCityTiles(this.cityId)) {
-                if(board.getBuildingAt(tile.x, tile.y) == buildingType) { return false; }
-            }
-        }
-
         return true;
     }
 
+    private static boolean isAffordable(Types.BUILDING buildingType, Tribe tribe) {
+        TechnologyTree techTree = tribe.getTechTree();
+        int cost = buildingType.getCost();
+
+        //Cost constraint
+        if(cost > 0 && tribe.getStars() < cost) { return false; }
+
+        //Technology constraint
+        return buildingType.getTechnologyRequirement() == null ||
+                techTree.isResearched(buildingType.getTechnologyRequirement());
+    }
+
     public String toString()
     {
         return "BUILD by city " + this.cityId+ " at " + targetPos + " : " + buildingType.toString();
@@ -1,11 +1,9 @@
 package core.actions.cityactions.factory;
 
-import core.TechnologyTree;
 import core.Types;
 import core.actions.Action;
 import core.actions.ActionFactory;
 import core.actions.cityactions.Build;
-import core.actions.tribeactions.ResearchTech;
 import core.actors.Actor;
 import core.actors.City;
 import core.actors.Tribe;
@@ -23,18 +21,28 @@ public class BuildFactory implements ActionFactory {
         City city = (City) actor;
         LinkedList<Action> actions = new LinkedList<>();
         Board board = gs.getBoard();
-        LinkedList<Vector2d> tiles = board.getCityTiles(city.getActorId());
+        Tribe tribe = gs.getTribe(city.getTribeId());
+
+        //Constraints that don't depend on the position are checked once per building type.
+        Types.BUILDING[] buildings = Types.BUILDING.values();
+        boolean[] buildable = new boolean[buildings.length];
+        boolean anyBuildable = false;
+        for(int i = 0; i < buildings.length; i++) {
+            buildable[i] = Build.isBuildableInCity(buildings[i], city, tribe, board);
+            anyBuildable |= buildable[i];
+        }
+        if(!anyBuildable)
+            return actions;
 
+        //The rest are in the board's index of building sites.
+        LinkedList<Vector2d> tiles = board.getCityTiles(city.getActorId());
         for(Vector2d tile : tiles){
-            for(Types.BUILDING building: Types.BUILDING.values()){
-                //check if tile is empty
-                if(board.getBuildingAt(tile.x, tile.y) == null) {
+            for(int i = 0; i < buildings.length; i++){
+                if(buildable[i] && board.isBuildSite(buildings[i], tile.x, tile.y)) {
                     Build action = new Build(city.getActorId());
-                    action.setBuildingType(building);
+                    action.setBuildingType(buildings[i]);
                     action.setTargetPos(tile.copy());
-                    if (action.isFeasible(gs)) {
-                        actions.add(action);
-                    }
+                    actions.add(action);
                 }
             }
         }
@@ -29,8 +29,8 @@ public class HealOthers extends UnitAction
             return false;
 
         //Feasible if this unit can heal this turn and if there is at least one friendly unit adjacent.
-        for(Vector2d tile : unit.getPosition().neighborhood(unit.RANGE, 0, board.getSize())){
-            Unit u = board.getUnitAt(tile.x, tile.y);
+        Vector2d pos = unit.getPosition();
+        for(Unit u : board.getUnitsInRange(pos.x, pos.y, unit.RANGE, unit.getTribeId(), false)){
             if (canBeHealed(unit, u))
                 return true;
         }
@@ -54,8 +54,9 @@ public class HealOthers extends UnitAction
     public ArrayList<Unit> getTargets(GameState gs) {
         ArrayList<Unit> targets = new ArrayList<>();
         Unit unit = (Unit) gs.getActor(this.unitId);
-        for (Vector2d tile : unit.getPosition().neighborhood(unit.RANGE, 0, gs.getBoard().getSize())){
-            Unit u = gs.getBoard().getUnitAt(tile.x, tile.y);
+        Board board = gs.getBoard();
+        Vector2d pos = unit.getPosition();
+        for (Unit u : board.getUnitsInRange(pos.x, pos.y, unit.RANGE, unit.getTribeId(), false)){
             if (canBeHealed(unit, u))
                 targets.add(u);
         }
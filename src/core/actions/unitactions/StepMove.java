@@ -6,11 +6,10 @@ import core.actors.City;
 import core.actors.units.Unit;
 import core.game.Board;
 import core.game.GameState;
+import utils.NeighbourTable;
 import utils.Vector2d;
 import utils.graph.NeighbourHelper;
-import utils.graph.PathNode;
-
-import java.util.ArrayList;
+import utils.graph.NeighbourList;
 
 public class StepMove implements NeighbourHelper
 {
@@ -24,64 +23,67 @@ public class StepMove implements NeighbourHelper
     }
 
     @Override
-    //from: position from which we need neighbours
+    public int getGridSize() {
+        return gs.getBoard().getSize();
+    }
+
+    @Override
+    //(fromX, fromY): position from which we need neighbours
     //costFrom: is the total move cost computed up to "from"
-    //Using this.gs, this.unit, from and costFrom, gets all the adjacent neighbours to tile in position "from"
-    public ArrayList<PathNode> getNeighbours(Vector2d from, double costFrom) {
-        ArrayList<PathNode> neighbours = new ArrayList<>();
+    //Using this.gs, this.unit, from and costFrom, adds all the adjacent neighbours to tile in position "from"
+    public void getNeighbours(int fromX, int fromY, double costFrom, NeighbourList neighbours) {
 
         //Check if the unit has reached the limit of it's movement range
         if (costFrom == unit.MOV) {
-            return neighbours;
+            return;
         }
 
         Board board = gs.getBoard();
+        int size = board.getSize();
         boolean onRoad = false;
 
         //Check if unit is on a neutral or a friendly road, cities also count as roads.
-        if(board.isRoad(from.x, from.y) || board.getTerrainAt(from.x, from.y) == Types.TERRAIN.CITY){
-            int cityId = board.getCityIdAt(from.x, from.y);
+        if(board.isRoad(fromX, fromY) || board.getTerrainAt(fromX, fromY) == Types.TERRAIN.CITY){
+            int cityId = board.getCityIdAt(fromX, fromY);
             if(cityId == -1 || board.getTribe(unit.getTribeId()).controlsCity(cityId)) {
                 onRoad = true;
             }
         }
 
-        //Each one of the tree nodes added to "neighbours" must have a position (x,y) and also the cost of moving there from "from":
-        //TreeNode tn = new TreeNode (vector2d pos, double stepCost)
+        //Each one of the nodes added to "neighbours" must have a position (x,y) and also the cost of moving there from "from":
+        //neighbours.add(x, y, double stepCost)
         //We only add nodes to neighbours if costFrom+stepCost <= total move range of this.unit
-        for(Vector2d tile : from.neighborhood(1, 0, board.getSize())) {
-            Types.TERRAIN terrain = board.getTerrainAt(tile.x, tile.y);
+        NeighbourTable neighbourTable = board.getNeighbourTable();
+        for(int tile : neighbourTable.get(fromX, fromY, 1)) {
+            int x = tile / size;
+            int y = tile % size;
+            Types.TERRAIN terrain = board.getTerrainAt(x, y);
             double stepCost = 0.0;
             boolean zoneOfControl = false;
 
             //Can't move to tiles where there's a non-friendly unit
-            Unit otherUnit = board.getUnitAt(tile.x, tile.y);
+            Unit otherUnit = board.getUnitAt(x, y);
             if (otherUnit != null && otherUnit.getTribeId() != unit.getTribeId())
             {
                 continue;
             }
 
             //Check if there is an enemy unit adjacent to the destination.
-            for (Vector2d tileAdj : tile.neighborhood(1, 0, board.getSize())) {
-                Unit u = board.getUnitAt(tileAdj.x, tileAdj.y);  // There might not be a unit there at all
-                if (u != null && u.getTribeId() != unit.getTribeId()) {
-                    zoneOfControl = true;
-                }
-            }
+            zoneOfControl = board.isEnemyAdjacent(x, y, unit.getTribeId());
 
             //Cannot move into tiles that have not been discovered yet.
-            if (!gs.getTribe(unit.getTribeId()).isVisible(tile.x, tile.y)) {
+            if (!gs.getTribe(unit.getTribeId()).isVisible(x, y)) {
                 continue;
             }
 
             //Check if current research allows movement to this tile.
-            if (!board.traversable(tile.x, tile.y, unit.getTribeId())) {
+            if (!board.traversable(x, y, unit.getTribeId())) {
                 continue;
             }
 
             //Mind benders cannot move into an enemy city tile.
-            if (unit.getType() == Types.UNIT.MIND_BENDER && board.getTerrainAt(tile.x, tile.y) == Types.TERRAIN.CITY) {
-                City targetCity = (City) board.getActor(board.getCityIdAt(tile.x, tile.y));
+            if (unit.getType() == Types.UNIT.MIND_BENDER && board.getTerrainAt(x, y) == Types.TERRAIN.CITY) {
+                City targetCity = (City) board.getActor(board.getCityIdAt(x, y));
                 //The city belongs to the enemy.
                 if (targetCity.getTribeId() != unit.getTribeId()) {
                     continue;
@@ -111,7 +113,7 @@ public class StepMove implements NeighbourHelper
                     case SHALLOW_WATER:
                     case DEEP_WATER:
                         //Embarking takes a turn of movement.
-                        if (board.getBuildingAt(tile.x, tile.y) == Types.BUILDING.PORT) {
+                        if (board.getBuildingAt(x, y) == Types.BUILDING.PORT) {
                             stepCost = costFrom < unit.MOV ? (unit.MOV - costFrom) : unit.MOV; //as much cost as needed to finished step here;
                         } else {
                             continue;
@@ -132,8 +134,8 @@ public class StepMove implements NeighbourHelper
 
                 //If there is a friendly/neutral road connection between two tiles then the movement cost is halved.
                 //This movement boost applies only to ground units.
-                if (onRoad && (board.isRoad(tile.x, tile.y) || board.getTerrainAt(tile.x, tile.y) == Types.TERRAIN.CITY)) {
-                    int cityId = board.getCityIdAt(from.x, from.y);
+                if (onRoad && (board.isRoad(x, y) || board.getTerrainAt(x, y) == Types.TERRAIN.CITY)) {
+                    int cityId = board.getCityIdAt(fromX, fromY);
                     if (cityId == -1 || board.getTribe(unit.getTribeId()).controlsCity(cityId)) {
                         stepCost = Math.max(0.5, stepCost / 2.0);
                     }
@@ -144,16 +146,15 @@ public class StepMove implements NeighbourHelper
             if(zoneOfControl){
                 stepCost = costFrom < unit.MOV ? (unit.MOV - costFrom) : unit.MOV;
                 if(costFrom + stepCost <= unit.MOV)
-                    neighbours.add(new PathNode(tile, stepCost));
+                    neighbours.add(x, y, stepCost);
 
             //No zone of control, allow movement if part of MOV is still available.
             }else if(Math.floor(costFrom + stepCost) <= unit.MOV){
-                neighbours.add(new PathNode(tile, stepCost));
+                neighbours.add(x, y, stepCost);
             }
 
 
         }
-        return neighbours;
     }
 
     @Override
@@ -30,8 +30,7 @@ public class UnitAction extends Action
     {
         //Check if target is visible.
         Vector2d targetPos = defender.getPosition();
-        boolean[][] obsGrid = b.getTribe(attacker.getTribeId()).getObsGrid();
-        if(!obsGrid[targetPos.x][targetPos.y]) return false;
+        if(!b.getTribe(attacker.getTribeId()).isVisible(targetPos.x, targetPos.y)) return false;
 
         //We need to check if the target is in range (Actions may _not_ be created in AttackFactory.computeActionVariants)
         Vector2d attackerPos = attacker.getPosition();
@@ -35,7 +35,7 @@ public class ConvertCommand implements ActionCommand {
             gs.getBoard().removeUnitFromCity(target, c, targetTribe);
 
             //add tribe to converted unit
-            target.setTribeId(unit.getTribeId());
+            gs.getBoard().setUnitTribe(target, unit.getTribeId());
             gs.getActiveTribe().addExtraUnit(target);
 
             // Updating relationship between tribes, deducting 5
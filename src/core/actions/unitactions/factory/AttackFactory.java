@@ -23,17 +23,12 @@ public class AttackFactory implements ActionFactory {
             Board b = gs.getBoard();
             Vector2d position = unit.getPosition();
 
-            // Loop through unit range, check if tile observable and action feasible, if so add action
-            LinkedList<Vector2d> potentialTiles = position.neighborhood(unit.RANGE, 0, b.getSize()); //use neighbourhood for board limits
-            for (Vector2d tile : potentialTiles) {
-                Unit other = b.getUnitAt(tile.x, tile.y);
-                if (other != null && other.getTribeId() != unit.getTribeId()) {
-                    // Check if there is actually a unit there (and it's not me)
-                    Attack a = new Attack(unit.getActorId());
-                    a.setTargetId(other.getActorId());
-                    if (a.isFeasible(gs)) {
-                        attacks.add(a);
-                    }
+            // Loop through the enemy units in range, check if action feasible, if so add action
+            for (Unit other : b.getUnitsInRange(position.x, position.y, unit.RANGE, unit.getTribeId(), true)) {
+                Attack a = new Attack(unit.getActorId());
+                a.setTargetId(other.getActorId());
+                if (a.isFeasible(gs)) {
+                    attacks.add(a);
                 }
             }
         }
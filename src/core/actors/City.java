@@ -214,23 +214,24 @@ public class City extends Actor{
         if(isBase && isPopulation && !onlyMatching) addPopulation(tribe, multiplier * building.getBonus());
 
         //Check all buildings next to the new building position.
-        for(Vector2d adjPosition : building.position.neighborhood(1, 0, board.getSize()))
+        for(int adjTile : board.getNeighbourTable().get(building.position.x, building.position.y, 1))
         {
+            int adjX = adjTile / board.getSize(), adjY = adjTile % board.getSize();
             //For each position, if there's a building and of the production matching point
-            Types.BUILDING b = board.getBuildingAt(adjPosition.x, adjPosition.y);
+            Types.BUILDING b = board.getBuildingAt(adjX, adjY);
             if(b != null && building.type.getMatchingBuilding() == b)
             {
                 //Retrieve this building, which could be form this city or from another one from the tribe.
                 Building existingBuilding;
-                int cityId = board.getCityIdAt(adjPosition.x, adjPosition.y);
+                int cityId = board.getCityIdAt(adjX, adjY);
                 if(cityId == actorId)
                 {
                     //the matching building belongs to this city
-                    existingBuilding = this.getBuilding(adjPosition.x, adjPosition.y);
+                    existingBuilding = this.getBuilding(adjX, adjY);
                 }else if(tribe.controlsCity(cityId)) {
                     //the matching building belongs to a city from a different tribe
                     City city = (City) gameState.getActor(cityId);
-                    existingBuilding = city.getBuilding(adjPosition.x, adjPosition.y);
+                    existingBuilding = city.getBuilding(adjX, adjY);
                     cityToAddTo = city;
 
                 }else return; //This may happen if the building belongs to a city from another tribe.
@@ -362,6 +363,7 @@ public class City extends Actor{
         c.production = hideInfo ? 0 : production;
         c.hasWalls = hasWalls;
         c.bound = bound;
+        c.pointsWorth = hideInfo ? 0 : pointsWorth;
         c.actorId = actorId;
         c.setBuildings(copyBuildings());
         c.setUnitsID(hideInfo ? new ArrayList<>() : new ArrayList<>(unitsID));
@@ -12,10 +12,9 @@ import core.game.GameState;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import utils.Vector2d;
-import utils.graph.PathNode;
-import utils.graph.Pathfinder;
 
 import java.util.*;
+import java.util.function.IntPredicate;
 
 import static core.Types.BUILDING.*;
 
@@ -43,11 +42,23 @@ public class Tribe extends Actor {
     //Score for the tribe.
     private int score = 0;
 
-    //Indicates if the position in the board is visible
-    private boolean[][] obsGrid;
+    //Indicates if the position in the board is visible, as a bitset with bit x*size+y set if (x,y) is visible.
+    private long[] obsGrid;
 
-    //List of city ids connected to the capital (capital not included)
-    private ArrayList<Integer> connectedCities = new ArrayList<>();
+    //Side of the board observed.
+    private int obsSize;
+
+    //Number of positions of the board that are visible.
+    private int revealedTiles;
+
+    //Copy-on-write: true if obsGrid may be shared with a copy of this tribe and must be cloned before writing.
+    private boolean obsGridShared;
+
+    //Number of water tiles revealed by this tribe. Water visibility changes the links between ports of its trade network.
+    private int revealedWaterTiles;
+
+    //Ids of the cities connected to the capital (capital not included), in the order they joined the network.
+    private LinkedHashSet<Integer> connectedCities = new LinkedHashSet<>();
 
     //Monument availability
     private HashMap<Types.BUILDING, MONUMENT_STATUS> monuments;
@@ -107,14 +118,17 @@ public class Tribe extends Actor {
         for (int i=0; i<JObsGrids.length(); i++){
             JSONArray JObsGrid = JObsGrids.getJSONArray(i);
             for (int j=0; j<JObsGrid.length(); j++){
-                obsGrid[i][j] = JObsGrid.getBoolean(j);
+                if(JObsGrid.getBoolean(j) && !isVisible(i, j)) {
+                    obsGrid[(i * obsSize + j) >>> 6] |= 1L << (i * obsSize + j);
+                    revealedTiles++;
+                }
             }
         }
         stars = obj.getInt("star");
         monuments = Types.BUILDING.initMonuments(obj.getJSONObject("monuments"));
         nPacifistCount = obj.getInt("nPacifistCount");
         techTree = new TechnologyTree(obj.getJSONObject("technology"));
-        connectedCities = new ArrayList<>();
+        connectedCities = new LinkedHashSet<>();
         JSONArray JConnectedCities = obj.getJSONArray("connectedCities");
         for (int i=0; i<JConnectedCities.length(); i++){
             connectedCities.add(JConnectedCities.getInt(i));
@@ -143,18 +157,18 @@ public class Tribe extends Actor {
         stars = TribesConfig.INITIAL_STARS;
         tribesMet = new ArrayList<>();
         extraUnits = new ArrayList<>();
-        connectedCities = new ArrayList<>();
+        connectedCities = new LinkedHashSet<>();
         monuments = Types.BUILDING.initMonuments();
         nKills = 0;
         nPacifistCount = 0;
     }
 
     public void initObsGrid(int size) {
-        obsGrid = new boolean[size][size];
+        obsSize = size;
+        obsGrid = new long[(size * size + 63) >>> 6];
         if(Constants.PLAY_WITH_FULL_OBS)
-        {
-            for (boolean[] booleans : obsGrid) Arrays.fill(booleans, true);
-        }
+            revealAll(obsGrid, size);
+        revealedTiles = Constants.PLAY_WITH_FULL_OBS ? size * size : 0;
     }
 
 
@@ -172,21 +186,33 @@ public class Tribe extends Actor {
         tribeCopy.hasDeclaredWar = this.hasDeclaredWar;
         tribeCopy.nWarsDeclared = this.nWarsDeclared;
         tribeCopy.nStarsSent = this.nStarsSent;
+        tribeCopy.revealedWaterTiles = this.revealedWaterTiles;
+        tribeCopy.obsSize = this.obsSize;
 
         tribeCopy.techTree = hideInfo ? new TechnologyTree() : this.techTree.copy();
 
-        tribeCopy.obsGrid = new boolean[obsGrid.length][obsGrid.length];
-        for (int i = 0; i < obsGrid.length; ++i)
-            if(!hideInfo)
-                System.arraycopy(obsGrid[i], 0, tribeCopy.obsGrid[i], 0, obsGrid.length);
-            else //copy all visible (or enemy units won't be able to move in the FM). Assumes other tribes see everything.
-                for(int j = 0; j < obsGrid[i].length; j++)
-                    tribeCopy.obsGrid[i][j] = true;
+        if(!hideInfo && Constants.COPY_ON_WRITE)
+        {
+            tribeCopy.obsGrid = obsGrid;
+            tribeCopy.obsGridShared = true;
+            obsGridShared = true;
+            tribeCopy.revealedTiles = revealedTiles;
+        }
+        else if(!hideInfo) {
+            tribeCopy.obsGrid = obsGrid.clone();
+            tribeCopy.revealedTiles = revealedTiles;
+        }
+        else {
+            //copy all visible (or enemy units won't be able to move in the FM). Assumes other tribes see everything.
+            tribeCopy.obsGrid = new long[obsGrid.length];
+            revealAll(tribeCopy.obsGrid, obsSize);
+            tribeCopy.revealedTiles = obsSize * obsSize;
+        }
 
         tribeCopy.citiesID = new ArrayList<>();
         if(!hideInfo) tribeCopy.citiesID.addAll(citiesID);
 
-        tribeCopy.connectedCities = new ArrayList<>();
+        tribeCopy.connectedCities = new LinkedHashSet<>();
         if(!hideInfo) tribeCopy.connectedCities.addAll(connectedCities);
 
         tribeCopy.tribesMet = new ArrayList<>();
@@ -205,42 +231,47 @@ public class Tribe extends Actor {
     }
 
     public boolean clearView(int x, int y, int range, Random r, Board b) {
-        int size = obsGrid.length;
-        Vector2d center = new Vector2d(x, y);
+        int size = obsSize;
         boolean requiresNetworkUpdate = false;
 
-        LinkedList<Vector2d> tiles = center.neighborhood(range, 0, size);
-        tiles.add(center);
+        int[] tiles = b.getNeighbourTable().get(x, y, range);
 
-        for(Vector2d tile : tiles)
+        for(int i = 0; i <= tiles.length; i++)
         {
-            if (!obsGrid[tile.x][tile.y]) {
+            //The center goes last.
+            int tileX = (i < tiles.length) ? tiles[i] / size : x;
+            int tileY = (i < tiles.length) ? tiles[i] % size : y;
+            if (!isVisible(tileX, tileY)) {
                 //Points and visibility.
-                obsGrid[tile.x][tile.y] = true;
+                ownObsGrid();
+                obsGrid[(tileX * size + tileY) >>> 6] |= 1L << (tileX * size + tileY);
+                revealedTiles++;
                 this.score += TribesConfig.CLEAR_VIEW_POINTS;
 
                 //Network updates for this tribe, only if a road or a water tile has been revealed.
-                Types.TERRAIN terr = b.getTerrainAt(tile.x, tile.y);
-                if(b.isRoad(tile.x, tile.y) || ((terr != null) && terr.isWater()))
+                Types.TERRAIN terr = b.getTerrainAt(tileX, tileY);
+                if((terr != null) && terr.isWater())
+                    revealedWaterTiles++;
+                if(b.isRoad(tileX, tileY) || ((terr != null) && terr.isWater()))
                     requiresNetworkUpdate = true;
             }
 
             //Meeting other tribes
-            Unit u = b.getUnitAt(tile.x,tile.y);
-            City c = b.getCityInBorders(tile.x,tile.y);
+            Unit u = b.getUnitAt(tileX,tileY);
+            City c = b.getCityInBorders(tileX,tileY);
 
             //This tribe meets other tribe when clearing view if other tribe's unit or city is visible
             if( u !=null){
                 meetTribe(r,b.getTribes(),u.getTribeId());
                 //other tribe meets this tribe if moving into visible area
-                if(b.getTribe(u.tribeId).obsGrid[tile.x][tile.y]){
+                if(b.getTribe(u.tribeId).isVisible(tileX, tileY)){
                     meetTribe(r,b.getTribes(),this.tribeId);
                 }
             }
             if(c !=null){
                 meetTribe(r,b.getTribes(),c.getTribeId());
                 //other tribe meets this tribe if moving into visible area
-                if(b.getTribe(c.tribeId).obsGrid[tile.x][tile.y]){
+                if(b.getTribe(c.tribeId).isVisible(tileX, tileY)){
                     meetTribe(r,b.getTribes(),this.tribeId);
                 }
             }
@@ -248,14 +279,9 @@ public class Tribe extends Actor {
 
         //We may be clearing the last tiles of the board, which grants a monument.
         // The boost is only available when playing with partial observability.
-        if(!Constants.PLAY_WITH_FULL_OBS && monuments.get(EYE_OF_GOD) == MONUMENT_STATUS.UNAVAILABLE)
+        if(!Constants.PLAY_WITH_FULL_OBS && monuments.get(EYE_OF_GOD) == MONUMENT_STATUS.UNAVAILABLE
+                && revealedTiles == size * size)
         {
-            for (boolean[] booleans : obsGrid)
-                for (int j = 0; j < obsGrid[0].length; ++j) {
-                    if (!booleans[j]) //end and out
-                        return requiresNetworkUpdate;
-                }
-
             //All clear and we couldn't buy monument before. Now we can.
             monuments.put(EYE_OF_GOD, MONUMENT_STATUS.AVAILABLE);
         }
@@ -264,6 +290,31 @@ public class Tribe extends Actor {
     }
 
 
+    /**
+     * Ensures this tribe owns its observation grid, cloning it if it's shared with a copy of this tribe.
+     */
+    private void ownObsGrid()
+    {
+        if(obsGridShared)
+        {
+            obsGrid = obsGrid.clone();
+            obsGridShared = false;
+        }
+    }
+
+    /**
+     * Sets the bits of all the positions of a size by size board in a visibility bitset.
+     * @param grid bitset to fill.
+     * @param size side of the board.
+     */
+    private static void revealAll(long[] grid, int size)
+    {
+        int n = size * size;
+        Arrays.fill(grid, 0, n >>> 6, -1L);
+        if((n & 63) != 0)
+            grid[n >>> 6] = (1L << n) - 1;
+    }
+
     public void addCity(int id) {
         citiesID.add(id);
     }
@@ -306,12 +357,47 @@ public class Tribe extends Actor {
         return tribe.getName();
     }
 
+    /**
+     * Returns the visibility of the board as a grid. The grid is built on each call: use isVisible(x,y) to check
+     * single positions.
+     * @return a new grid with the visible positions set to true.
+     */
     public boolean[][] getObsGrid() {
-        return obsGrid;
+        boolean[][] grid = new boolean[obsSize][obsSize];
+        for (int k = nextVisibleTile(0); k != -1; k = nextVisibleTile(k + 1))
+            grid[k / obsSize][k % obsSize] = true;
+        return grid;
     }
 
     public boolean isVisible(int x, int y) {
-        return obsGrid[x][y];
+        int k = x * obsSize + y;
+        return (obsGrid[k >>> 6] & (1L << k)) != 0;
+    }
+
+    /**
+     * Finds the first visible position of the board from a given one, in the order of their indices (x*size+y).
+     * @param from index of the position to start from.
+     * @return index of the first visible position at or after from, -1 if there's none.
+     */
+    public int nextVisibleTile(int from) {
+        int w = from >>> 6;
+        if(w >= obsGrid.length)
+            return -1;
+        long bits = obsGrid[w] & (-1L << from);
+        while (bits == 0) {
+            if(++w == obsGrid.length)
+                return -1;
+            bits = obsGrid[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    public int getRevealedTiles() {
+        return revealedTiles;
+    }
+
+    public int getRevealedWaterTiles() {
+        return revealedWaterTiles;
     }
 
     public Types.TRIBE getType() {
@@ -435,7 +521,14 @@ public class Tribe extends Actor {
 
 
 
-    public void updateNetwork(Pathfinder tp, Board b, boolean thisTribesTurn) {
+    /**
+     * Updates the cities connected to the capital, and the populations of the cities that join or leave the network.
+     * @param connected tells if a tile (x * size + y) is connected to the capital through the trade network. Null
+     *                  if the network of this tribe hasn't been computed.
+     * @param b board of the game.
+     * @param thisTribesTurn true if it's the turn of this tribe.
+     */
+    public void updateNetwork(IntPredicate connected, Board b, boolean thisTribesTurn) {
         ArrayList<Integer> lostCities = new ArrayList<>();
         ArrayList<Integer> addedCities = new ArrayList<>();
 
@@ -445,7 +538,7 @@ public class Tribe extends Actor {
             lostCities.addAll(connectedCities);
             connectedCities.clear();
 
-        } else if (tp != null) {
+        } else if (connected != null) {
 
             City capital = (City) b.getActor(capitalID);
 
@@ -455,9 +548,7 @@ public class Tribe extends Actor {
                     //Check if the city is connected to the capital
                     City nonCapitalCity = (City) b.getActor(cityId);
                     Vector2d nonCapitalPos = nonCapitalCity.getPosition();
-                    ArrayList<PathNode> pathToCity = tp.findPathTo(nonCapitalPos);
-
-                    boolean connectedNow = (pathToCity != null) && (pathToCity.size() > 0);
+                    boolean connectedNow = connected.test(nonCapitalPos.x * b.getSize() + nonCapitalPos.y);
 
                     //This was previously connected
                     if (connectedCities.contains(cityId)) {
@@ -514,9 +605,7 @@ public class Tribe extends Actor {
      */
     private void dropCityFromNetwork(City lostCity)
     {
-        int cityId = lostCity.getActorId();
-        int cityIdx = connectedCities.indexOf(cityId);
-        connectedCities.remove(cityIdx);
+        connectedCities.remove(lostCity.getActorId());
 
         //this city loses 1 population
         lostCity.addPopulation(this, -1);
@@ -652,7 +741,7 @@ public class Tribe extends Actor {
 
     public void resetPacifistCount() {nPacifistCount = 0;}
 
-    public ArrayList<Integer> getConnectedCities() {
+    public Set<Integer> getConnectedCities() {
         return connectedCities;
     }
 
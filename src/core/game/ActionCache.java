@@ -0,0 +1,251 @@
+package core.game;
+
+import core.Types;
+import core.actions.Action;
+import core.actors.Actor;
+import core.actors.City;
+import core.actors.Tribe;
+import core.actors.units.Unit;
+import utils.Vector2d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Cache of the actions computed for the cities and units of a tribe, with the changes made to the game since
+ * they were computed. It allows computePlayerActions() to recompute only the actions of the actors affected
+ * by the actions executed since, instead of all of them.
+ * An actor is affected if it was accessed by an executed action, if the board changed within its dependency
+ * radius or if a tribe-level feature its actions depend on (stars, technologies, cities or monuments) changed.
+ */
+class ActionCache
+{
+    // Tribe the actions were computed for, -1 if there are no actions cached.
+    private int tribeId = -1;
+
+    // Tick and state of the tribe when the actions were computed.
+    private int tick;
+    private int stars;
+    private long technologies;
+    private int numCities;
+    private long monuments;
+
+    // Actions of each city and unit of the tribe, including the ones with no actions. Never modified once computed.
+    private HashMap<Integer, ArrayList<Action>> cityActions;
+    private HashMap<Integer, ArrayList<Action>> unitActions;
+
+    // Ids of the actors accessed by the actions executed since the actions were computed.
+    private BitSet touchedActors = new BitSet();
+
+    // Areas of the board changed since the actions were computed, as (x, y, radius) triplets.
+    private int[] changedAreas = new int[3 * 16];
+    private int numChangedAreas;
+
+    // True if the changes can't be tracked and all actions must be recomputed.
+    private boolean allChanged;
+
+    /**
+     * Indicates if changes need to be tracked, which is the case if there are actions that could be reused.
+     * @return true if the changes must be recorded in this cache.
+     */
+    boolean isTracking()
+    {
+        return tribeId != -1 && !allChanged;
+    }
+
+    /**
+     * Records that an actor has been accessed (and possibly modified) by an action.
+     * @param actor actor accessed.
+     */
+    void touchActor(Actor actor)
+    {
+        touchedActors.set(actor.getActorId());
+        Vector2d pos = actor.getPosition();
+        if(pos != null)
+            markChanged(pos.x, pos.y, 0);
+    }
+
+    /**
+     * Records that the tiles of the board at distance radius or less from (x, y) may have changed.
+     * @param x x coordinate of the center of the area.
+     * @param y y coordinate of the center of the area.
+     * @param radius radius of the area.
+     */
+    void markChanged(int x, int y, int radius)
+    {
+        if(3 * numChangedAreas == changedAreas.length)
+            changedAreas = Arrays.copyOf(changedAreas, changedAreas.length * 2);
+        changedAreas[3 * numChangedAreas] = x;
+        changedAreas[3 * numChangedAreas + 1] = y;
+        changedAreas[3 * numChangedAreas + 2] = radius;
+        numChangedAreas++;
+    }
+
+    /**
+     * Records a change that can't be located, so all actions must be recomputed.
+     */
+    void markAllChanged()
+    {
+        allChanged = true;
+    }
+
+    /**
+     * Discards the actions cached.
+     */
+    void invalidate()
+    {
+        tribeId = -1;
+        cityActions = null;
+        unitActions = null;
+        clearChanges();
+    }
+
+    /**
+     * Indicates if the actions cached can be reused to compute the actions of a tribe at a given tick.
+     * @param tribe tribe whose actions are being computed.
+     * @param tick current tick of the game.
+     * @return true if the actions of the actors not affected by the changes can be reused.
+     */
+    boolean canReuse(Tribe tribe, int tick)
+    {
+        return tribeId == tribe.getTribeId() && this.tick == tick && !allChanged &&
+                technologies == technologiesKey(tribe) && numCities == tribe.getNumCities() &&
+                monuments == monumentsKey(tribe);
+    }
+
+    /**
+     * Returns the cached actions of a city, if they are still valid. These are invalid if the city was accessed,
+     * if the stars of the tribe changed or if the board changed close to its borders.
+     * @param city city whose actions are requested.
+     * @param tribe tribe of the city.
+     * @return the actions of the city, or null if they must be recomputed.
+     */
+    ArrayList<Action> getCityActions(City city, Tribe tribe)
+    {
+        if(tribe.getStars() != stars || touchedActors.get(city.getActorId()))
+            return null;
+
+        //Actions depend on the tiles within the borders and their neighbours.
+        if(changedNear(city.getPosition(), city.getBound() + 2))
+            return null;
+
+        return cityActions.get(city.getActorId());
+    }
+
+    /**
+     * Returns the cached actions of a unit, if they are still valid. These are invalid if the unit was accessed,
+     * if the board changed within the reach of its moves and attacks or, for units that can be upgraded, if the
+     * stars of the tribe changed.
+     * @param unit unit whose actions are requested.
+     * @param tribe tribe of the unit.
+     * @return the actions of the unit, or null if they must be recomputed.
+     */
+    ArrayList<Action> getUnitActions(Unit unit, Tribe tribe)
+    {
+        if(touchedActors.get(unit.getActorId()))
+            return null;
+
+        boolean upgradable = unit.getType() == Types.UNIT.BOAT || unit.getType() == Types.UNIT.SHIP;
+        if(upgradable && tribe.getStars() != stars)
+            return null;
+
+        //Moves can go through up to 2*MOV tiles (roads halve the cost of a step) and check zone of control
+        // one tile further.
+        int radius = Math.max(2 * unit.MOV + 2, unit.RANGE);
+        if(changedNear(unit.getPosition(), radius))
+            return null;
+
+        return unitActions.get(unit.getActorId());
+    }
+
+    /**
+     * Stores the actions computed for a tribe, to be reused in the next computation of its actions.
+     * @param tribe tribe the actions were computed for.
+     * @param tick current tick of the game.
+     * @param cityActions actions of each city of the tribe, including the ones with no actions.
+     * @param unitActions actions of each unit of the tribe, including the ones with no actions.
+     */
+    void update(Tribe tribe, int tick, HashMap<Integer, ArrayList<Action>> cityActions,
+                HashMap<Integer, ArrayList<Action>> unitActions)
+    {
+        this.tribeId = tribe.getTribeId();
+        this.tick = tick;
+        this.stars = tribe.getStars();
+        this.technologies = technologiesKey(tribe);
+        this.numCities = tribe.getNumCities();
+        this.monuments = monumentsKey(tribe);
+        this.cityActions = cityActions;
+        this.unitActions = unitActions;
+        clearChanges();
+    }
+
+    /**
+     * Copies this cache. Actions cached are shared, as they are never modified.
+     * @return a copy of this cache.
+     */
+    ActionCache copy()
+    {
+        ActionCache copy = new ActionCache();
+        copy.tribeId = tribeId;
+        copy.tick = tick;
+        copy.stars = stars;
+        copy.technologies = technologies;
+        copy.numCities = numCities;
+        copy.monuments = monuments;
+        copy.cityActions = cityActions;
+        copy.unitActions = unitActions;
+        copy.touchedActors = (BitSet) touchedActors.clone();
+        copy.changedAreas = changedAreas.clone();
+        copy.numChangedAreas = numChangedAreas;
+        copy.allChanged = allChanged;
+        return copy;
+    }
+
+    /**
+     * Checks if any of the changed areas is within a distance from a position.
+     * @param pos position to check.
+     * @param radius distance from pos.
+     * @return true if any changed tile is at a Chebyshev distance of radius or less from pos.
+     */
+    private boolean changedNear(Vector2d pos, int radius)
+    {
+        for (int i = 0; i < numChangedAreas; i++)
+        {
+            int reach = radius + changedAreas[3 * i + 2];
+            if(Math.abs(changedAreas[3 * i] - pos.x) <= reach && Math.abs(changedAreas[3 * i + 1] - pos.y) <= reach)
+                return true;
+        }
+        return false;
+    }
+
+    private void clearChanges()
+    {
+        touchedActors.clear();
+        numChangedAreas = 0;
+        allChanged = false;
+    }
+
+    private static long technologiesKey(Tribe tribe)
+    {
+        long key = 0;
+        for (Types.TECHNOLOGY tech : Types.TECHNOLOGY.values())
+            if(tribe.getTechTree().isResearched(tech))
+                key |= 1L << tech.ordinal();
+        return key;
+    }
+
+    private static long monumentsKey(Tribe tribe)
+    {
+        long key = 0;
+        HashMap<Types.BUILDING, Types.BUILDING.MONUMENT_STATUS> monuments = tribe.getMonuments();
+        for (Types.BUILDING b : Types.BUILDING.values())
+        {
+            Types.BUILDING.MONUMENT_STATUS status = monuments.get(b);
+            if(status != null)
+                key = key * 4 + status.ordinal() + 1;
+        }
+        return key;
+    }
+}
@@ -0,0 +1,89 @@
+package core.game;
+
+import core.actors.Actor;
+
+/**
+ * Registry of the actors of a board, indexed by actor id. Actor ids are dense (they are given by an
+ * increasing counter), so actors are kept in an array that grows as needed. Empty slots (ids not used yet
+ * or of actors removed from the game) are null.
+ */
+class ActorRegistry
+{
+    // Initial capacity of the registry.
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Actors of the game, indexed by id.
+    private Actor[] actors;
+
+    /**
+     * Creates an empty registry.
+     */
+    ActorRegistry()
+    {
+        actors = new Actor[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates an empty registry with the given capacity.
+     * @param capacity number of actor ids that fit without growing.
+     */
+    private ActorRegistry(int capacity)
+    {
+        actors = new Actor[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Creates an empty registry with the same capacity as this one.
+     * @return the new registry.
+     */
+    ActorRegistry emptyCopy()
+    {
+        return new ActorRegistry(actors.length);
+    }
+
+    /**
+     * Gets an actor from its id.
+     * @param actorId id of the actor
+     * @return the actor, null if there's no actor with this id.
+     */
+    Actor get(int actorId)
+    {
+        if(actorId < 0 || actorId >= actors.length)
+            return null;
+        return actors[actorId];
+    }
+
+    /**
+     * Puts an actor in the registry, replacing any actor with the same id.
+     * @param actorId id of the actor
+     * @param actor actor to add.
+     */
+    void put(int actorId, Actor actor)
+    {
+        if(actorId >= actors.length)
+        {
+            Actor[] grown = new Actor[Math.max(actorId + 1, actors.length * 2)];
+            System.arraycopy(actors, 0, grown, 0, actors.length);
+            actors = grown;
+        }
+        actors[actorId] = actor;
+    }
+
+    /**
+     * Removes an actor from the registry.
+     * @param actorId id of the actor to remove
+     * @return true if the actor was removed (false if it didn't exist).
+     */
+    boolean remove(int actorId)
+    {
+        if(get(actorId) == null)
+            return false;
+        actors[actorId] = null;
+        return true;
+    }
+
+    /**
+     * Upper bound (exclusive) of the ids of the actors in this registry, to iterate it with get().
+     */
+    int idBound() { return actors.length; }
+}
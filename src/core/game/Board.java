@@ -11,7 +11,9 @@ import core.actors.Tribe;
 import core.actors.units.*;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import utils.NeighbourTable;
 import utils.Vector2d;
+import utils.Zobrist;
 import utils.graph.*;
 
 import java.util.*;
@@ -20,17 +22,20 @@ import static core.Types.TERRAIN.*;
 
 public class Board {
 
-    // Array for the type of terrain that each tile of board will have
-    private Types.TERRAIN[][] terrains;
+    // Layers of the board are stored as flat planes, with position (x,y) at index x*size+y (see idx()).
+    // Enum layers store ordinal+1 for each tile, 0 meaning null (see the encode/decode methods below).
 
-    // Array for resource each tile of the board will have
-    private Types.RESOURCE[][] resources;
+    // Plane for the type of terrain that each tile of board will have
+    private byte[] terrains;
 
-    // Array for buildings each tile of the board will have
-    private Types.BUILDING[][] buildings;
+    // Plane for resource each tile of the board will have
+    private byte[] resources;
 
-    // Array for units each tile of the board will have
-    private int[][] units;
+    // Plane for buildings each tile of the board will have
+    private byte[] buildings;
+
+    // Plane for units each tile of the board will have
+    private int[] units;
 
     // Array for tribes
     private Tribe[] tribes;
@@ -38,15 +43,24 @@ public class Board {
     // Array for capital IDs
     private int[] capitalIDs;
 
-    // Array for id of the city that owns each tile. -1 if no city owns the tile.
-    private int[][] tileCityId;
+    // Plane for id of the city that owns each tile. -1 if no city owns the tile.
+    private int[] tileCityId;
 
     //Actors in the game
-    private HashMap<Integer, Actor> gameActors;
+    private ActorRegistry gameActors;
 
     //variable to declare size of board
     private int size;
 
+    //Precomputed neighbourhoods of the tiles of this board (shared by all boards of the same size).
+    private NeighbourTable neighbourTable;
+
+    //Tiles where each type of building can be placed. Built the first time it's needed, null until then.
+    private BuildIndex buildIndex;
+
+    //Tiles occupied by the units of each tribe. Built the first time it's needed, null until then.
+    private UnitOccupancy unitOccupancy;
+
     // Player currently making a move.
     private int activeTribeID = -1;
 
@@ -62,9 +76,29 @@ public class Board {
     //Indicate if this model is native (not a copy of the game one) or not.
     private boolean isNative;
 
+    // Copy-on-write: bit mask of the planes (see the *_PLANE flags) this board owns. Planes not owned may be
+    // shared with other copies and are cloned before writing.
+    private int ownedPlanes;
+    private static final int TERRAIN_PLANE = 1, RESOURCE_PLANE = 2, BUILDING_PLANE = 4, UNIT_PLANE = 8, CITY_PLANE = 16;
+    private static final int ALL_PLANES = TERRAIN_PLANE | RESOURCE_PLANE | BUILDING_PLANE | UNIT_PLANE | CITY_PLANE;
+
+    // Zobrist hash of the planes, updated incrementally on every write (see utils.Zobrist).
+    private long planesHash;
+
+    // Enum values, indexed by ordinal, to decode the planes.
+    private static final Types.TERRAIN[] TERRAIN_VALUES = Types.TERRAIN.values();
+    private static final Types.RESOURCE[] RESOURCE_VALUES = Types.RESOURCE.values();
+    private static final Types.BUILDING[] BUILDING_VALUES = Types.BUILDING.values();
+
+    // Undo frame that records the actors modified while an action is applied. Null if nothing is being recorded.
+    private UndoFrame journal;
+
+    // Action cache that records the changes made while an action is applied. Null if changes are not tracked.
+    private ActionCache changes;
+
     // Constructor for board
     public Board() {
-        this.gameActors = new HashMap<>();
+        this.gameActors = new ActorRegistry();
     }
 
     /**
@@ -75,7 +109,7 @@ public class Board {
      * @param tribes All tribes in the game
      */
     public Board(JSONObject JBoard, int[] capitalIDs, int activeTribeID, Tribe[] tribes){
-        this.gameActors = new HashMap<>();
+        this.gameActors = new ActorRegistry();
         this.capitalIDs = capitalIDs;
         JSONArray JResource = JBoard.getJSONArray("resource");
         JSONArray JTerrain = JBoard.getJSONArray("terrain");
@@ -85,11 +119,8 @@ public class Board {
         JSONArray JBuilding = JBoard.getJSONArray("building");
 
         size = JResource.length();
-        terrains = new Types.TERRAIN[size][size];
-        resources = new Types.RESOURCE[size][size];
-        buildings = new Types.BUILDING[size][size];
-        units = new int[size][size];
-        tileCityId = new int[size][size];
+        neighbourTable = NeighbourTable.forSize(size);
+        allocatePlanes();
         isNative = true;
         actorIDcounter = JBoard.getInt("actorIDcounter");
         this.activeTribeID = activeTribeID;
@@ -104,15 +135,16 @@ public class Board {
             JSONArray networkItem = JNetwork.getJSONArray(i);
             JSONArray buildingItem = JBuilding.getJSONArray(i);
             for (int j=0; j<size; j++){
-                terrains[i][j] = Types.TERRAIN.getTypeByKey(terrainItem.getInt(j));
+                int k = idx(i, j);
+                terrains[k] = encode(Types.TERRAIN.getTypeByKey(terrainItem.getInt(j)));
                 if (resourceItem.getInt(j) != -1) {
-                    resources[i][j] = Types.RESOURCE.getTypeByKey(resourceItem.getInt(j));
+                    resources[k] = encode(Types.RESOURCE.getTypeByKey(resourceItem.getInt(j)));
                 }
-                units[i][j] = unitIDItem.getInt(j);
-                tileCityId[i][j] = cityIDItem.getInt(j);
+                units[k] = unitIDItem.getInt(j);
+                tileCityId[k] = cityIDItem.getInt(j);
                 networkTiles[i][j] = networkItem.getBoolean(j);
                 if(buildingItem.getInt(j) != -1) {
-                    buildings[i][j] = Types.BUILDING.getTypeByKey(buildingItem.getInt(j));
+                    buildings[k] = encode(Types.BUILDING.getTypeByKey(buildingItem.getInt(j)));
                 }
             }
 
@@ -120,6 +152,7 @@ public class Board {
 
         tradeNetwork = new TradeNetwork(networkTiles);
         diplomacy = new Diplomacy(tribes.length);
+        planesHash = computePlanesHash();
     }
 
 
@@ -131,12 +164,9 @@ public class Board {
     void init(int size, Tribe[] tribes) {
 
         this.size = size;
+        this.neighbourTable = NeighbourTable.forSize(size);
         this.capitalIDs = new int[tribes.length];
-        terrains = new Types.TERRAIN[size][size];
-        resources = new Types.RESOURCE[size][size];
-        buildings = new Types.BUILDING[size][size];
-        units = new int[size][size];
-        tileCityId = new int[size][size];
+        allocatePlanes();
         tradeNetwork = new TradeNetwork(size);
         diplomacy = new Diplomacy(tribes.length);
         isNative = true;
@@ -145,11 +175,7 @@ public class Board {
             t.initObsGrid(size);
 
         //Initialise tile IDs
-        for (int x = 0; x < size; x++) {
-            for (int y = 0; y < size; y++) {
-                tileCityId[x][y] = -1;
-            }
-        }
+        Arrays.fill(tileCityId, -1);
 
         this.assignTribes(tribes);
     }
@@ -171,15 +197,10 @@ public class Board {
     public Board copy(boolean partialObs, int playerId) {
         Board copyBoard = new Board();
         copyBoard.size = this.size;
+        copyBoard.neighbourTable = this.neighbourTable;
         copyBoard.tribes = new Tribe[this.tribes.length];
-        copyBoard.terrains = new Types.TERRAIN[size][size];
-        copyBoard.resources = new Types.RESOURCE[size][size];
-        copyBoard.buildings = new Types.BUILDING[size][size];
-        copyBoard.units = new int[size][size];
-        copyBoard.tileCityId = new int[size][size];
         copyBoard.activeTribeID = activeTribeID;
         copyBoard.actorIDcounter = actorIDcounter;
-        copyBoard.tradeNetwork = new TradeNetwork(size);
         copyBoard.diplomacy = diplomacy.copy();
         copyBoard.isNative = false;
         copyBoard.capitalIDs = new int[tribes.length];
@@ -187,22 +208,43 @@ public class Board {
         //copy capital IDs
         System.arraycopy(capitalIDs, 0, copyBoard.capitalIDs, 0, tribes.length);
 
-        // Copy board objects (they are all ids)
-        for (int x = 0; x < this.size; x++) {
-            for (int y = 0; y < this.size; y++) {
-
-                if(!partialObs || tribes[playerId].isVisible(x,y))
-                {
-                    copyBoard.units[x][y] = units[x][y];
-                    copyBoard.setTerrainAt(x, y, terrains[x][y]);
-                    copyBoard.setResourceAt(x, y, maskResource(playerId, x, y));
-                    copyBoard.setBuildingAt(x, y, buildings[x][y]);
-                    copyBoard.tileCityId[x][y] = tileCityId[x][y];
-                    copyBoard.tradeNetwork.setTradeNetworkValue(x,y,tradeNetwork.getTradeNetworkValue(x,y));
-                }else{
-                    copyBoard.setTerrainAt(x, y, FOG);
-                }
+        if(Constants.COPY_ON_WRITE && !partialObs && playerId == -1)
+        {
+            //Nothing to hide: both boards share all planes until one of them writes.
+            shareLayers(copyBoard);
+        }else if(!partialObs && playerId == -1) {
+            //Full copy: the planes are copied as a whole.
+            copyBoard.terrains = terrains.clone();
+            copyBoard.resources = resources.clone();
+            copyBoard.buildings = buildings.clone();
+            copyBoard.units = units.clone();
+            copyBoard.tileCityId = tileCityId.clone();
+            copyBoard.ownedPlanes = ALL_PLANES;
+            copyBoard.planesHash = planesHash;
+            copyBoard.buildIndex = buildIndex == null ? null : buildIndex.copy();
+            copyBoard.unitOccupancy = unitOccupancy == null ? null : unitOccupancy.copy();
+            copyBoard.tradeNetwork = new TradeNetwork(size);
+            for (int x = 0; x < this.size; x++)
+                for (int y = 0; y < this.size; y++)
+                    copyBoard.tradeNetwork.setTradeNetworkValue(x, y, tradeNetwork.getTradeNetworkValue(x, y));
+        }else {
+            copyBoard.allocatePlanes();
+            copyBoard.tradeNetwork = new TradeNetwork(size);
+
+            // Copy board objects (they are all ids). Only the tiles visible by the player are copied, the rest is fog.
+            if(partialObs)
+                Arrays.fill(copyBoard.terrains, encode(FOG));
+            for (int k = partialObs ? tribes[playerId].nextVisibleTile(0) : 0; k != -1 && k < size * size;
+                 k = partialObs ? tribes[playerId].nextVisibleTile(k + 1) : k + 1) {
+                int x = k / size, y = k % size;
+                copyBoard.units[k] = units[k];
+                copyBoard.terrains[k] = terrains[k];
+                copyBoard.resources[k] = encode(maskResource(playerId, x, y));
+                copyBoard.buildings[k] = buildings[k];
+                copyBoard.tileCityId[k] = tileCityId[k];
+                copyBoard.tradeNetwork.setTradeNetworkValue(x, y, tradeNetwork.getTradeNetworkValue(x, y));
             }
+            copyBoard.planesHash = copyBoard.computePlanesHash();
         }
 
         // Copy tribes
@@ -213,9 +255,10 @@ public class Board {
         }
 
         //Deep copy of all actors in the board
-        copyBoard.gameActors = new HashMap<>();
-        for (Actor act : gameActors.values()) {
-            int id = act.getActorId();
+        copyBoard.gameActors = gameActors.emptyCopy();
+        for (int id = 0; id < gameActors.idBound(); id++) {
+            Actor act = gameActors.get(id);
+            if(act == null) continue;
             int actTribeId = act.getTribeId();
             boolean actorVisible = playerId == -1 || tribes[playerId].isVisible(act.getPosition().x, act.getPosition().y);
 
@@ -241,6 +284,166 @@ public class Board {
         return copyBoard;
     }
 
+    /**
+     * Allocates empty planes for all layers of this board, owned by this board.
+     */
+    private void allocatePlanes()
+    {
+        terrains = new byte[size * size];
+        resources = new byte[size * size];
+        buildings = new byte[size * size];
+        units = new int[size * size];
+        tileCityId = new int[size * size];
+        ownedPlanes = ALL_PLANES;
+        buildIndex = null;
+        unitOccupancy = null;
+    }
+
+    /**
+     * Makes copyBoard share all planes of this board (copy-on-write). No plane is allocated; planes are
+     * cloned by the first of the two boards that writes on them (see ownPlane()).
+     * @param copyBoard board that receives the shared layers.
+     */
+    private void shareLayers(Board copyBoard)
+    {
+        copyBoard.terrains = terrains;
+        copyBoard.resources = resources;
+        copyBoard.buildings = buildings;
+        copyBoard.units = units;
+        copyBoard.tileCityId = tileCityId;
+        copyBoard.planesHash = planesHash;
+        copyBoard.buildIndex = buildIndex == null ? null : buildIndex.copy();
+        copyBoard.unitOccupancy = unitOccupancy == null ? null : unitOccupancy.copy();
+        copyBoard.tradeNetwork = tradeNetwork.copy();
+
+        //Neither board owns the planes anymore.
+        copyBoard.ownedPlanes = 0;
+        ownedPlanes = 0;
+    }
+
+    /**
+     * Ensures this board owns a plane, cloning it if it is shared with another board.
+     * Must be called before writing any position of that plane.
+     * @param plane plane to own (one of the *_PLANE flags).
+     */
+    private void ownPlane(int plane)
+    {
+        if((ownedPlanes & plane) == 0)
+        {
+            switch (plane) {
+                case TERRAIN_PLANE: terrains = terrains.clone(); break;
+                case RESOURCE_PLANE: resources = resources.clone(); break;
+                case BUILDING_PLANE: buildings = buildings.clone(); break;
+                case UNIT_PLANE: units = units.clone(); break;
+                case CITY_PLANE: tileCityId = tileCityId.clone(); break;
+            }
+            ownedPlanes |= plane;
+        }
+    }
+
+    /**
+     * Sets the id of the unit at position k of the unit plane, updating the hash of the planes.
+     * @param k index of the position in the plane.
+     * @param unitId id of the unit, 0 for no unit.
+     */
+    private void setUnitIdAt(int k, int unitId)
+    {
+        ownPlane(UNIT_PLANE);
+        planesHash ^= planeKey(Zobrist.UNIT_AT, k, units[k]) ^ planeKey(Zobrist.UNIT_AT, k, unitId);
+        if(unitOccupancy != null)
+        {
+            unitOccupancy.remove(k);
+            Actor unit = gameActors.get(unitId);
+            if(unit != null)
+                unitOccupancy.add(k, unit.getTribeId());
+        }
+        units[k] = unitId;
+    }
+
+    /**
+     * Returns the index of units on the board, building it from the unit plane if it doesn't exist yet.
+     */
+    private UnitOccupancy getUnitOccupancy()
+    {
+        if(unitOccupancy == null)
+        {
+            unitOccupancy = new UnitOccupancy(size, tribes.length);
+            for (int k = 0; k < size * size; k++)
+            {
+                Actor unit = units[k] > 0 ? gameActors.get(units[k]) : null;
+                if(unit != null)
+                    unitOccupancy.add(k, unit.getTribeId());
+            }
+        }
+        return unitOccupancy;
+    }
+
+    /**
+     * Returns the Zobrist key of a value in a plane. Empty values (0 or -1) have no key.
+     */
+    private static long planeKey(int feature, int k, int value)
+    {
+        return value <= 0 ? 0 : Zobrist.key(feature, k, value);
+    }
+
+    /**
+     * Computes from scratch the Zobrist hash of the planes of this board.
+     * @return the hash of the planes.
+     */
+    private long computePlanesHash()
+    {
+        long hash = 0;
+        for (int k = 0; k < size * size; k++)
+        {
+            hash ^= planeKey(Zobrist.TERRAIN, k, terrains[k]) ^ planeKey(Zobrist.RESOURCE, k, resources[k]) ^
+                    planeKey(Zobrist.BUILDING, k, buildings[k]) ^ planeKey(Zobrist.UNIT_AT, k, units[k]) ^
+                    planeKey(Zobrist.CITY_AT, k, tileCityId[k]);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the Zobrist hash of this board. It covers the layers of the board (incrementally maintained), the
+     * trade network, the state of units (hit points, status, kills and veterancy) and cities (level, population
+     * and owner), and the stars and technologies of each tribe.
+     * @return a 64 bit hash of the board.
+     */
+    public long getHash()
+    {
+        long hash = planesHash ^ tradeNetwork.getHash();
+        for (int id = 0; id < gameActors.idBound(); id++)
+        {
+            Actor act = gameActors.get(id);
+            if(act instanceof Unit)
+            {
+                Unit u = (Unit) act;
+                int state = u.getCurrentHP() | u.getStatus().ordinal() << 10 | u.getTribeId() << 14 |
+                        (u.isVeteran() ? 1 : 0) << 18 | u.getKills() << 19;
+                hash ^= Zobrist.key(Zobrist.UNIT, id, state);
+            }else if(act instanceof City)
+            {
+                City c = (City) act;
+                int state = c.getLevel() | (c.getPopulation() & 0xFFF) << 8 | c.getTribeId() << 20;
+                hash ^= Zobrist.key(Zobrist.CITY, id, state);
+            }
+        }
+        for (Tribe t : tribes)
+            hash ^= Zobrist.key(Zobrist.TRIBE, t.getTribeId(), t.getStars()) ^
+                    Zobrist.mix(t.getTechTree().getHash() + t.getTribeId());
+        return hash;
+    }
+
+    /**
+     * Index of the position (x,y) in the planes of this board.
+     */
+    private int idx(int x, int y) { return x * size + y; }
+
+    // Encoding and decoding of enum values in the planes (ordinal+1, 0 for null).
+    private static byte encode(Enum<?> e) { return e == null ? 0 : (byte) (e.ordinal() + 1); }
+    private static Types.TERRAIN decodeTerrain(byte b) { return b == 0 ? null : TERRAIN_VALUES[b - 1]; }
+    private static Types.RESOURCE decodeResource(byte b) { return b == 0 ? null : RESOURCE_VALUES[b - 1]; }
+    private static Types.BUILDING decodeBuilding(byte b) { return b == 0 ? null : BUILDING_VALUES[b - 1]; }
+
     /**
      * Masks a resource that can only be revealed after researching a specific technology.
      * @param playerID if -1 we don not mask any resources.
@@ -249,12 +452,13 @@ public class Board {
      * @return Returns the resource at x,y or null if there is no resource, or the resource is hidden.
      */
     private Types.RESOURCE maskResource(int playerID, int x, int y) {
-        if(playerID == -1) { return resources[x][y]; }
+        Types.RESOURCE resource = getResourceAt(x, y);
+        if(playerID == -1) { return resource; }
         else {
             TechnologyTree t = tribes[playerID].getTechTree();
 
             try {
-                switch (resources[x][y]) {
+                switch (resource) {
                     case CROPS:
                         if (!t.isResearched(Types.TECHNOLOGY.ORGANIZATION)) {
                             return null;
@@ -271,7 +475,7 @@ public class Board {
                         }
                         break;
                 }
-                return resources[x][y];
+                return resource;
             } catch (Exception e) {
                 return null;
             }
@@ -334,7 +538,7 @@ public class Board {
         int tribeId = tribe.getTribeId();
 
         //climbable mountain?
-        Types.TERRAIN terrain = terrains[x][y];
+        Types.TERRAIN terrain = getTerrainAt(x, y);
         if (terrain == Types.TERRAIN.MOUNTAIN) {
             if (tribes[tribeId].getTechTree().isResearched(Types.TECHNOLOGY.CLIMBING)) {
                 moveUnit(toPush, startX, startY, x, y, r);
@@ -344,7 +548,7 @@ public class Board {
 
 
         //Water with a port this tribe owns?
-        Types.BUILDING b = buildings[x][y];
+        Types.BUILDING b = getBuildingAt(x, y);
         if (terrain == SHALLOW_WATER || terrain == DEEP_WATER) {
 
             if(toPush.getType().isWaterUnit())
@@ -380,7 +584,7 @@ public class Board {
      */
     public void embark(Unit unit, Tribe tribe, int x, int y) {
 
-        City city = (City) gameActors.get(unit.getCityId());
+        City city = (City) getActor(unit.getCityId());
         removeUnitFromBoard(unit);
         removeUnitFromCity(unit, city, tribe);
 
@@ -402,7 +606,7 @@ public class Board {
      * @param y y coordinate of the position where the unit is disembarking
      */
     public void disembark(Unit unit, Tribe tribe, int x, int y) {
-        City city = (City) gameActors.get(unit.getCityId());
+        City city = (City) getActor(unit.getCityId());
         removeUnitFromBoard(unit);
         removeUnitFromCity(unit, city, tribe);
         Types.UNIT baseLandUnit = getBaseLandUnit(unit);
@@ -449,8 +653,8 @@ public class Board {
      * @param r random generator
      */
     public void moveUnit(Unit unit, int x0, int y0, int xF, int yF, Random r) {
-        units[x0][y0] = 0;
-        units[xF][yF] = unit.getActorId();
+        setUnitIdAt(idx(x0, y0), 0);
+        setUnitIdAt(idx(xF, yF), unit.getActorId());
         unit.setPosition(xF, yF);
         Tribe t = tribes[unit.getTribeId()];
 
@@ -461,6 +665,12 @@ public class Board {
         boolean networkUpdate = t.clearView(xF, yF, partialObsRangeClear, r, this);
         if(networkUpdate)
             tradeNetwork.computeTradeNetworkTribe(this, t);
+
+        if(changes != null)
+        {
+            changes.markChanged(x0, y0, 0);
+            changes.markChanged(xF, yF, partialObsRangeClear);
+        }
     }
 
     /**
@@ -479,16 +689,18 @@ public class Board {
 
             while (!moved && j < TribesConfig.NUM_STEPS * 3) {
                 //Pick a neighbour tile at random
-                LinkedList<Vector2d> neighs = currentPos.neighborhood(1,0, size);
-                Vector2d next = neighs.get(rnd.nextInt(neighs.size()));
+                int[] neighs = neighbourTable.get(currentPos.x, currentPos.y, 1);
+                int next = neighs[rnd.nextInt(neighs.length)];
 
-                if (traversable(next.x, next.y, tribeId)) {
+                if (traversable(next / size, next % size, tribeId)) {
                     moved = true;
-                    currentPos.x = next.x;
-                    currentPos.y = next.y;
+                    currentPos.x = next / size;
+                    currentPos.y = next % size;
                     boolean updateNetwork = tribes[tribeId].clearView(currentPos.x, currentPos.y, TribesConfig.EXPLORER_CLEAR_RANGE, rnd, this);
                     if(updateNetwork)
                         tradeNetwork.computeTradeNetworkTribe(this, tribes[tribeId]);
+                    if(changes != null)
+                        changes.markChanged(currentPos.x, currentPos.y, TribesConfig.EXPLORER_CLEAR_RANGE);
                 }
 
                 j++;
@@ -516,15 +728,15 @@ public class Board {
         TechnologyTree tt = tribes[tribeId].getTechTree();
 
         //if mountain and climbing not researched
-        if (terrains[x][y] == Types.TERRAIN.MOUNTAIN && !tt.isResearched(Types.TECHNOLOGY.CLIMBING))
+        if (getTerrainAt(x, y) == Types.TERRAIN.MOUNTAIN && !tt.isResearched(Types.TECHNOLOGY.CLIMBING))
             return false;
 
         //Shallow water and no sailing
-        if (terrains[x][y] == SHALLOW_WATER && !tt.isResearched(Types.TECHNOLOGY.SAILING))
+        if (getTerrainAt(x, y) == SHALLOW_WATER && !tt.isResearched(Types.TECHNOLOGY.SAILING))
             return false;
 
         //Deep water and no navigation
-        return terrains[x][y] != DEEP_WATER || tt.isResearched(Types.TECHNOLOGY.NAVIGATION);
+        return getTerrainAt(x, y) != DEEP_WATER || tt.isResearched(Types.TECHNOLOGY.NAVIGATION);
     }
 
 
@@ -551,7 +763,7 @@ public class Board {
      */
     public Unit getUnitAt(int x, int y){
 
-        Actor act = gameActors.get(units[x][y]);
+        Actor act = getActor(units[idx(x, y)]);
         if(act != null)
             return (Unit) act;
         return null;
@@ -564,10 +776,10 @@ public class Board {
      * @return the city with a tile within its borders. Null if x,y doesn't belong to any city.
      */
     public City getCityInBorders(int x, int y){
-        if(tileCityId[x][y] == -1)
+        if(tileCityId[idx(x, y)] == -1)
             return null;
         else
-            return (City) gameActors.get(tileCityId[x][y]);
+            return (City) getActor(tileCityId[idx(x, y)]);
     }
 
     /**
@@ -578,12 +790,17 @@ public class Board {
     void assignCityTiles(City c, int radius){
         Vector2d cityPos = c.getPosition();
         Tribe t = getTribe(c.getTribeId());
-        LinkedList<Vector2d> tiles = cityPos.neighborhood(radius, 0, size);
-        tiles.add(new Vector2d(cityPos));
-        for(Vector2d tile : tiles)
+        int[] tiles = neighbourTable.get(cityPos.x, cityPos.y, radius);
+        if(changes != null)
+            changes.markChanged(cityPos.x, cityPos.y, radius);
+        for(int i = 0; i <= tiles.length; i++)
         {
-            if(tileCityId[tile.x][tile.y] == -1){
-                tileCityId[tile.x][tile.y] = c.getActorId();
+            int k = (i < tiles.length) ? tiles[i] : idx(cityPos.x, cityPos.y); //City tile goes last.
+            if(tileCityId[k] == -1){
+                ownPlane(CITY_PLANE);
+                tileCityId[k] = c.getActorId();
+                planesHash ^= planeKey(Zobrist.CITY_AT, k, c.getActorId());
+                tradeNetwork.invalidateComponents();
                 t.addScore(TribesConfig.CITY_BORDER_POINTS); // Add score to tribe on border creation
                 c.addPointsWorth(TribesConfig.CITY_BORDER_POINTS);
             }
@@ -606,7 +823,7 @@ public class Board {
      * @return if there's a road in that position.
      */
     public boolean isRoad(int x, int y) {
-        return tradeNetwork.getTradeNetworkValue(x,y) && terrains[x][y] != SHALLOW_WATER && terrains[x][y] != DEEP_WATER && terrains[x][y] != CITY;
+        return tradeNetwork.getTradeNetworkValue(x,y) && getTerrainAt(x, y) != SHALLOW_WATER && getTerrainAt(x, y) != DEEP_WATER && getTerrainAt(x, y) != CITY;
     }
 
     public boolean checkTradeNetwork(int x, int y) {
@@ -621,7 +838,7 @@ public class Board {
      */
     public LinkedList<Vector2d> getCityTiles(int cityID){
         LinkedList<Vector2d> tiles = new LinkedList<>();
-        City targetCity = (City) gameActors.get(cityID);
+        City targetCity = (City) getActor(cityID);
         Vector2d targetCityPos = targetCity.getPosition();
         int radius = 0;
 
@@ -630,7 +847,7 @@ public class Board {
         for(int i = targetCityPos.x - radius; i <= targetCityPos.x + radius; i++) {
             for(int j = targetCityPos.y - radius; j <= targetCityPos.y + radius; j++) {
                 if(i >= 0 && j >= 0 && i < size && j < size) {
-                    if (tileCityId[i][j] == cityID){
+                    if (tileCityId[idx(i, j)] == cityID){
                         tiles.add(new Vector2d(i, j));
                     }
                 }
@@ -650,7 +867,11 @@ public class Board {
     public boolean capture(GameState gameState, Tribe capturingTribe, int x, int y){
 
         Random rnd = gameState.getRandomGenerator();
-        Types.TERRAIN ter = terrains[x][y];
+        Types.TERRAIN ter = getTerrainAt(x, y);
+
+        //Cities and units change owners, borders and visibility: too many changes to track.
+        if(changes != null)
+            changes.markAllChanged();
 
         if(ter == Types.TERRAIN.VILLAGE)
         {
@@ -672,7 +893,7 @@ public class Board {
 
         }else if(ter == CITY)
         {
-            City capturedCity = (City) gameActors.get(tileCityId[x][y]);
+            City capturedCity = (City) getActor(tileCityId[idx(x, y)]);
             Tribe previousOwner = tribes[capturedCity.getTribeId()];
 
             //The city exists, needs to change owner, tribes notified and production & population updated
@@ -699,6 +920,8 @@ public class Board {
             return false;
         }
 
+        //Cities changed owner, so the networks of the tribes must be recomputed.
+        tradeNetwork.invalidateComponents();
         tradeNetwork.setTradeNetwork(this, x, y, true);
         return true;
     }
@@ -772,7 +995,7 @@ public class Board {
                 //for(Integer unitId: fromCity.getUnitsID())
                 {
                     int unitId = fromCity.getUnitsID().get(0);
-                    Unit removedUnit = (Unit) gameActors.get(unitId);
+                    Unit removedUnit = (Unit) getActor(unitId);
                     if(removedUnit != null) {
                         tribe.addExtraUnit(removedUnit);
                         fromCity.removeUnit(unitId);
@@ -796,7 +1019,7 @@ public class Board {
         targetCity.addUnit(actorID);
 
         //Assign new city to unit
-        Unit removedUnit = (Unit) gameActors.get(actorID);
+        Unit removedUnit = (Unit) getActor(actorID);
         removedUnit.setCityId(targetCity.getActorId());
     }
 
@@ -827,6 +1050,7 @@ public class Board {
         tribes[c.getTribeId()].clearView(c.getPosition().x, c.getPosition().y, TribesConfig.NEW_CITY_CLEAR_RANGE, r, this.copy());
 
         //By default, cities are considered to be roads for trade network purposes.
+        tradeNetwork.invalidateComponents();
         tradeNetwork.setTradeNetwork(this, c.getPosition().x, c.getPosition().y, true);
     }
 
@@ -837,7 +1061,9 @@ public class Board {
     public void removeUnitFromBoard(Unit u)
     {
         Vector2d pos = u.getPosition();
-        units[pos.x][pos.y] = 0;
+        setUnitIdAt(idx(pos.x, pos.y), 0);
+        if(changes != null)
+            changes.markChanged(pos.x, pos.y, 0);
         removeActor(u.getActorId());
     }
 
@@ -853,7 +1079,9 @@ public class Board {
 
         //Place it in the board
         Vector2d pos = u.getPosition();
-        units[pos.x][pos.y] = u.getActorId();
+        setUnitIdAt(idx(pos.x, pos.y), u.getActorId());
+        if(changes != null)
+            changes.markChanged(pos.x, pos.y, 0);
 
         //Finally, add the unit to the city that created it, unless it belongs to the tribe.
         if(u.getCityId() != -1)
@@ -885,6 +1113,7 @@ public class Board {
     private void addActor(core.actors.Actor actor)
     {
         actorIDcounter++;
+        journalActor(actorIDcounter);
         gameActors.put(actorIDcounter, actor);
         actor.setActorId(actorIDcounter);
     }
@@ -892,10 +1121,11 @@ public class Board {
     /**
      * Adds an actor to the set of game actors with the supplied id
      * @param actor actor to add
-     * @param actorID id of the actor, which is set in actor and as key in gameActors hash
+     * @param actorID id of the actor, which is set in actor and as index in gameActors
      */
     void addActor(core.actors.Actor actor, int actorID)
     {
+        journalActor(actorID);
         gameActors.put(actorID, actor);
         actor.setActorId(actorID);
     }
@@ -908,7 +1138,12 @@ public class Board {
      */
     public Actor getActor(int actorId)
     {
-        return gameActors.get(actorId);
+        Actor act = gameActors.get(actorId);
+        if(act != null && journal != null)
+            journalActor(actorId);
+        if(act != null && changes != null)
+            changes.touchActor(act);
+        return act;
     }
 
     /**
@@ -918,7 +1153,85 @@ public class Board {
      */
     private boolean removeActor(int actorId)
     {
-        return gameActors.remove(actorId) != null;
+        journalActor(actorId);
+        return gameActors.remove(actorId);
+    }
+
+    /**
+     * Records in the current undo frame (if any) a copy of the actor with the given id, as it is now. Only the
+     * first time an actor is accessed within a frame is recorded, which is its state before the action.
+     * @param actorId id of the actor to record.
+     */
+    private void journalActor(int actorId)
+    {
+        if(journal != null && !journal.actors.containsKey(actorId))
+        {
+            Actor act = gameActors.get(actorId);
+            journal.actors.put(actorId, act == null ? null : act.copy(false));
+        }
+    }
+
+    /**
+     * Starts recording the changes of this board in an undo frame. Layers are shared copy-on-write with the
+     * frame, tribes and diplomacy are copied and actors are recorded as they are accessed, until endUndoFrame().
+     * @param frame undo frame where the current state of the board is recorded.
+     */
+    void beginUndoFrame(UndoFrame frame)
+    {
+        Board saved = new Board();
+        saved.size = size;
+        shareLayers(saved);
+        saved.tribes = new Tribe[tribes.length];
+        for (int i = 0; i < tribes.length; i++)
+            saved.tribes[i] = tribes[i].copy(false);
+        saved.capitalIDs = capitalIDs.clone();
+        saved.diplomacy = diplomacy.copy();
+        saved.activeTribeID = activeTribeID;
+        saved.actorIDcounter = actorIDcounter;
+
+        frame.board = saved;
+        frame.actors = new HashMap<>();
+        journal = frame;
+    }
+
+    /**
+     * Stops recording changes in the current undo frame.
+     */
+    void endUndoFrame()
+    {
+        journal = null;
+    }
+
+    /**
+     * Reverts this board to the state recorded in an undo frame.
+     * @param frame undo frame to revert to.
+     */
+    void undo(UndoFrame frame)
+    {
+        Board saved = frame.board;
+        terrains = saved.terrains;
+        resources = saved.resources;
+        buildings = saved.buildings;
+        units = saved.units;
+        tileCityId = saved.tileCityId;
+        tradeNetwork = saved.tradeNetwork;
+        ownedPlanes = 0; //Planes may still be shared with other copies of this board, none owned.
+        planesHash = saved.planesHash;
+        buildIndex = saved.buildIndex;
+        unitOccupancy = saved.unitOccupancy;
+        tribes = saved.tribes;
+        capitalIDs = saved.capitalIDs;
+        diplomacy = saved.diplomacy;
+        activeTribeID = saved.activeTribeID;
+        actorIDcounter = saved.actorIDcounter;
+
+        for (Map.Entry<Integer, Actor> entry : frame.actors.entrySet())
+        {
+            if(entry.getValue() == null)
+                gameActors.remove(entry.getKey());
+            else
+                gameActors.put(entry.getKey(), entry.getValue());
+        }
     }
 
 
@@ -932,16 +1245,83 @@ public class Board {
     private boolean enemyUnitAt(int tribeId, int x, int y)
     {
         //It may be that there's no unit here
-        if(units[x][y] == 0)
+        if(units[idx(x, y)] == 0)
             return false;
         else
         {
             //Or it is from my tribe.
-            Unit u = (Unit) gameActors.get(units[x][y]);
+            Unit u = (Unit) getActor(units[idx(x, y)]);
             return u.getTribeId() != tribeId;
         }
     }
 
+    /**
+     * Indicates if there's a unit that is an enemy of tribeId adjacent to x,y (i.e. if x,y is in the
+     * zone of control of an enemy).
+     * @param x x coordinate to check
+     * @param y y coordinate to check
+     * @param tribeId tribe whose enemies are checked.
+     * @return true if there's an enemy unit in any of the 8 tiles around x,y
+     */
+    public boolean isEnemyAdjacent(int x, int y, int tribeId)
+    {
+        return getUnitOccupancy().isEnemyAdjacent(idx(x, y), tribeId);
+    }
+
+    /**
+     * Indicates if there's a unit that is an enemy of tribeId within a given distance of x,y.
+     * @param x x coordinate of the center
+     * @param y y coordinate of the center
+     * @param range maximum distance (in tiles) from x,y
+     * @param tribeId tribe whose enemies are checked.
+     * @return true if there's an enemy unit at distance range or less, not counting x,y itself.
+     */
+    public boolean isEnemyInRange(int x, int y, int range, int tribeId)
+    {
+        return getUnitOccupancy().find(x, y, range, tribeId, true, null) > 0;
+    }
+
+    /**
+     * Returns the units within a given distance of x,y, not counting x,y itself. Units are returned
+     * in the same order as the positions of Vector2d.neighborhood().
+     * @param x x coordinate of the center
+     * @param y y coordinate of the center
+     * @param range maximum distance (in tiles) from x,y
+     * @param tribeId tribe of reference.
+     * @param enemies true to get the units of tribes other than tribeId, false to get the units of tribeId.
+     * @return the units found (an empty, unmodifiable list if there are none).
+     */
+    public List<Unit> getUnitsInRange(int x, int y, int range, int tribeId, boolean enemies)
+    {
+        UnitOccupancy occupancy = getUnitOccupancy();
+        if(occupancy.find(x, y, range, tribeId, enemies, null) == 0)
+            return Collections.emptyList();
+
+        int[] tiles = new int[(2 * range + 1) * (2 * range + 1)];
+        int found = occupancy.find(x, y, range, tribeId, enemies, tiles);
+        ArrayList<Unit> unitsFound = new ArrayList<>(found);
+        for (int i = 0; i < found; i++)
+            unitsFound.add((Unit) getActor(units[tiles[i]]));
+        return unitsFound;
+    }
+
+    /**
+     * Changes the tribe of a unit, keeping the index of units on the board up to date.
+     * @param unit unit that changes tribe.
+     * @param tribeId new tribe of the unit.
+     */
+    public void setUnitTribe(Unit unit, int tribeId)
+    {
+        Vector2d pos = unit.getPosition();
+        int k = idx(pos.x, pos.y);
+        boolean onBoard = units[k] == unit.getActorId();
+        if(onBoard)
+            setUnitIdAt(k, 0);
+        unit.setTribeId(tribeId);
+        if(onBoard)
+            setUnitIdAt(k, unit.getActorId());
+    }
+
     /**
      * Adds a road to the board at position x,y. It recalculates the trade network with
      * this new road.
@@ -950,6 +1330,7 @@ public class Board {
      */
     public void addRoad(int x, int y)
     {
+        markTileChange(x, y);
         tradeNetwork.setTradeNetwork(this, x, y, true);
     }
 
@@ -965,10 +1346,10 @@ public class Board {
         if(tribes[tribeId].isVisible(x, y))
         {
             // Only on certain terrain types.
-            if(terrains[x][y] == Types.TERRAIN.VILLAGE || terrains[x][y] == Types.TERRAIN.PLAIN || terrains[x][y] == Types.TERRAIN.FOREST)
+            if(getTerrainAt(x, y) == Types.TERRAIN.VILLAGE || getTerrainAt(x, y) == Types.TERRAIN.PLAIN || getTerrainAt(x, y) == Types.TERRAIN.FOREST)
             {
                 //Only on tiles that are neutral or in my cities
-                int cityId = tileCityId[x][y];
+                int cityId = tileCityId[idx(x, y)];
                 if(cityId == -1 || tribes[tribeId].controlsCity(cityId))
                 {
                     //There should be no road already here
@@ -1008,6 +1389,7 @@ public class Board {
      */
     public void destroyPort(int x, int y)
     {
+        markTileChange(x, y);
         this.tradeNetwork.setTradeNetwork(this, x, y,false);
     }
 
@@ -1018,27 +1400,127 @@ public class Board {
      */
     public void buildPort(int x, int y)
     {
+        markTileChange(x, y);
         this.tradeNetwork.setTradeNetwork(this, x, y,true);
     }
 
+    /**
+     * Writes a value in one of the enum planes (terrain, resource or building), owning the plane and updating
+     * the hash of the planes.
+     * @param plane plane to write (TERRAIN_PLANE, RESOURCE_PLANE or BUILDING_PLANE).
+     * @param x x coordinate of the position to write.
+     * @param y y coordinate of the position to write.
+     * @param value encoded value to write.
+     */
+    private void setEnumAt(int plane, int x, int y, byte value)
+    {
+        ownPlane(plane);
+        byte[] values = plane == TERRAIN_PLANE ? terrains : plane == RESOURCE_PLANE ? resources : buildings;
+        int feature = plane == TERRAIN_PLANE ? Zobrist.TERRAIN : plane == RESOURCE_PLANE ? Zobrist.RESOURCE : Zobrist.BUILDING;
+        int k = idx(x, y);
+        planesHash ^= planeKey(feature, k, values[k]) ^ planeKey(feature, k, value);
+        if(tradeNetwork != null && (isNetworkFeature(plane, values[k]) || isNetworkFeature(plane, value)))
+            tradeNetwork.invalidateComponents();
+        values[k] = value;
+        if(buildIndex != null)
+            buildIndex.update(this, x, y, plane == BUILDING_PLANE);
+        markTileChange(x, y);
+    }
+
+    /**
+     * Indicates if a value of an enum plane changes the trade networks when added or removed: cities, water
+     * and ports.
+     * @param plane plane of the value (TERRAIN_PLANE, RESOURCE_PLANE or BUILDING_PLANE).
+     * @param value value, encoded as in the plane.
+     * @return true if the trade networks depend on this value.
+     */
+    private static boolean isNetworkFeature(int plane, byte value)
+    {
+        if(plane == TERRAIN_PLANE)
+            return value == encode(CITY) || value == encode(SHALLOW_WATER) || value == encode(DEEP_WATER);
+        return plane == BUILDING_PLANE && value == encode(Types.BUILDING.PORT);
+    }
+
+    /**
+     * Records, if changes are being tracked, that the tile x, y changed.
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     */
+    private void markTileChange(int x, int y)
+    {
+        if(changes != null)
+            changes.markChanged(x, y, 0);
+    }
+
+    /**
+     * Starts or stops recording in an action cache the changes made to this board.
+     * @param cache action cache where changes are recorded, null to stop recording.
+     */
+    void trackChanges(ActionCache cache)
+    {
+        changes = cache;
+    }
+
     // Simple getters and setters
     public Tribe[] getTribes() { return tribes; }
     public int getSize() { return size; }
+    public NeighbourTable getNeighbourTable() { return neighbourTable; }
     public Tribe getTribe(int tribeId) { return tribes[tribeId]; }
     public int getActiveTribeID() { return activeTribeID; }
     public void setActiveTribeID(int activeTribeID) { this.activeTribeID = activeTribeID; }
     public void setTribes(Tribe[] t){ this.tribes = t; }
     boolean getNetworkTilesAt(int x, int y) { return this.tradeNetwork.getTradeNetworkValue(x,y); }
-    public int[][] getUnits(){ return this.units; }
-    public Types.TERRAIN getTerrainAt(int x, int y){ return terrains[x][y]; }
-    int getUnitIDAt(int x, int y){ return units[x][y]; }
-    public void setResourceAt(int x, int y, Types.RESOURCE r){ resources[x][y] =  r; }
-    public void setTerrainAt(int x, int y, Types.TERRAIN t){ terrains[x][y] =  t; }
-    public void setBuildingAt(int x, int y, Types.BUILDING b){ buildings[x][y] = b; }
-    public Types.RESOURCE getResourceAt(int x, int y){ return resources[x][y]; }
-    public Types.BUILDING getBuildingAt(int x, int y){ return buildings[x][y]; }
-    public void setUnits(int[][] u){ this.units = u; }
-    public int getCityIdAt(int x, int y) { return tileCityId[x][y]; }
+    public Types.TERRAIN getTerrainAt(int x, int y){ return decodeTerrain(terrains[idx(x, y)]); }
+    int getUnitIDAt(int x, int y){ return units[idx(x, y)]; }
+    public void setResourceAt(int x, int y, Types.RESOURCE r){ setEnumAt(RESOURCE_PLANE, x, y, encode(r)); }
+    public void setTerrainAt(int x, int y, Types.TERRAIN t){ setEnumAt(TERRAIN_PLANE, x, y, encode(t)); }
+    public void setBuildingAt(int x, int y, Types.BUILDING b){ setEnumAt(BUILDING_PLANE, x, y, encode(b)); }
+    public Types.RESOURCE getResourceAt(int x, int y){ return decodeResource(resources[idx(x, y)]); }
+    public Types.BUILDING getBuildingAt(int x, int y){ return decodeBuilding(buildings[idx(x, y)]); }
+    public int getCityIdAt(int x, int y) { return tileCityId[idx(x, y)]; }
+
+    /**
+     * Indicates if a building of a given type can be placed at x, y, considering the building, terrain and
+     * resource at that position and the buildings adjacent to it (see Build.isBuildableAt()). Constraints
+     * of the tribe (cost, technology, monuments) and of the city (uniqueness) are not checked.
+     * @param building type of building.
+     * @param x x coordinate of the position.
+     * @param y y coordinate of the position.
+     * @return true if x, y is an empty tile where the building can be placed.
+     */
+    public boolean isBuildSite(Types.BUILDING building, int x, int y)
+    {
+        if(buildIndex == null)
+        {
+            buildIndex = new BuildIndex(size);
+            buildIndex.rebuild(this);
+        }
+        return buildIndex.isSite(building, x, y);
+    }
+
+    /**
+     * Returns the ids of the units at each position of the board, as a [size][size] matrix. The matrix
+     * is built from the unit plane: changes on it do not affect the board.
+     * @return unit ids at each position, 0 if there's no unit.
+     */
+    public int[][] getUnits(){
+        int[][] u = new int[size][size];
+        for (int x = 0; x < size; x++)
+            System.arraycopy(units, x * size, u[x], 0, size);
+        return u;
+    }
+
+    /**
+     * Sets the ids of the units at each position of the board.
+     * @param u unit ids at each position, as a [size][size] matrix.
+     */
+    public void setUnits(int[][] u){
+        if(changes != null)
+            changes.markAllChanged();
+        for (int x = 0; x < size; x++)
+            for (int y = 0; y < size; y++)
+                setUnitIdAt(idx(x, y), u[x][y]);
+    }
     public int[] getCapitalIDs() {return capitalIDs;}
     boolean isNative() { return isNative; }
     public int getActorIDcounter() {
@@ -0,0 +1,133 @@
+package core.game;
+
+import core.Types;
+import core.actions.cityactions.Build;
+
+import java.util.Arrays;
+
+/**
+ * Index of the tiles of the board where each type of building can be placed. A tile is a site for a building
+ * if it has no building and satisfies the terrain, resource and adjacency constraints of the building type
+ * (see Build.isBuildableAt()). Constraints that depend on the tribe (cost, technology and monuments) are not
+ * part of the index.
+ * Sites are kept as one bitset per building type, updated when the terrain, resource or building of a tile
+ * changes. Bitsets are shared copy-on-write between copies of the index.
+ */
+class BuildIndex
+{
+    private static final Types.BUILDING[] BUILDINGS = Types.BUILDING.values();
+
+    //Terrains allowed for each building type, indexed by [building ordinal][terrain ordinal]. Used to discard
+    // most tiles without checking all the constraints.
+    private static final boolean[][] TERRAIN_ALLOWED = new boolean[BUILDINGS.length][Types.TERRAIN.values().length];
+    static {
+        for (Types.BUILDING b : BUILDINGS)
+            for (Types.TERRAIN t : b.getTerrainRequirements())
+                TERRAIN_ALLOWED[b.ordinal()][t.ordinal()] = true;
+    }
+
+    //Size of the board.
+    private int size;
+
+    //Sites of each building type (by ordinal), with bit x*size+y set if (x,y) is a site.
+    private long[][] sites;
+
+    //Copy-on-write: indicates if the bitset of each building type is owned by this index or shared with a copy.
+    private boolean[] owned;
+
+    /**
+     * Creates an empty index for a size by size board.
+     * @param size side of the board
+     */
+    BuildIndex(int size)
+    {
+        this.size = size;
+        this.sites = new long[BUILDINGS.length][(size * size + 63) >>> 6];
+        this.owned = new boolean[BUILDINGS.length];
+        Arrays.fill(owned, true);
+    }
+
+    /**
+     * Creates a copy of this index that shares the bitsets with this one. Bitsets are cloned by the first
+     * of the two indices that writes on them.
+     * @return a copy of this index.
+     */
+    BuildIndex copy()
+    {
+        BuildIndex copy = new BuildIndex(size, sites.clone());
+        Arrays.fill(owned, false);
+        return copy;
+    }
+
+    private BuildIndex(int size, long[][] sites)
+    {
+        this.size = size;
+        this.sites = sites;
+        this.owned = new boolean[BUILDINGS.length];
+    }
+
+    /**
+     * Computes the sites of all tiles of the board.
+     * @param board board of the game.
+     */
+    void rebuild(Board board)
+    {
+        for (int b = 0; b < BUILDINGS.length; b++)
+        {
+            sites[b] = new long[sites[b].length];
+            owned[b] = true;
+        }
+        for (int k = 0; k < size * size; k++)
+            updateTile(board, k);
+    }
+
+    /**
+     * Updates the index after a change in a tile.
+     * @param board board of the game, already changed.
+     * @param x x coordinate of the tile changed.
+     * @param y y coordinate of the tile changed.
+     * @param neighbours true if the sites of the neighbours of the tile may have changed too (which happens
+     *                   when a building is added or removed, due to adjacency constraints).
+     */
+    void update(Board board, int x, int y, boolean neighbours)
+    {
+        updateTile(board, x * size + y);
+        if(neighbours)
+            for (int k : board.getNeighbourTable().get(x, y, 1))
+                updateTile(board, k);
+    }
+
+    /**
+     * Indicates if a tile is a site for a building type.
+     * @param building type of building.
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @return true if the building can be placed at (x,y), subject to the constraints of the tribe.
+     */
+    boolean isSite(Types.BUILDING building, int x, int y)
+    {
+        int k = x * size + y;
+        return (sites[building.ordinal()][k >>> 6] & (1L << k)) != 0;
+    }
+
+    private void updateTile(Board board, int k)
+    {
+        int x = k / size, y = k % size;
+        Types.TERRAIN terrain = board.getTerrainAt(x, y);
+        boolean empty = terrain != null && board.getBuildingAt(x, y) == null;
+        for (int b = 0; b < BUILDINGS.length; b++)
+        {
+            boolean site = empty && TERRAIN_ALLOWED[b][terrain.ordinal()] && Build.isBuildableAt(BUILDINGS[b], board, x, y);
+            long[] bits = sites[b];
+            if(site != ((bits[k >>> 6] & (1L << k)) != 0))
+            {
+                if(!owned[b])
+                {
+                    bits = sites[b] = bits.clone();
+                    owned[b] = true;
+                }
+                bits[k >>> 6] ^= 1L << k;
+            }
+        }
+    }
+}
@@ -24,9 +24,15 @@ public class Game {
     // State of the game (objects, ticks, etc).
     private GameState gs;
 
-    // GameState objects for players to make decisions
+    // GameState objects for players to make decisions, built when they are needed (see getObservation()).
     private GameState[] gameStateObservations;
 
+    // Version of the game state, increased every time it changes.
+    private int stateVersion;
+
+    // Version of the game state each observation was built from.
+    private int[] observationVersions;
+
     // Seed for the game state.
     private long seed;
 
@@ -156,6 +162,7 @@ public class Game {
         }
 
         this.gameStateObservations = new GameState[numPlayers];
+        this.observationVersions = new int[numPlayers];
     }
 
 
@@ -199,6 +206,7 @@ public class Game {
             this.gpStats[tribeIdx] = new GameplayStats(tribeIdx);
         }
         this.gameStateObservations = new GameState[numPlayers];
+        this.observationVersions = new int[numPlayers];
     }
 
     /**
@@ -221,37 +229,10 @@ public class Game {
             boolean gameOver = gameOver();
             // Check end of game
             if (firstEnd && gameOver) {
-                terminate();
+                endGame(LOG_STATS);
 
                 firstEnd = false;
 
-                printGameResults();
-                if (LOG_STATS) {
-                    TreeSet<TribeResult> ranking = getCurrentRanking();
-                    for (TribeResult tr : ranking) {
-                        int idx = tr.getId();
-                        AIStats ais = aiStats[idx];
-                        if(VERBOSE) ais.print();
-                        GameplayStats gps = gpStats[idx];
-                        gps.logGameEnd(tr);
-                        if(VERBOSE) {
-                            gps.print();
-
-                            ArrayList<GameplayStats> agps = new ArrayList<>();
-                            agps.add(gps);
-                            for (Feature f : Feature.values()) {
-                                double val = f.getFeatureValue(agps);
-
-                                String[] agentChunks = players[gps.getPlayerID()].getClass().toString().split("\\.");
-                                String agentName = agentChunks[agentChunks.length - 1];
-                                System.out.println("GPS:" + gps.getPlayerID() + ":" + agentName + ":" + f + ":" + val);
-                            }
-                        }
-
-
-                    }
-                }
-
                 if (!VISUALS || frame == null) {
                     // The game has ended, end the loop if we're running without visuals.
                     break;
@@ -265,6 +246,117 @@ public class Game {
         }
     }
 
+    /**
+     * Runs a game once with no visuals: no GUI timers, pauses or animations, only the agents playing their turns.
+     * Produces the same game as run(null, null) for the same seeds. Human players are not supported.
+     *
+     * @param logStats true to collect the AI and gameplay stats of the players.
+     */
+    public void runHeadless(boolean logStats) {
+        while (!gameOver()) {
+            Tribe[] tribes = gs.getTribes();
+            for (int i = 0; i < numPlayers && !gameOver(); i++) {
+                if (tribes[i].getWinner() == Types.RESULT.INCOMPLETE) {
+                    processTurnHeadless(i, tribes[i], logStats);
+
+                    if (Constants.WRITE_SAVEGAMES)
+                        GameSaver.writeTurnFile(gs, getBoard(), seed);
+                }
+            }
+
+            if (!gameOver())
+                gs.incTick();
+        }
+        endGame(logStats);
+    }
+
+    /**
+     * Process a turn for a given player with no visuals. The player is queried for actions until it ends its turn,
+     * runs out of time or there are no more actions available.
+     *
+     * @param playerID ID of the player whose turn is being processed.
+     * @param tribe    tribe that corresponds to this player.
+     * @param logStats true to collect the AI and gameplay stats of the player.
+     */
+    private void processTurnHeadless(int playerID, Tribe tribe, boolean logStats) {
+        gs.initTurn(tribe);
+        gs.computePlayerActions(tribe);
+        updateAssignedGameStates();
+
+        Agent ag = players[playerID];
+        ElapsedCpuTimer ect = new ElapsedCpuTimer();
+        long remainingECT = TURN_TIME_MILLIS;
+
+        boolean continueTurn = true;
+        while (continueTurn) {
+            ect.setMaxTimeMillis(remainingECT);
+            Action action = ag.act(getObservation(playerID), ect);
+            remainingECT = ect.remainingTimeMillis();
+
+            if (logStats) {
+                updateBranchingFactor(aiStats[playerID], gs.getTick(), gameStateObservations[playerID], ag);
+                updateGameplayStatsMove(gpStats[playerID], action, gameStateObservations[playerID]);
+            }
+
+            // The turn goes on while there are actions, time, and the player doesn't end it.
+            ect.setMaxTimeMillis(remainingECT);
+            continueTurn = !gs.isTurnEnding() && gs.existAvailableActions(tribe) &&
+                    !(TURN_TIME_LIMITED && ect.exceededMaxTime());
+
+            if (action != null && action.getActionType() == END_TURN)
+                break;
+
+            if (action != null) {
+                gs.next(action);
+                gs.computePlayerActions(tribe);
+                updateAssignedGameStates();
+            }
+
+            if (gameOver())
+                break;
+        }
+
+        if (logStats)
+            updateGameplayStatsTurn(gpStats[playerID], gs);
+
+        gs.endTurn(tribe);
+    }
+
+    /**
+     * Finishes the game: lets the agents know their results, prints them and logs the end of the game in the
+     * stats of the players.
+     *
+     * @param logStats true if the stats of the players were collected during the game.
+     */
+    private void endGame(boolean logStats) {
+        terminate();
+
+        printGameResults();
+        if (logStats) {
+            TreeSet<TribeResult> ranking = getCurrentRanking();
+            for (TribeResult tr : ranking) {
+                int idx = tr.getId();
+                AIStats ais = aiStats[idx];
+                if(VERBOSE) ais.print();
+                GameplayStats gps = gpStats[idx];
+                gps.logGameEnd(tr);
+                if(VERBOSE) {
+                    gps.print();
+
+                    ArrayList<GameplayStats> agps = new ArrayList<>();
+                    agps.add(gps);
+                    for (Feature f : Feature.values()) {
+                        double val = f.getFeatureValue(agps);
+
+                        String[] agentChunks = players[gps.getPlayerID()].getClass().toString().split("\\.");
+                        String agentName = agentChunks[agentChunks.length - 1];
+                        System.out.println("GPS:" + gps.getPlayerID() + ":" + agentName + ":" + f + ":" + val);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Ticks the game forward. Asks agents for actions and applies returned actions to obtain the next game state.
      *
@@ -362,7 +454,7 @@ public class Game {
                     if ((!VISUALS || frame == null) || actionDelayTimer.remainingTimeMillis() <= 0 || isHumanPlayer) {
                         // Get one action from the player
                         ect.setMaxTimeMillis(remainingECT);  // Reset timer ignoring all other timers or updates
-                        action = ag.act(gameStateObservations[playerID], ect);
+                        action = ag.act(getObservation(playerID), ect);
                         remainingECT = ect.remainingTimeMillis(); // Note down the remaining time to use it for the next iteration
 
                         if (LOG_STATS && !isHumanPlayer)
@@ -399,7 +491,7 @@ public class Game {
                 boolean showAllBoard = Constants.GUI_FORCE_FULL_OBS || Constants.PLAY_WITH_FULL_OBS;
 
                 if (showAllBoard) frame.update(getGameState(-1), action);  // Full Obs
-                else frame.update(gameStateObservations[gs.getActiveTribeID()], action);        // Partial Obs
+                else frame.update(getObservation(gs.getActiveTribeID()), action);        // Partial Obs
 
                 // Turn should be ending, start timer for delay of next action and show all updates
                 if (action != null && action.getActionType() == END_TURN) {
@@ -532,15 +624,25 @@ public class Game {
     }
 
     /**
-     * Updates the state observations for all players with copies of the
-     * current game state, adapted for PO.
+     * Indicates that the game state has changed, so the state observations of the players are outdated. They
+     * are copied from the current game state when a player needs its observation.
      */
     private void updateAssignedGameStates() {
+        stateVersion++;
+    }
 
-        //TODO: Probably we don't need to do this for all players, just the active one.
-        for (int i = 0; i < numPlayers; i++) {
-            gameStateObservations[i] = getGameState(i);
+    /**
+     * Returns the state observation of a player: a copy of the current game state, adapted for PO. The copy is
+     * made the first time it's requested after the game state changes, and reused until it changes again.
+     * @param playerIdx index of the player.
+     * @return the observation of the player.
+     */
+    private GameState getObservation(int playerIdx) {
+        if (gameStateObservations[playerIdx] == null || observationVersions[playerIdx] != stateVersion) {
+            gameStateObservations[playerIdx] = getGameState(playerIdx);
+            observationVersions[playerIdx] = stateVersion;
         }
+        return gameStateObservations[playerIdx];
     }
 
     /**
@@ -1,5 +1,6 @@
 package core.game;
 
+import core.Constants;
 import core.TechnologyTree;
 import core.TribesConfig;
 import core.Types;
@@ -15,6 +16,7 @@ import core.actors.units.Unit;
 import core.levelgen.LevelGenerator;
 import utils.file.IO;
 import utils.Vector2d;
+import utils.Zobrist;
 
 import java.util.*;
 
@@ -59,6 +61,12 @@ public class GameState {
     //Ranking of the game
     private TreeSet<TribeResult> ranking;
 
+    //Undo journal: one frame per action applied with advanceUndoable(), last action on top.
+    private ArrayDeque<UndoFrame> undoLog;
+
+    //Actions last computed and changes since, to recompute only the actions affected by these changes.
+    private ActionCache actionCache;
+
     //Constructor.
     public GameState(Random rnd, Types.GAME_MODE gameMode) {
         this.rnd = rnd;
@@ -67,6 +75,7 @@ public class GameState {
         this.cityActions = new HashMap<>();
         this.unitActions = new HashMap<>();
         this.tribeActions = new ArrayList<>();
+        this.actionCache = new ActionCache();
         this.ranking = new TreeSet<>();
         this.turnMustEnd = false;
         this.gameIsOver = false;
@@ -183,8 +192,15 @@ public class GameState {
         this.tribeActions = new ArrayList<>();
 
         if(gameIsOver)
+        {
+            actionCache.invalidate();
             return; // no actions available if the game is over
+        }
 
+        //Actions of cities and units not affected by the actions executed since the last computation can be reused.
+        boolean reuse = Constants.INCREMENTAL_ACTIONS && actionCache.canReuse(tribe, tick);
+        HashMap<Integer, ArrayList<Action>> allCityActions = new HashMap<>();
+        HashMap<Integer, ArrayList<Action>> allUnitActions = new HashMap<>();
 
         ArrayList<Integer> cities = tribe.getCitiesID();
         ArrayList<Integer> allUnits = new ArrayList<>();
@@ -198,8 +214,13 @@ public class GameState {
         {
             int cityId = cities.get(i);
             City c = (City) board.getActor(cityId);
-            ArrayList<Action> actions = cab.getActions(this, c);
-            levelingUp = cab.cityLevelsUp();
+            ArrayList<Action> actions = reuse ? actionCache.getCityActions(c, tribe) : null;
+            if(actions == null)
+            {
+                actions = cab.getActions(this, c);
+                levelingUp = cab.cityLevelsUp();
+            }
+            allCityActions.put(cityId, actions);
 
             if(actions.size() > 0)
             {
@@ -224,6 +245,7 @@ public class GameState {
         {
             //A city is levelling up. We're done with this city.
             canEndTurn[activeTribeID] = false;
+            actionCache.invalidate();
             return;
         }else{
             canEndTurn[activeTribeID] = true;
@@ -237,10 +259,14 @@ public class GameState {
         for(Integer unitId : allUnits)
         {
             Unit u = (Unit) board.getActor(unitId);
-            ArrayList<Action> actions = uab.getActions(this, u);
+            ArrayList<Action> actions = reuse ? actionCache.getUnitActions(u, tribe) : null;
+            if(actions == null)
+                actions = uab.getActions(this, u);
+            allUnitActions.put(unitId, actions);
             if(actions.size() > 0)
                 unitActions.put(unitId, actions);
         }
+        actionCache.update(tribe, tick, allCityActions, allUnitActions);
 
         //This tribe
         TribeActionBuilder tab = new TribeActionBuilder();
@@ -286,6 +312,7 @@ public class GameState {
         {
             boolean executed = false;
             ActionCommand ac = action.getActionType().getCommand();
+            trackChanges(true);
             if(ac != null)
                 executed = ac.execute(action, this);
 
@@ -293,6 +320,7 @@ public class GameState {
                 System.out.println("Tick: " + this.tick + "; action [" + action + "] couldn't execute?");
                 ac.execute(action, this);
             }
+            trackChanges(false);
 
             //Post-action execution matters:
 
@@ -310,10 +338,91 @@ public class GameState {
      */
     public void advance(Action action, boolean computeActions)
     {
+        boolean executed = applyAction(action);
+        if (executed && computeActions)
+            this.computePlayerActions(getActiveTribe());
+    }
+
+    /**
+     * Advances the game state applying a single action received, recording the changes so they
+     * can be reverted with undo(). Advances are undone in reverse order. Note that changes made to
+     * this state by other means than advanceUndoable() are not recorded, and that the random
+     * generator of the state is not reverted.
+     * @param action to be executed in the current game state.
+     * @param computeActions true if actions available after action has been executed should be computed.
+     */
+    public void advanceUndoable(Action action, boolean computeActions)
+    {
+        UndoFrame frame = new UndoFrame();
+        frame.tick = tick;
+        frame.canEndTurn = canEndTurn.clone();
+        frame.cityActions = cityActions;
+        frame.unitActions = unitActions;
+        frame.tribeActions = tribeActions;
+        frame.turnMustEnd = turnMustEnd;
+        frame.gameIsOver = gameIsOver;
+        frame.computedActionTribeIdFlag = computedActionTribeIdFlag;
+        frame.levelingUp = levelingUp;
+        frame.ranking = ranking;
+
+        board.beginUndoFrame(frame);
+        boolean executed = applyAction(action);
+        board.endUndoFrame();
+
+        if(undoLog == null)
+            undoLog = new ArrayDeque<>();
+        undoLog.push(frame);
+
+        if (executed && computeActions)
+            this.computePlayerActions(getActiveTribe());
+    }
+
+    /**
+     * Reverts the last action applied with advanceUndoable().
+     * @return true if an action was reverted, false if there was nothing to undo.
+     */
+    public boolean undo()
+    {
+        if(undoLog == null || undoLog.isEmpty())
+            return false;
+
+        UndoFrame frame = undoLog.pop();
+        board.undo(frame);
+        tick = frame.tick;
+        canEndTurn = frame.canEndTurn;
+        cityActions = frame.cityActions;
+        unitActions = frame.unitActions;
+        tribeActions = frame.tribeActions;
+        turnMustEnd = frame.turnMustEnd;
+        gameIsOver = frame.gameIsOver;
+        computedActionTribeIdFlag = frame.computedActionTribeIdFlag;
+        levelingUp = frame.levelingUp;
+        ranking = frame.ranking;
+        actionCache.invalidate();
+        return true;
+    }
+
+    /**
+     * Returns the number of actions that can be reverted with undo().
+     * @return the number of actions in the undo journal.
+     */
+    public int getUndoDepth()
+    {
+        return undoLog == null ? 0 : undoLog.size();
+    }
+
+    /**
+     * Applies an action to the game state, handling turn change if 'action' is an EndTurn action that can be executed.
+     * @param action to be executed in the current game state.
+     * @return true if the action was executed.
+     */
+    private boolean applyAction(Action action)
+    {
+        boolean executed = false;
         if(action != null)
         {
-            boolean executed = false;
             ActionCommand ac = action.getActionType().getCommand();
+            trackChanges(true);
             if(ac != null)
                 executed = ac.execute(action, this);
 
@@ -322,6 +431,7 @@ public class GameState {
                 ac.execute(action, this);
                 //return false;
             }
+            trackChanges(false);
 
             if(executed) {
                 //it's an end turn
@@ -360,13 +470,21 @@ public class GameState {
                 }
 
                 computedActionTribeIdFlag = -1;
-                if (computeActions)
-                    this.computePlayerActions(getActiveTribe());
-
             }
-            //return true;
         }
-        //return false;
+        return executed;
+    }
+
+    /**
+     * Starts or stops recording in the action cache the changes made to the board by the action being executed.
+     * @param track true to start recording, false to stop.
+     */
+    private void trackChanges(boolean track)
+    {
+        if(track && actionCache.isTracking())
+            board.trackChanges(actionCache);
+        else
+            board.trackChanges(null);
     }
 
     /**
@@ -375,6 +493,7 @@ public class GameState {
      */
     void endTurn(Tribe tribe)
     {
+        actionCache.invalidate();
         //For all units that didn't execute any action, a Recover action is executed.
         ArrayList<Integer> allTribeUnits = new ArrayList<>();
         ArrayList<Integer> tribeCities = tribe.getCitiesID();
@@ -411,6 +530,7 @@ public class GameState {
      */
     void initTurn(Tribe tribe)
     {
+        actionCache.invalidate();
         //Get all cities of this tribe
         ArrayList<Integer> tribeCities = tribe.getCitiesID();
         ArrayList<Integer> allTribeUnits = new ArrayList<>();
@@ -507,6 +627,18 @@ public class GameState {
     }
 
 
+    /**
+     * Returns a 64 bit Zobrist hash of this state. It covers the board and its actors and tribes (see
+     * Board.getHash()) and the turn (tick and active tribe). Equal states have the same hash; different states
+     * have a different hash with very high probability. The hash of the board layers is maintained
+     * incrementally as the board is modified, so this is much cheaper than comparing states.
+     * @return the hash of this state.
+     */
+    public long getHash()
+    {
+        return board.getHash() ^ Zobrist.key(Zobrist.TURN, tick, board.getActiveTribeID());
+    }
+
     /**
      * Public accessor to the copy() functionality of this state.
      * @return a copy of the current game state.
@@ -535,6 +667,34 @@ public class GameState {
         System.arraycopy(canEndTurn, 0, copy.canEndTurn, 0, numTribes);
         copy.levelingUp = levelingUp;
 
+        if(Constants.COPY_ON_WRITE)
+        {
+            //Actions are never modified once computed, and computePlayerActions() replaces these collections
+            // instead of writing on them: the copy can share them.
+            copy.tribeActions = tribeActions;
+            copy.unitActions = unitActions;
+            copy.cityActions = cityActions;
+        }else
+        {
+            copyActions(copy);
+        }
+
+        //Only full copies can reuse the actions computed for this state.
+        if(playerIdx == -1)
+            copy.actionCache = actionCache.copy();
+
+        copy.ranking = new TreeSet<>();
+        for(TribeResult tr : ranking) copy.ranking.add(tr.copy());
+
+        return copy;
+    }
+
+    /**
+     * Deep copies the actions available in this state into the given copy of the state.
+     * @param copy game state that receives the copied actions.
+     */
+    private void copyActions(GameState copy)
+    {
         copy.tribeActions = new ArrayList<>();
         for(Action ta : tribeActions)
         {
@@ -564,11 +724,6 @@ public class GameState {
             }
             copy.cityActions.put(cityId, actionsC);
         }
-
-        copy.ranking = new TreeSet<>();
-        for(TribeResult tr : ranking) copy.ranking.add(tr.copy());
-
-        return copy;
     }
 
 
@@ -781,6 +936,94 @@ public class GameState {
         return allActions;
     }
 
+    /**
+     * Returns the number of actions available for the active tribe, without gathering them in a list.
+     * @return the number of available actions, which is the size of getAllAvailableActions().
+     */
+    public int getActionCount()
+    {
+        int count = tribeActions.size();
+        for (ArrayList<Action> actions : cityActions.values())
+            count += actions.size();
+        for (ArrayList<Action> actions : unitActions.values())
+            count += actions.size();
+        return count;
+    }
+
+    /**
+     * Returns one of the available actions for the active tribe, without gathering them in a list. Actions are
+     * indexed in the same order as in getAllAvailableActions(): getAction(i) equals getAllAvailableActions().get(i).
+     * @param idx index of the action, between 0 and getActionCount()-1
+     * @return the action at index idx.
+     */
+    public Action getAction(int idx)
+    {
+        int i = idx;
+        if(i >= 0 && i < tribeActions.size())
+            return tribeActions.get(i);
+        i -= tribeActions.size();
+
+        for (ArrayList<Action> actions : cityActions.values())
+        {
+            if(i >= 0 && i < actions.size())
+                return actions.get(i);
+            i -= actions.size();
+        }
+        for (ArrayList<Action> actions : unitActions.values())
+        {
+            if(i >= 0 && i < actions.size())
+                return actions.get(i);
+            i -= actions.size();
+        }
+        throw new IndexOutOfBoundsException("Action index " + idx + " out of bounds for " + getActionCount() + " actions.");
+    }
+
+    /**
+     * Returns an iterator over the available actions for the active tribe, in the same order as
+     * getAllAvailableActions(), without gathering them in a list.
+     * @return an iterator over all available actions.
+     */
+    public Iterator<Action> getActionIterator()
+    {
+        ArrayList<Iterator<Action>> iterators = new ArrayList<>();
+        iterators.add(tribeActions.iterator());
+        for (ArrayList<Action> actions : cityActions.values())
+            iterators.add(actions.iterator());
+        for (ArrayList<Action> actions : unitActions.values())
+            iterators.add(actions.iterator());
+
+        return new Iterator<Action>() {
+            private int cur = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (cur < iterators.size() && !iterators.get(cur).hasNext())
+                    cur++;
+                return cur < iterators.size();
+            }
+
+            @Override
+            public Action next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                return iterators.get(cur).next();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the actions available for an actor (city or unit) of the active tribe.
+     * @param actorId id of the actor.
+     * @return an iterator over the actions of the actor, empty if it has none.
+     */
+    public Iterator<Action> getActionIterator(int actorId)
+    {
+        ArrayList<Action> actions = cityActions.get(actorId);
+        if(actions == null)
+            actions = unitActions.get(actorId);
+        return actions == null ? Collections.emptyIterator() : actions.iterator();
+    }
+
     public ArrayList<Action> getAllAvailableActions(int playerID)
     {
         if(playerID == getActiveTribeID())
@@ -851,6 +1094,10 @@ public class GameState {
         return getActiveTribe().getObsGrid();
     }
 
+    public int getNumVisibleTiles() {
+        return getActiveTribe().getRevealedTiles();
+    }
+
     public ArrayList<Integer> getTribesMet() {
         return getActiveTribe().getTribesMet();
     }
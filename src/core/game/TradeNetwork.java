@@ -5,12 +5,14 @@ import core.Types;
 import core.actors.City;
 import core.actors.Tribe;
 import utils.Vector2d;
+import utils.Zobrist;
 import utils.graph.NeighbourHelper;
-import utils.graph.PathNode;
+import utils.graph.NeighbourList;
 import utils.graph.Pathfinder;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import static core.Types.TERRAIN.*;
 
@@ -23,6 +25,26 @@ class TradeNetwork
     //Size of this trade network.
     private int size;
 
+    // Copy-on-write: indicates if each row of networkTiles is owned by this network or shared with a copy.
+    private boolean[] ownedRows;
+
+    // Zobrist hash of the tiles in the network, updated on every write.
+    private long hash;
+
+    // Revision of the board features that the connectivity of the network depends on, other than additions to the
+    // network (borders, city ownership, cities, water and ports). Increased whenever any of them changes.
+    private int revision;
+
+    // Connectivity of the network of each tribe, as a union-find forest over the tiles (x * size + y): the parent
+    // of each tile, or minus the size of its set for roots. Null if not computed for a tribe.
+    private int[][] components;
+
+    // For each tribe, revision, capital tile and revealed water tiles when its components were computed.
+    private int[] componentsRevision, componentsRoot, componentsWater;
+
+    // Copy-on-write: indicates if the components of each tribe are owned by this network or shared with a copy.
+    private boolean[] ownedComponents;
+
     /**
      * Creates a trade network for a size by size board
      * @param size side of the board
@@ -31,6 +53,8 @@ class TradeNetwork
     {
         this.size = size;
         this.networkTiles = new boolean[size][size];
+        this.ownedRows = new boolean[size];
+        Arrays.fill(ownedRows, true);
     }
 
     /**
@@ -40,6 +64,50 @@ class TradeNetwork
     TradeNetwork(boolean[][] networkTiles){
         this.size = networkTiles.length;
         this.networkTiles = networkTiles;
+        this.ownedRows = new boolean[size];
+        Arrays.fill(ownedRows, true);
+        for (int x = 0; x < size; x++)
+            for (int y = 0; y < size; y++)
+                if(networkTiles[x][y])
+                    hash ^= Zobrist.key(Zobrist.NETWORK, x * size + y, 1);
+    }
+
+    /**
+     * Creates a copy of this trade network that shares the rows of the network grid with this one.
+     * Rows are cloned by the first of the two networks that writes on them.
+     * @return a copy of this trade network.
+     */
+    TradeNetwork copy()
+    {
+        TradeNetwork copy = new TradeNetwork(size);
+        copy.networkTiles = networkTiles.clone();
+        copy.hash = hash;
+        Arrays.fill(copy.ownedRows, false);
+        Arrays.fill(ownedRows, false);
+        copy.revision = revision;
+        if(components != null)
+        {
+            copy.components = components.clone();
+            copy.componentsRevision = componentsRevision.clone();
+            copy.componentsRoot = componentsRoot.clone();
+            copy.componentsWater = componentsWater.clone();
+            copy.ownedComponents = new boolean[components.length];
+            Arrays.fill(ownedComponents, false);
+        }
+        return copy;
+    }
+
+    /**
+     * Ensures this network owns the row x of the network grid, cloning it if shared.
+     * @param x row to own.
+     */
+    private void ownRow(int x)
+    {
+        if(!ownedRows[x])
+        {
+            networkTiles[x] = networkTiles[x].clone();
+            ownedRows[x] = true;
+        }
     }
 
     /**
@@ -51,10 +119,24 @@ class TradeNetwork
      */
     void setTradeNetwork(Board board, int x, int y, boolean trade)
     {
-        networkTiles[x][y] = trade;
+        boolean added = trade && !networkTiles[x][y];
+        if(!trade && networkTiles[x][y])
+            revision++;
+        setTradeNetworkValue(x, y, trade);
+        if(added)
+            joinComponents(board, x, y);
         computeTradeNetwork(board);
     }
 
+    /**
+     * Indicates that a feature of the board that the connectivity of the network depends on has changed. The
+     * components of all tribes will be computed again when needed.
+     */
+    void invalidateComponents()
+    {
+        revision++;
+    }
+
 
     /**
      * Computes the trade network for all tribes. Calls computeTradeNetworkTribe(...) on all tribes of the game.
@@ -68,9 +150,8 @@ class TradeNetwork
     }
 
     /**
-     * Computes the trade network for one tribe. It builds to complementary graphs: connected tiles (via roads)
-     * and connected cities (via ports and water tiles). It updates the populations of the cities according to
-     * changes in the network.
+     * Computes the trade network for one tribe and updates the populations of the cities according to changes
+     * in the network. Cities are connected to the capital if they are in the same component of the network.
      * @param board board of the game.
      * @param tribe tribe which network has to be computed.
      */
@@ -81,77 +162,221 @@ class TradeNetwork
             return;
 
         if (tribe.controlsCapital()) {
-            boolean[][] connectedTiles = new boolean[networkTiles.length][networkTiles[0].length];
-            boolean[][] navigable = new boolean[networkTiles.length][networkTiles[0].length];
-
-            ArrayList<Vector2d> ports = new ArrayList<>();
-
-            //First, set up the graph. Including all tiles that correspond to active trade points (roads, cities, ports)
-            for (int i = 0; i < networkTiles.length; ++i) {
-                for (int j = 0; j < networkTiles[0].length; ++j) {
-                    //Only for this tribe
-                    int cityId = board.getCityIdAt(i,j);
-                    boolean myCity = tribe.controlsCity(cityId);
-                    boolean notEnemy = myCity || cityId == -1;
-
-                    //cities and ports, must be within my city boundaries.
-                    Types.TERRAIN ter = board.getTerrainAt(i,j);
-                    Types.BUILDING build = board.getBuildingAt(i,j);
-                    if(myCity && (ter == CITY || build == Types.BUILDING.PORT))
-                    {
-                        connectedTiles[i][j] = networkTiles[i][j];
-                        if(build == Types.BUILDING.PORT)
-                            ports.add(new Vector2d(i, j));
-
-                        //Roads, must be within my city boundaries OR in a neutral tile.
-                    }else if (notEnemy && board.isRoad(i,j))
-                    {
-                        connectedTiles[i][j] = networkTiles[i][j];
-                    }
+            City capital = (City) board.getActor(tribe.getCapitalID());
+            int root = capital.getPosition().x * size + capital.getPosition().y;
+            int t = tribe.getTribeId();
+            if(!isUpToDate(tribe) || componentsRoot[t] != root)
+                buildComponents(board, tribe, root);
+
+            int[] parent = components[t];
+            boolean owned = ownedComponents[t];
+            tribe.updateNetwork(k -> k != root && isNode(board, tribe, k / size, k % size) &&
+                    find(parent, k, owned) == find(parent, root, owned), board, t == board.getActiveTribeID());
+        }else {
+            tribe.updateNetwork(null, board, tribe.getTribeId() == board.getActiveTribeID());
+        }
+    }
 
-                    //And navigable tiles: WATER, VISIBLE AND NOT ENEMY
-                    if ((ter == SHALLOW_WATER || ter == DEEP_WATER)
-                            && tribe.isVisible(i, j) && notEnemy) {
-                        navigable[i][j] = true;
-                    }
+    /**
+     * Computes the components of the network of a tribe. It builds two complementary graphs: connected tiles
+     * (via roads) and connected ports (via water tiles), and joins the tiles connected by either of them.
+     * @param board board of the game.
+     * @param tribe tribe which network has to be computed.
+     * @param root tile of the capital of the tribe.
+     */
+    private void buildComponents(Board board, Tribe tribe, int root)
+    {
+        boolean[][] connectedTiles = new boolean[networkTiles.length][networkTiles[0].length];
+        boolean[][] navigable = new boolean[networkTiles.length][networkTiles[0].length];
+
+        ArrayList<Vector2d> ports = new ArrayList<>();
+
+        //First, set up the graph. Including all tiles that correspond to active trade points (roads, cities, ports)
+        for (int i = 0; i < networkTiles.length; ++i) {
+            for (int j = 0; j < networkTiles[0].length; ++j) {
+                connectedTiles[i][j] = isNode(board, tribe, i, j);
+                if(tribe.controlsCity(board.getCityIdAt(i,j)) && board.getBuildingAt(i,j) == Types.BUILDING.PORT)
+                    ports.add(new Vector2d(i, j));
+
+                //And navigable tiles: WATER, VISIBLE AND NOT ENEMY
+                int cityId = board.getCityIdAt(i,j);
+                Types.TERRAIN ter = board.getTerrainAt(i,j);
+                if ((ter == SHALLOW_WATER || ter == DEEP_WATER)
+                        && tribe.isVisible(i, j) && (cityId == -1 || tribe.controlsCity(cityId))) {
+                    navigable[i][j] = true;
                 }
             }
+        }
 
-            TradeNetworkStep tns = new TradeNetworkStep(connectedTiles);
+        //Paths start from the capital, so it can be taken as part of the network.
+        connectedTiles[root / size][root % size] = true;
+
+        //Adjacent tiles of the network are connected.
+        int[] parent = new int[size * size];
+        Arrays.fill(parent, -1);
+        for (int k = 0; k < size * size; k++)
+            if(connectedTiles[k / size][k % size])
+                for (int n : board.getNeighbourTable().get(k / size, k % size, 1))
+                    if(n > k && connectedTiles[n / size][n % size])
+                        union(parent, k, n);
+
+        //Now, we need to add jump links. In this case, two ports are connected if
+        // separated by [0,TribesConfig.PORT_TRADE_DISTANCE] WATER, VISIBLE, NON-ENEMY tiles
+        int nPorts = ports.size();
+        for (int i = 0; i < nPorts - 1; ++i) {
+            Vector2d portFrom = ports.get(i);
+            BitSet reachable = new Pathfinder(portFrom, new TradeWaterStep(navigable)).findReachable();
+            for (int j = i + 1; j < nPorts; ++j) {
+                Vector2d portTo = ports.get(j);
+                if (reachable.get(portTo.x * size + portTo.y))
+                {
+                    //We add this as a link between ports.
+                    union(parent, portFrom.x * size + portFrom.y, portTo.x * size + portTo.y);
+                }
+            }
+        }
 
-            //Now, we need to add jump links. In this case, two ports are connected if
-            // separated by [0,TribesConfig.PORT_TRADE_DISTANCE] WATER, VISIBLE, NON-ENEMY tiles
-            int nPorts = ports.size();
-            for (int i = 0; i < nPorts - 1; ++i) {
-                for (int j = i; j < nPorts; ++j) {
-                    if (i != j) {
-                        Vector2d portFrom = ports.get(i);
-                        Vector2d portTo = ports.get(j);
+        int t = tribe.getTribeId();
+        if(components == null)
+        {
+            int nTribes = board.getTribes().length;
+            components = new int[nTribes][];
+            componentsRevision = new int[nTribes];
+            componentsRoot = new int[nTribes];
+            componentsWater = new int[nTribes];
+            ownedComponents = new boolean[nTribes];
+        }
+        components[t] = parent;
+        componentsRevision[t] = revision;
+        componentsRoot[t] = root;
+        componentsWater[t] = tribe.getRevealedWaterTiles();
+        ownedComponents[t] = true;
+    }
 
-                        Vector2d originPortPos = new Vector2d(portFrom.x, portFrom.y);
-                        Pathfinder tp = new Pathfinder(originPortPos, new TradeWaterStep(navigable));
-                        ArrayList<PathNode> path = tp.findPathTo(new Vector2d(portTo.x, portTo.y));
+    /**
+     * Updates the components of the tribes after a tile is added to the network, joining it with the tiles of
+     * the network around it. Components that can't be updated this way are dropped (the tile is a port, which adds
+     * links through water).
+     * @param board board of the game.
+     * @param x x coordinate of the tile added.
+     * @param y y coordinate of the tile added.
+     */
+    private void joinComponents(Board board, int x, int y)
+    {
+        if(components == null)
+            return;
 
-                        if (path != null) //+1 because path includes destination
-                        {
-                            //We add this as a link between ports.
-                            tns.addJumpLink(portFrom, portTo, true);
-                        }
+        int k = x * size + y;
+        for (Tribe tribe : board.getTribes())
+        {
+            int t = tribe.getTribeId();
+            if(!isUpToDate(tribe))
+                continue;
 
-                    }
+            if(board.getBuildingAt(x, y) == Types.BUILDING.PORT)
+            {
+                components[t] = null;
+            }else if(k == componentsRoot[t] || isNode(board, tribe, x, y))
+            {
+                if(!ownedComponents[t])
+                {
+                    components[t] = components[t].clone();
+                    ownedComponents[t] = true;
                 }
+                for (int n : board.getNeighbourTable().get(x, y, 1))
+                    if(n == componentsRoot[t] || isNode(board, tribe, n / size, n % size))
+                        union(components[t], k, n);
             }
+        }
+    }
 
-            City capital = (City) board.getActor(tribe.getCapitalID());
-            tribe.updateNetwork(new Pathfinder(capital.getPosition(), tns), board, tribe.getTribeId() == board.getActiveTribeID());
-        }else {
-            tribe.updateNetwork(null, board, tribe.getTribeId() == board.getActiveTribeID());
+    /**
+     * Indicates if the components of a tribe are computed and reflect the current state of the board.
+     * @param tribe tribe to check.
+     * @return true if the components of the tribe can be used.
+     */
+    private boolean isUpToDate(Tribe tribe)
+    {
+        int t = tribe.getTribeId();
+        return components != null && components[t] != null && componentsRevision[t] == revision &&
+                componentsWater[t] == tribe.getRevealedWaterTiles();
+    }
+
+    /**
+     * Indicates if a tile is part of the network of a tribe: cities and ports within its borders, and roads
+     * within its borders or in neutral tiles.
+     * @param board board of the game.
+     * @param tribe tribe of the network.
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @return true if the tile belongs to the network of the tribe.
+     */
+    private boolean isNode(Board board, Tribe tribe, int x, int y)
+    {
+        if(!networkTiles[x][y])
+            return false;
+
+        int cityId = board.getCityIdAt(x,y);
+        boolean myCity = tribe.controlsCity(cityId);
+        if(myCity && (board.getTerrainAt(x,y) == CITY || board.getBuildingAt(x,y) == Types.BUILDING.PORT))
+            return true;
+
+        //Roads, must be within my city boundaries OR in a neutral tile.
+        return (myCity || cityId == -1) && board.isRoad(x,y);
+    }
+
+    /**
+     * Finds the root of the set of a tile in a union-find forest.
+     * @param parent forest of tiles.
+     * @param k tile to find.
+     * @param compress true if paths can be compressed (the forest is not shared).
+     * @return root of the set of k.
+     */
+    private static int find(int[] parent, int k, boolean compress)
+    {
+        int root = k;
+        while (parent[root] >= 0)
+            root = parent[root];
+        while (compress && parent[k] >= 0 && parent[k] != root)
+        {
+            int next = parent[k];
+            parent[k] = root;
+            k = next;
+        }
+        return root;
+    }
+
+    /**
+     * Joins the sets of two tiles in a union-find forest, by size.
+     * @param parent forest of tiles.
+     * @param a one tile.
+     * @param b the other tile.
+     */
+    private static void union(int[] parent, int a, int b)
+    {
+        a = find(parent, a, true);
+        b = find(parent, b, true);
+        if(a == b)
+            return;
+        if(parent[a] > parent[b])
+        {
+            int swap = a;
+            a = b;
+            b = swap;
         }
+        parent[a] += parent[b];
+        parent[b] = a;
     }
 
 
-    void setTradeNetworkValue(int x, int y, boolean trade) {  this.networkTiles[x][y] = trade;  }
+    void setTradeNetworkValue(int x, int y, boolean trade) {
+        ownRow(x);
+        if(networkTiles[x][y] != trade)
+            hash ^= Zobrist.key(Zobrist.NETWORK, x * size + y, 1);
+        this.networkTiles[x][y] = trade;
+    }
     boolean getTradeNetworkValue(int x, int y) { return networkTiles[x][y]; }
+    long getHash() { return hash; }
 
 
     /**
@@ -169,121 +394,37 @@ class TradeNetwork
             this.navigable = navigable;
         }
 
-        /**
-         * Returns the neighbours of a given node in this data structure.
-         * @param from position from which we need neighbours
-         * @param costFrom is the total move cost computed up to "from"
-         * @return  all the adjacent neighbours to tile in position "from"
-         */
-        @Override
-        public ArrayList<PathNode> getNeighbours(Vector2d from, double costFrom) {
-
-            ArrayList<PathNode> neighbours = new ArrayList<>();
-            double stepCost = 1.0;
-
-            for(Vector2d tile : from.neighborhood(1, 0, size)) {
-                int x = tile.x;
-                int y = tile.y;
-                if(navigable[x][y] && costFrom+stepCost <= TribesConfig.PORT_TRADE_DISTANCE)
-                {
-                    neighbours.add(new PathNode(new Vector2d(x, y), stepCost));
-                }
-            }
-
-            return neighbours;
-        }
-
         @Override
-        public void addJumpLink(Vector2d from, Vector2d to, boolean reverse) {
-            //No jump links
+        public int getGridSize() {
+            return size;
         }
-    }
-
-    /**
-     * Private class that is used by Pathfinding to determine city connectivity in a graph.
-     * Considers connection between ports for the connectivity between cities
-     */
-    private class TradeNetworkStep implements NeighbourHelper
-    {
-        //Grid that determines which position belong to the trade network. Adjacent points are connected
-        private boolean [][]connected;
-
-        //List of network links between non-adjacent tiles.
-        private HashMap<Vector2d, ArrayList<Vector2d>> jumpLinks;
 
         /**
-         * Creates a trade network step helper
-         * @param connected list of connected tiles.
-         */
-        TradeNetworkStep (boolean [][]connected)
-        {
-            this.connected = connected;
-            this.jumpLinks = new HashMap<>();
-        }
-
-        /**
-         * Returns the neighbours of a given node in this data structure. Considers the jump links between
-         * non-adjacent node.
-         * @param from position from which we need neighbours
+         * Adds the neighbours of a given node in this data structure.
+         * @param fromX x coordinate of the position from which we need neighbours
+         * @param fromY y coordinate of the position from which we need neighbours
          * @param costFrom is the total move cost computed up to "from"
-         * @return  all the adjacent neighbours to tile in position "from"
+         * @param neighbours list where all the adjacent neighbours to tile in position "from" are added
          */
         @Override
-        public ArrayList<PathNode> getNeighbours(Vector2d from, double costFrom) {
+        public void getNeighbours(int fromX, int fromY, double costFrom, NeighbourList neighbours) {
 
-            ArrayList<PathNode> neighbours = new ArrayList<>();
             double stepCost = 1.0;
 
-            for(Vector2d tile : from.neighborhood(1, 0, size)) {
-                int x = tile.x;
-                int y = tile.y;
-                if(connected[x][y])
-                {
-                    neighbours.add(new PathNode(new Vector2d(x, y), stepCost));
-                }
-            }
-
-            //Now, add the jump link neighbours
-            if(jumpLinks.containsKey(from))
-            {
-                ArrayList<Vector2d> connected = jumpLinks.get(from);
-                for(Vector2d to: connected)
-                {
-                    neighbours.add(new PathNode(to, stepCost));
+            for(int x = Math.max(fromX - 1, 0); x <= Math.min(fromX + 1, size - 1); x++) {
+                for(int y = Math.max(fromY - 1, 0); y <= Math.min(fromY + 1, size - 1); y++) {
+                    if((x != fromX || y != fromY) && navigable[x][y] && costFrom+stepCost <= TribesConfig.PORT_TRADE_DISTANCE)
+                    {
+                        neighbours.add(x, y, stepCost);
+                    }
                 }
             }
-
-
-            return neighbours;
         }
 
-
-        /**
-         * Adds a jump link between two positions
-         * @param from one end of the link
-         * @param to the other end of the link
-         * @param reverse true if another link from 'to' to 'from' must also be created
-         */
         @Override
         public void addJumpLink(Vector2d from, Vector2d to, boolean reverse) {
-            addAtoB(from, to);
-            if(reverse) addAtoB(to, from);
-        }
-
-        /**
-         * Adds a jump link from 'from' to 'to' to the list of jump links.
-         * @param from one end of the link
-         * @param to the other end of the link
-         */
-        private void addAtoB(Vector2d from, Vector2d to)
-        {
-            if(!jumpLinks.containsKey(from))
-                jumpLinks.put(from, new ArrayList<>());
-
-            ArrayList<Vector2d> connected = jumpLinks.get(from);
-            connected.add(to);
+            //No jump links
         }
     }
 
-
 }
@@ -0,0 +1,34 @@
+package core.game;
+
+import core.actions.Action;
+import core.actors.Actor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Entry of the undo journal of a GameState. It records all the information needed to revert the game state
+ * to how it was before an action was applied with GameState.advanceUndoable().
+ */
+class UndoFrame
+{
+    // Game state information before the action was applied.
+    int tick;
+    boolean[] canEndTurn;
+    HashMap<Integer, ArrayList<Action>> cityActions;
+    HashMap<Integer, ArrayList<Action>> unitActions;
+    ArrayList<Action> tribeActions;
+    boolean turnMustEnd;
+    boolean gameIsOver;
+    int computedActionTribeIdFlag;
+    boolean levelingUp;
+    TreeSet<TribeResult> ranking;
+
+    // Board holding the layers (shared copy-on-write), tribes, diplomacy and counters of the board before the action.
+    Board board;
+
+    // Copies of the actors as they were before the action modified them, indexed by actor id.
+    // A null value indicates that the actor didn't exist (i.e. it was created by the action).
+    HashMap<Integer, Actor> actors;
+}
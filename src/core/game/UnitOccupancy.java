@@ -0,0 +1,168 @@
+package core.game;
+
+import utils.NeighbourTable;
+
+/**
+ * Spatial index of the units on the board. For each tribe, it keeps a bitboard of the tiles occupied by its
+ * units (bit x*size+y) and, for each tile, the number of its units adjacent to that tile. These answer whether
+ * there are enemy units next to a tile (zone of control) or within the range of a unit with bit operations
+ * instead of looking up the unit of every tile around.
+ * Arrays are shared copy-on-write between copies of the index.
+ */
+class UnitOccupancy
+{
+    //Size of the board.
+    private int size;
+
+    //Neighbourhoods of the tiles of the board.
+    private NeighbourTable neighbourTable;
+
+    //Tiles occupied by units of each tribe, indexed by [tribe][word].
+    private long[][] occupied;
+
+    //Number of units of each tribe adjacent to each tile, indexed by [tribe][x*size+y].
+    private byte[][] adjacent;
+
+    //Copy-on-write: indicates if the arrays are owned by this index or shared with a copy.
+    private boolean owned;
+
+    /**
+     * Creates an empty index.
+     * @param size side of the board.
+     * @param numTribes number of tribes in the game.
+     */
+    UnitOccupancy(int size, int numTribes)
+    {
+        this.size = size;
+        this.neighbourTable = NeighbourTable.forSize(size);
+        this.occupied = new long[numTribes][(size * size + 63) >>> 6];
+        this.adjacent = new byte[numTribes][size * size];
+        this.owned = true;
+    }
+
+    /**
+     * Creates a copy of this index that shares its arrays with this one. They are cloned by the first of the
+     * two indices that writes on them.
+     * @return a copy of this index.
+     */
+    UnitOccupancy copy()
+    {
+        UnitOccupancy copy = new UnitOccupancy();
+        copy.size = size;
+        copy.neighbourTable = neighbourTable;
+        copy.occupied = occupied;
+        copy.adjacent = adjacent;
+        copy.owned = false;
+        owned = false;
+        return copy;
+    }
+
+    private UnitOccupancy() {}
+
+    /**
+     * Records a unit at a tile.
+     * @param k index of the tile (x*size+y).
+     * @param tribeId tribe of the unit.
+     */
+    void add(int k, int tribeId)
+    {
+        own();
+        occupied[tribeId][k >>> 6] |= 1L << k;
+        for (int n : neighbourTable.get(k / size, k % size, 1))
+            adjacent[tribeId][n]++;
+    }
+
+    /**
+     * Removes the unit at a tile, if there's any.
+     * @param k index of the tile (x*size+y).
+     */
+    void remove(int k)
+    {
+        for (int t = 0; t < occupied.length; t++)
+        {
+            if((occupied[t][k >>> 6] & (1L << k)) != 0)
+            {
+                own();
+                occupied[t][k >>> 6] &= ~(1L << k);
+                for (int n : neighbourTable.get(k / size, k % size, 1))
+                    adjacent[t][n]--;
+            }
+        }
+    }
+
+    /**
+     * Indicates if there's a unit of a tribe other than tribeId adjacent to a tile.
+     * @param k index of the tile (x*size+y).
+     * @param tribeId tribe whose enemies are checked.
+     * @return true if there's an enemy unit next to the tile.
+     */
+    boolean isEnemyAdjacent(int k, int tribeId)
+    {
+        for (int t = 0; t < adjacent.length; t++)
+            if(t != tribeId && adjacent[t][k] > 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Finds the tiles with units at a distance of range or less from (x,y), not including (x,y).
+     * @param x x coordinate of the center.
+     * @param y y coordinate of the center.
+     * @param range maximum (Chebyshev) distance from the center.
+     * @param tribeId tribe of reference.
+     * @param enemies true to find units of tribes other than tribeId, false to find units of tribeId.
+     * @param tiles array where the tiles found are written (as x*size+y, in increasing order), null to
+     *              stop at the first one.
+     * @return number of tiles found.
+     */
+    int find(int x, int y, int range, int tribeId, boolean enemies, int[] tiles)
+    {
+        int found = 0;
+        int center = x * size + y;
+        int minY = Math.max(y - range, 0), maxY = Math.min(y + range, size - 1);
+        for (int i = Math.max(x - range, 0); i <= Math.min(x + range, size - 1); i++)
+        {
+            int from = i * size + minY, to = i * size + maxY;
+            for (int w = from >>> 6; w <= to >>> 6; w++)
+            {
+                long bits = 0;
+                for (int t = 0; t < occupied.length; t++)
+                    if((t != tribeId) == enemies)
+                        bits |= occupied[t][w];
+
+                //Keep only the bits of this row within range.
+                int lo = Math.max(from - (w << 6), 0), hi = Math.min(to - (w << 6), 63);
+                bits &= (-1L << lo) & (-1L >>> (63 - hi));
+
+                while (bits != 0)
+                {
+                    int k = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if(k == center)
+                        continue;
+                    if(tiles == null)
+                        return 1;
+                    tiles[found++] = k;
+                }
+            }
+        }
+        return found;
+    }
+
+    private void own()
+    {
+        if(!owned)
+        {
+            long[][] occ = new long[occupied.length][];
+            byte[][] adj = new byte[adjacent.length][];
+            for (int t = 0; t < occupied.length; t++)
+            {
+                occ[t] = occupied[t].clone();
+                adj[t] = adjacent[t].clone();
+            }
+            occupied = occ;
+            adjacent = adj;
+            owned = true;
+        }
+    }
+}
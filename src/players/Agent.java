@@ -181,7 +181,7 @@ public abstract class Agent {
      */
     public int actionsPerGameState(GameState gs)
     {
-        return gs.getAllAvailableActions().size();
+        return gs.getActionCount();
     }
 
 
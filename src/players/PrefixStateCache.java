@@ -0,0 +1,213 @@
+package players;
+
+import core.actions.Action;
+import core.game.GameState;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of the game states reached by applying sequences of actions to a root state, for agents that evaluate many
+ * sequences sharing prefixes (i.e. mutations and crossovers of evolutionary agents). States are kept in a trie
+ * keyed by the actions applied, so replaying a sequence only calls the forward model from the first action that
+ * was not applied before after the same prefix.
+ * Actions are compared by identity: offspring share the action objects of their parents, and the equals() of some
+ * actions doesn't compare all their fields. If applying an action has random effects, the state cached is one of
+ * its outcomes.
+ * The number of states kept is bounded. When it's exceeded, the least recently used state is evicted, together
+ * with all the states that extend its sequence. This class is not thread safe.
+ */
+public class PrefixStateCache
+{
+    //State of the root, never modified.
+    private final Node root;
+
+    //Maximum number of states kept, not counting the root.
+    private final int capacity;
+
+    //Nodes of the trie, except the root, from the least to the most recently used.
+    private final LinkedHashMap<Node, Node> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+    //Actions applied with a state found in the cache or not.
+    private int hits, misses;
+
+    /**
+     * Creates an empty cache.
+     * @param rootState state the sequences are applied to. It's not copied, so it must not be modified while the
+     *                  cache is in use.
+     * @param capacity maximum number of states kept.
+     */
+    public PrefixStateCache(GameState rootState, int capacity)
+    {
+        this.root = new Node(null, null, rootState);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Starts applying a sequence of actions to the root state.
+     * @return a cursor at the root state.
+     */
+    public Cursor cursor()
+    {
+        return new Cursor(this, root, null);
+    }
+
+    /**
+     * Starts applying a sequence of actions to a state, without a cache: actions are applied to a copy of the state.
+     * @param gs state the actions are applied to. It's copied, and the copy is advanced with each action.
+     * @return a cursor at a copy of the state.
+     */
+    public static Cursor uncached(GameState gs)
+    {
+        return new Cursor(null, null, gs.copy());
+    }
+
+    /**
+     * Starts applying a sequence of actions to a state, with a cache if there's one.
+     * @param cache cache of the sequences applied to gs, null for none.
+     * @param gs state the actions are applied to, the root of the cache if there's one.
+     * @return a cursor at the root of the cache, or at a copy of the state.
+     */
+    public static Cursor start(PrefixStateCache cache, GameState gs)
+    {
+        return cache != null ? cache.cursor() : uncached(gs);
+    }
+
+    public int getHits() { return hits; }
+    public int getMisses() { return misses; }
+    public int size() { return lru.size(); }
+
+    /**
+     * Adds the state reached by applying an action after a node, evicting the least recently used ones if the
+     * capacity is exceeded.
+     */
+    private Node insert(Node parent, Action action, GameState state)
+    {
+        Node node = new Node(parent, action, state);
+        if(parent.evicted)
+            return node;    //Its prefix is no longer cached: keep it out of the cache too.
+
+        parent.children.add(node);
+        lru.put(node, node);
+        while (lru.size() > capacity)
+        {
+            Iterator<Node> it = lru.keySet().iterator();
+            Node eldest = it.next();
+            eldest.parent.children.remove(eldest);
+            evict(eldest);
+        }
+        return node;
+    }
+
+    private void evict(Node node)
+    {
+        node.evicted = true;
+        lru.remove(node);
+        for (Node child : node.children)
+            evict(child);
+        node.children.clear();
+    }
+
+    /**
+     * Node of the trie: the state reached by the actions from the root to this node.
+     */
+    private static class Node
+    {
+        private final Node parent;
+        private final Action action;
+        private final GameState state;
+        private final ArrayList<Node> children = new ArrayList<>();
+        private boolean evicted;
+
+        Node(Node parent, Action action, GameState state)
+        {
+            this.parent = parent;
+            this.action = action;
+            this.state = state;
+        }
+
+        Node child(Action action)
+        {
+            for (Node child : children)
+                if (child.action == action)
+                    return child;
+            return null;
+        }
+    }
+
+    /**
+     * Position in a sequence of actions being applied. It's either at a node of a cache, whose state is shared and
+     * read only, or at a state of its own (without a cache).
+     */
+    public static class Cursor
+    {
+        private final PrefixStateCache cache;
+        private Node node;
+        private GameState state;
+
+        private Cursor(PrefixStateCache cache, Node node, GameState state)
+        {
+            this.cache = cache;
+            this.node = node;
+            this.state = state;
+        }
+
+        /**
+         * Returns the state reached by the actions applied so far. It may be shared with the cache, so it must only
+         * be read: it's modified through advance(), and copyState() gives a copy that can be modified.
+         * @return the current state.
+         */
+        public GameState state()
+        {
+            return node != null ? node.state : state;
+        }
+
+        /**
+         * Returns a copy of the current state, that can be modified.
+         * @return a copy of the current state.
+         */
+        public GameState copyState()
+        {
+            return state().copy();
+        }
+
+        /**
+         * Applies an action to the current state.
+         * @param action action to apply.
+         * @return true if the forward model was called, false if the state was found in the cache.
+         */
+        public boolean advance(Action action)
+        {
+            if(node == null)
+            {
+                state.advance(action, true);
+                return true;
+            }
+
+            Node next = node.evicted ? null : node.child(action);
+            if(next != null)
+            {
+                cache.lru.get(next);   //Mark as used.
+                cache.hits++;
+                node = next;
+                return false;
+            }
+
+            GameState nextState = node.state.copy();
+            nextState.advance(action, true);
+            cache.misses++;
+            node = cache.insert(node, action, nextState);
+            return true;
+        }
+
+        /**
+         * Creates a cursor at the same position as this one, to continue from here later.
+         * @return a copy of this cursor.
+         */
+        public Cursor copy()
+        {
+            return node != null ? new Cursor(cache, node, null) : new Cursor(null, null, state.copy());
+        }
+    }
+}
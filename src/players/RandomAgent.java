@@ -4,7 +4,6 @@ import core.actions.Action;
 import core.game.GameState;
 import utils.ElapsedCpuTimer;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 public class RandomAgent extends Agent {
@@ -20,9 +19,8 @@ public class RandomAgent extends Agent {
     @Override
     public Action act(GameState gs, ElapsedCpuTimer ect)
     {
-        ArrayList<Action> allActions = gs.getAllAvailableActions();
-        int nActions = allActions.size();
-        Action toExecute = allActions.get(rnd.nextInt(nActions));
+        int nActions = gs.getActionCount();
+        Action toExecute = gs.getAction(rnd.nextInt(nActions));
 //        System.out.println("[Tribe: " + playerID + "] Tick " +  gs.getTick() + ", num actions: " + nActions + ". Executing " + toExecute);
         return toExecute;
     }
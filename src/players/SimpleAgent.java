@@ -248,10 +248,8 @@ public class SimpleAgent extends Agent {
         int enemiesInCity = 0;
         Types.UNIT u = ((Spawn) a).getUnitType();
         int cityID = ((Spawn) a).getCityId();
-        boolean[][] obsGrid = thisTribe.getObsGrid();
-
         for(Vector2d pos: gs.getBoard().getCityTiles(cityID)) {
-            if (obsGrid[pos.x][pos.y]) {
+            if (thisTribe.isVisible(pos.x, pos.y)) {
                 Unit unit = gs.getBoard().getUnitAt(pos.x, pos.y);
                 if (unit != null && unit.getTribeId() != thisTribe.getTribeId()) {
                     enemiesInCity++;
@@ -426,14 +424,13 @@ public class SimpleAgent extends Agent {
 
     //Evaluate a recover action
     private int evalRecover(Action a, GameState gs, Tribe thisTribe) {
-        boolean[][] obsGrid = thisTribe.getObsGrid();
         Unit thisUnit = (Unit) gs.getActor(((Recover) a).getUnitId());
         boolean inRange = false;
         Board b = gs.getBoard();
         //Check all tiles to see if we are in range of enemy
-        for (int x = 0; x < obsGrid.length; x++) {
-            for (int y = 0; y < obsGrid.length; y++) {
-                if (obsGrid[x][y]) {
+        for (int x = 0; x < b.getSize(); x++) {
+            for (int y = 0; y < b.getSize(); y++) {
+                if (thisTribe.isVisible(x, y)) {
                     Unit enemy = b.getUnitAt(x, y);
                     if (enemy != null && enemy.getTribeId() != thisTribe.getTribeId()) {
                         // Check if we are in the range of an enemy
@@ -526,10 +523,9 @@ public class SimpleAgent extends Agent {
 
 
         // int score = 0;
-        boolean[][] obsGrid = thisTribe.getObsGrid();
-        for (int x = 0; x < obsGrid.length; x++) {
-            for (int y = 0; y < obsGrid.length; y++) {
-                if (obsGrid[x][y]) {
+        for (int x = 0; x < b.getSize(); x++) {
+            for (int y = 0; y < b.getSize(); y++) {
+                if (thisTribe.isVisible(x, y)) {
                     Unit enemy = b.getUnitAt(x, y);
                     if (enemy != null && enemy.getTribeId() != thisTribe.getTribeId()) {
                         // Check if we are in the range of an enemy
@@ -552,7 +548,7 @@ public class SimpleAgent extends Agent {
         {
             int x = neigh.x;
             int y = neigh.y;
-            if(obsGrid[x][y]){
+            if(thisTribe.isVisible(x, y)){
                 City c = b.getCityInBorders(x, y);
                 Types.TERRAIN t = b.getTerrainAt(x, y);
                 if (c != null && c.getTribeId() != thisTribe.getTribeId()) {
@@ -570,7 +566,7 @@ public class SimpleAgent extends Agent {
 
         //Incentive to explore: next to fog
         for(Vector2d neigh : dest.neighborhood(1, 0, gs.getBoard().getSize())) {
-            if(obsGrid[neigh.x][neigh.y]){
+            if(thisTribe.isVisible(neigh.x, neigh.y)){
                 return 3;
             }
         }
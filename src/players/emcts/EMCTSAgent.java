@@ -9,6 +9,7 @@ import core.actors.City;
 import core.actors.units.Unit;
 import core.game.GameState;
 import players.Agent;
+import players.PrefixStateCache;
 import players.heuristics.StateHeuristic;
 import utils.ElapsedCpuTimer;
 
@@ -26,6 +27,7 @@ public class EMCTSAgent extends Agent {
     private EMCTSTreeNode root;
     private EMCTSTreeNode bestNode;
     private GameState old_gs;
+    private PrefixStateCache cache;  //States reached by the action prefixes evaluated in this act() call, if enabled.
 
     private int fmCallsCount;
     private int fmCallsRun;
@@ -39,10 +41,6 @@ public class EMCTSAgent extends Agent {
 
     @Override
     public Action act(GameState gs, ElapsedCpuTimer ect) {
-
-        double avgTimeTaken;
-        double acumTimeTaken = 0;
-        long remaining;
         int numIters = 0;
 
         this.fmCallsCount = 0;
@@ -54,15 +52,16 @@ public class EMCTSAgent extends Agent {
         this.heuristic = params.getStateHeuristic(playerID, allPlayerIDs);
 
         old_gs = gs.copy();
+        cache = params.prefix_cache_size > 0 ? new PrefixStateCache(gs, params.prefix_cache_size) : null;
 
-        root = randomActions(gs.copy());
-        eval(gs.copy(), root);
+        root = randomActions(PrefixStateCache.start(cache, gs));
+        eval(gs, root);
 
         bestNode = root;
         fmCallsRun = 0;
+        ect.startIterations(params.time_check_period);
         while (!stop) {
             numIters++;
-            ElapsedCpuTimer elapsedTimerIteration = new ElapsedCpuTimer();
             fmCallsRun = 0;
 
             EMCTSTreeNode toMutate = nodeToExpand();
@@ -70,8 +69,8 @@ public class EMCTSAgent extends Agent {
             //mutate to a cirtian depth
             int depth = 0;
             while (depth < params.depth) {
-                EMCTSTreeNode child = mutate(toMutate, gs.copy());
-                eval(gs.copy(), child);
+                EMCTSTreeNode child = mutate(toMutate, gs);
+                eval(gs, child);
 
                 if (child.getValue() > bestNode.getValue()) {
                     bestNode = child;
@@ -91,17 +90,18 @@ public class EMCTSAgent extends Agent {
 
             //System.out.println(numIters);
             if (params.stop_type == params.STOP_TIME) {
-                acumTimeTaken += (elapsedTimerIteration.elapsedMillis());
-                avgTimeTaken = acumTimeTaken / numIters;
-                remaining = ect.remainingTimeMillis();
-                stop = remaining <= 2 * avgTimeTaken || remaining <= remainingLimit;
+                ect.endIteration();
+                stop = !ect.enoughBudgetIteration(remainingLimit);
             } else if (params.stop_type == params.STOP_ITERATIONS) {
                 stop = numIters >= params.num_iterations;
             } else if (params.stop_type == params.STOP_FMCALLS) {
-                stop = (fmCallsCount > params.num_fmcalls) || (fmCallsRun > (params.num_fmcalls - fmCallsCount));
+                //With the cache, an iteration that only revisits evaluated sequences doesn't consume budget: stop there.
+                stop = (fmCallsCount > params.num_fmcalls) || (fmCallsRun > (params.num_fmcalls - fmCallsCount))
+                        || (cache != null && fmCallsRun == 0);
             }
         }
         //if(fmCallsCount>2000){System.out.println(fmCallsCount);}
+        cache = null;
 
         return bestNode.returnNext();
 
@@ -114,11 +114,12 @@ public class EMCTSAgent extends Agent {
 
     public void eval(GameState gs, EMCTSTreeNode node) {
         if(node.getGs() == null) {
+            PrefixStateCache.Cursor cursor = PrefixStateCache.start(cache, gs);
             for (Action move : node.getSequence()) {
-                advance(gs, move);
+                advance(cursor, move);
             }
-            node.setGs(gs);
-            node.setValue(heuristic.evaluateState(old_gs.copy(), gs.copy()));
+            node.setGs(cursor.state());
+            node.setValue(heuristic.evaluateState(old_gs.copy(), node.getGs()));
         }else{
             node.setValue(heuristic.evaluateState(old_gs.copy(), node.getGs()));
         }
@@ -160,21 +161,21 @@ public class EMCTSAgent extends Agent {
     }
 
     //this version of random Actions will return a list of random actions and tries to make the length as long as possible
-    private EMCTSTreeNode randomActions(GameState gs) {
+    private EMCTSTreeNode randomActions(PrefixStateCache.Cursor cursor) {
         ArrayList<Action> individual = new ArrayList<>();
-        while ((!gs.isGameOver() && (gs.getActiveTribeID() == getPlayerID())) && (individual.size() < (params.NODE_SIZE-1))){
-            ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+        while ((!cursor.state().isGameOver() && (cursor.state().getActiveTribeID() == getPlayerID())) && (individual.size() < (params.NODE_SIZE-1))){
+            ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
             Action a = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
             if (!(a.getActionType() == Types.ACTION.END_TURN)) {
-                advance(gs, a);
+                advance(cursor, a);
                 individual.add(a);
             }else if(allAvailableActions.size() == 1){
-                advance(gs,a);
+                advance(cursor,a);
                 individual.add(a);
             }
         }
         if(individual.size() == (params.NODE_SIZE-1) && (individual.get((params.NODE_SIZE-2)).getActionType() != Types.ACTION.END_TURN)){
-            ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+            ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
             Action end = null; ;
             for(Action a : allAvailableActions){
                 if(a.getActionType() == Types.ACTION.END_TURN){
@@ -185,35 +186,37 @@ public class EMCTSAgent extends Agent {
             individual.add(end);
         }
         EMCTSTreeNode node = new EMCTSTreeNode(individual, null);
-        node.setGs(gs.copy());
+        node.setGs(cursor.state());
         return node;
     }
 
 
-    private void advance(GameState gs, Action move) {
-        this.fmCallsCount++;
-        this.fmCallsRun++;
-        gs.advance(move, true);
+    private void advance(PrefixStateCache.Cursor cursor, Action move) {
+        //States found in the cache don't call the forward model.
+        if (cursor.advance(move)) {
+            this.fmCallsCount++;
+            this.fmCallsRun++;
+        }
     }
 
     //mutate a random action
     private EMCTSTreeNode mutate(EMCTSTreeNode node, GameState gs) {
-        GameState clone = gs.copy();
+        PrefixStateCache.Cursor cursor = PrefixStateCache.start(cache, gs);
         ArrayList<Action> seq = node.getSequence();
         int moveToMutate = m_rnd.nextInt(seq.size());
         ArrayList<Action> newSeq = new ArrayList<>();
         for (int i = 0; i < moveToMutate; i++) {
-            advance(gs, seq.get(i));
+            advance(cursor, seq.get(i));
             newSeq.add(seq.get(i));
         }
-        ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+        ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
         Action a = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
         newSeq.add(a);
 
         for (int i = moveToMutate + 1; i < seq.size(); i++) {
             newSeq.add(seq.get(i));
         }
-        newSeq = repair(newSeq, clone);
+        newSeq = repair(newSeq, PrefixStateCache.start(cache, gs));
         EMCTSTreeNode newNode = new EMCTSTreeNode(newSeq, node);
         node.addChild(newNode);
 
@@ -221,35 +224,35 @@ public class EMCTSAgent extends Agent {
     }
 
     //repair the node and make sure that it is valid
-    private ArrayList<Action> repair(ArrayList<Action> child, GameState gs) {
+    private ArrayList<Action> repair(ArrayList<Action> child, PrefixStateCache.Cursor cursor) {
         ArrayList<Action> repairedChild = new ArrayList<>();
 
         for (int a = 0; a < child.size(); a++) {
-            if (!(gs.getActiveTribeID() == getPlayerID())) {
+            if (!(cursor.state().getActiveTribeID() == getPlayerID())) {
                 return repairedChild;
             }
 
             try {
-                boolean done = checkActionFeasibility(child.get(a), gs.copy());
+                boolean done = checkActionFeasibility(child.get(a), cursor.state());
 
                 if (!done) {
-                    ArrayList<Action> allAvailableActions = this.allGoodActions(gs.copy(), m_rnd);
+                    ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
                     Action ac = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
-                    advance(gs, ac);
+                    advance(cursor, ac);
                     repairedChild.add(ac);
                 } else {
                     repairedChild.add(child.get(a));
-                    advance(gs, child.get(a));
+                    advance(cursor, child.get(a));
                 }
             } catch (Exception e) {
-                ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+                ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
                 Action ac = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
-                advance(gs, ac);
+                advance(cursor, ac);
                 repairedChild.add(ac);
             }
         }
         if (!(repairedChild.get(repairedChild.size() - 1).getActionType() == Types.ACTION.END_TURN)) {
-            ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+            ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
             Action end = null; ;
             for(Action a : allAvailableActions){
                 if(a.getActionType() == Types.ACTION.END_TURN){
@@ -292,23 +295,23 @@ public class EMCTSAgent extends Agent {
 
     // try to see of the node can be extended
     private void extend(EMCTSTreeNode node, GameState gs) {
-        GameState clone = gs.copy();
+        PrefixStateCache.Cursor cursor = PrefixStateCache.start(cache, gs);
         ArrayList<Action> currentActions = node.getSequence();
         ArrayList<Action> newActions = new ArrayList<>();
         for (int i = 0; i < currentActions.size() - 1; i++) {
             newActions.add(currentActions.get(i));
-            advance(gs, currentActions.get(i));
+            advance(cursor, currentActions.get(i));
         }
 
-        if (this.allGoodActions(gs, m_rnd).size() > 1) {
-            while (!gs.isGameOver() && (gs.getActiveTribeID() == getPlayerID())) {
-                ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+        if (this.allGoodActions(cursor.state(), m_rnd).size() > 1) {
+            while (!cursor.state().isGameOver() && (cursor.state().getActiveTribeID() == getPlayerID())) {
+                ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
                 Action a = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
                 if (!(a.getActionType() == Types.ACTION.END_TURN)) {
-                    advance(gs, a);
+                    advance(cursor, a);
                     newActions.add(a);
                 } else if (allAvailableActions.size() == 1) {
-                    advance(gs, a);
+                    advance(cursor, a);
                     newActions.add(a);
                     break;
                 }
@@ -318,7 +321,7 @@ public class EMCTSAgent extends Agent {
         }
         //newActions = repair(newActions, clone.copy());
         EMCTSTreeNode newNode = new EMCTSTreeNode(newActions, node.getParent());
-        eval(clone, newNode);
+        eval(gs, newNode);
         if (newNode.getValue() > node.getValue()) {
             node.setSequence(newActions);
             node.setValue(newNode.getValue());
@@ -24,6 +24,8 @@ public class AlgParams
     public int num_iterations = 200;
     public int num_fmcalls = 2000;
     public int num_time = 40;
+    public int time_check_period = 1;   // iterations between reads of the clock when stop_type is STOP_TIME
+    public int prefix_cache_size = 0;   // game states kept to replay shared action prefixes (evolutionary agents), 0 for none
     public int FORCE_TURN_END = 5;
     public boolean PRIORITIZE_ROOT = false;
 
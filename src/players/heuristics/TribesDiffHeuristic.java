@@ -46,15 +46,8 @@ public class TribesDiffHeuristic implements StateHeuristic {
     {
         double difference = 0;
         int connections = gsNew.getTribe(playerID).getConnectedCities().size();
-        boolean [][] visibility = gsNew.getVisibilityMap();
-        int visCountNew = 0;
-        for (boolean[] booleans : visibility)
-            for (boolean aBoolean : booleans) visCountNew += aBoolean ? 1 : 0;
-
-        visibility = gsOld.getVisibilityMap();
-        int visCountOld = 0;
-        for (boolean[] booleans : visibility)
-            for (boolean aBoolean : booleans) visCountOld += aBoolean ? 1 : 0;
+        int visCountNew = gsNew.getNumVisibleTiles();
+        int visCountOld = gsOld.getNumVisibleTiles();
 
 
         difference += (connections - gsOld.getTribe(playerID).getConnectedCities().size());
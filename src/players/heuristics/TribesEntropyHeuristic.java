@@ -44,15 +44,8 @@ public class TribesEntropyHeuristic implements StateHeuristic {
     private double scoreOwn(GameState gsOld, GameState gsNew)
     {
         int connections = gsNew.getTribe(playerID).getConnectedCities().size();
-        boolean [][] visibility = gsNew.getVisibilityMap();
-        int visCountNew = 0;
-        for (boolean[] booleans : visibility)
-            for (boolean aBoolean : booleans) visCountNew += aBoolean ? 1 : 0;
-
-        visibility = gsOld.getVisibilityMap();
-        int visCountOld = 0;
-        for (boolean[] booleans : visibility)
-            for (boolean aBoolean : booleans) visCountOld += aBoolean ? 1 : 0;
+        int visCountNew = gsNew.getNumVisibleTiles();
+        int visCountOld = gsOld.getNumVisibleTiles();
 
         double entropy = 0;
         entropy += connections > gsOld.getTribe(playerID).getConnectedCities().size() ? 1 : 0;
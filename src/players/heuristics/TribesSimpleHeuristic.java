@@ -45,17 +45,13 @@ public class TribesSimpleHeuristic implements StateHeuristic{
 
     private double viscPerc(GameState gameState)
     {
-        boolean [][] visibility = gameState.getVisibilityMap();
-        int visCount = 0;
-        for (boolean[] booleans : visibility)
-            for (boolean aBoolean : booleans) visCount += aBoolean ? 1 : 0;
-
-        return (double)visCount / (visibility.length*visibility[0].length);
+        int size = gameState.getBoard().getSize();
+        return (double)gameState.getNumVisibleTiles() / (size*size);
     }
 
     private double score(GameState gameState, int playerId)
     {
-        int numAvailableActions = gameState.getAllAvailableActions().size();
+        int numAvailableActions = gameState.getActionCount();
         int availableProduction = gameState.getTribeProduction(playerId);
         TechnologyTree tt = gameState.getTribeTechTree(playerId);
         int score = gameState.getScore(playerId);
@@ -6,4 +6,5 @@ public class MCParams extends AlgParams
 {
     public int ROLLOUT_LENGTH = 20;
     public int N_ROLLOUT_MULT = 3;
+    public int NUM_THREADS = 1;     //Workers running the rollouts of a decision in parallel.
 }
@@ -8,10 +8,13 @@ import core.game.GameState;
 import players.Agent;
 import players.heuristics.StateHeuristic;
 import utils.ElapsedCpuTimer;
+import utils.WorkerPool;
 import utils.stats.StatSummary;
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MonteCarloAgent extends Agent {
 
@@ -53,7 +56,6 @@ public class MonteCarloAgent extends Agent {
             return allActions.get(0); //EndTurn, it's possible.
 
         fmCalls = 0;
-        boolean end = false;
 
         //Take one type of action at random. With Prioritize Root == true, we focus only on one subset of actions for the root (see determineActionGroup)
         // otherwise, all actions are in the bag.
@@ -63,149 +65,240 @@ public class MonteCarloAgent extends Agent {
 
 
         params.num_iterations = rootActions.size() * params.N_ROLLOUT_MULT;
-        StatSummary[] scores = new StatSummary[rootActions.size()];
 
-        Action bestAction = null;
-        double maxQ = Double.NEGATIVE_INFINITY;
-        int nRollouts = 0;
-        while (!end)
-        {
-            int rootActionIndex = m_rnd.nextInt(rootActions.size());
-            Action act = rootActions.get(rootActionIndex);
+        if(params.NUM_THREADS > 1)
+            return parallelRollouts(gs, rootActions);
 
-            //Let's avoid unwanted EndTurn actions
-            while(act.getActionType() == Types.ACTION.END_TURN)
-            {
-                rootActionIndex = m_rnd.nextInt(rootActions.size());
-                act = rootActions.get(rootActionIndex);
-            }
+        RolloutWorker worker = new RolloutWorker(gs, m_rnd, heuristic, params.num_iterations, params.num_fmcalls, rootActions.size());
+        worker.run(rootActions);
+        fmCalls = worker.fmCalls.get();
 
-//            System.out.println("----- " + gs.getTick() + ":" + actionTurnCounter + ":" + nRollouts + " ------ " + gs.getActiveTribeID());
+//        System.out.println("[Tribe: " + playerID + "] Tick " +  gs.getTick() + ", num actions: " + rootActions.size() +
+//                ", FM calls: " + fmCalls + ". Executing " + bestAction.toString());
 
-            //Another rollout
-            double score = rollout(gs, act);
-            nRollouts++;
+        //Chosen action to play
+        return worker.bestAction;
+    }
 
-            //Update scores and keep a reference to the action with the highest average.
-            if(scores[rootActionIndex] == null)
-                scores[rootActionIndex] = new StatSummary();
+    /**
+     * Runs the rollouts of this decision in params.NUM_THREADS workers, and picks the action with the highest
+     * average score over the rollouts of all workers. Each worker has its own copy of the state, random generator
+     * (seeded from this agent's), heuristic and FM calls counter, and an equal share of the rollouts and FM calls
+     * budgets, so the result for a seed and number of workers doesn't depend on how the threads are scheduled.
+     * @param gs current game state.
+     * @param rootActions actions of the root.
+     * @return action to play.
+     */
+    private Action parallelRollouts(GameState gs, ArrayList<Action> rootActions)
+    {
+        int numWorkers = params.NUM_THREADS;
+        ArrayList<RolloutWorker> workers = new ArrayList<>();
+        ArrayList<Callable<RolloutWorker>> tasks = new ArrayList<>();
+        for(int i = 0; i < numWorkers; i++)
+        {
+            //Budgets are split evenly, the first workers take the remainder.
+            int rollouts = params.num_iterations / numWorkers + (i < params.num_iterations % numWorkers ? 1 : 0);
+            int calls = params.num_fmcalls / numWorkers + (i < params.num_fmcalls % numWorkers ? 1 : 0);
+            RolloutWorker worker = new RolloutWorker(gs.copy(), new Random(m_rnd.nextLong()),
+                    params.getStateHeuristic(playerID, allPlayerIDs), Math.max(rollouts, 1), calls, rootActions.size());
+            workers.add(worker);
+            tasks.add(() -> {
+                worker.run(rootActions);
+                return worker;
+            });
+        }
+        WorkerPool.forThreads(numWorkers).invokeAll(tasks);
 
-            scores[rootActionIndex].add(score);
-            if(scores[rootActionIndex].mean() > maxQ)
+        //Merge the scores of all workers, in order.
+        StatSummary[] scores = new StatSummary[rootActions.size()];
+        fmCalls = 0;
+        for(RolloutWorker worker : workers)
+        {
+            fmCalls += worker.fmCalls.get();
+            for(int i = 0; i < scores.length; i++)
             {
-                maxQ = scores[rootActionIndex].mean();
-                bestAction = act;
+                if(worker.scores[i] == null)
+                    continue;
+                if(scores[i] == null)
+                    scores[i] = new StatSummary();
+                scores[i].add(worker.scores[i]);
             }
-
-            //Stop conditions:
-            if(params.stop_type == params.STOP_FMCALLS && fmCalls >= params.num_fmcalls)
-                end = true;
-            if(params.stop_type == params.STOP_ITERATIONS && nRollouts >= params.num_iterations)
-                end = true;
         }
 
-//        System.out.println("[Tribe: " + playerID + "] Tick " +  gs.getTick() + ", num actions: " + rootActions.size() +
-//                ", FM calls: " + fmCalls + ". Executing " + bestAction.toString());
-
-        //Chosen action to play
+        Action bestAction = null;
+        double maxQ = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < scores.length; i++)
+        {
+            if(scores[i] != null && scores[i].mean() > maxQ)
+            {
+                maxQ = scores[i].mean();
+                bestAction = rootActions.get(i);
+            }
+        }
         return bestAction;
     }
 
-
     /**
-     * Executes a Monte Carlo rollout.
-     * @param gs current game state (a copy)
-     * @param act action to start the rollout with.
-     * @return the score of the state found at the end of the rollout, as evaluated by a heuristic
+     * Runs rollouts from a game state, keeping the scores of the root actions. Workers of a parallel decision
+     * don't share anything.
      */
-    private double rollout(GameState gs, Action act)
+    private class RolloutWorker
     {
-        GameState gsCopy = copyGameState(gs);
-        boolean end = false;
-        int step = 0;
-        int turnEndCountDown = params.FORCE_TURN_END; // We force an EndTurn action every FORCE_TURN_END actions in the rollout.
-        boolean run;
+        private GameState gs;               //State the rollouts start from, and reference of the heuristic.
+        private Random rnd;
+        private StateHeuristic heuristic;
+        private AtomicInteger fmCalls = new AtomicInteger();
+        private int rolloutsBudget, fmCallsBudget;
+
+        private StatSummary[] scores;       //Scores of each root action.
+        private Action bestAction;          //Root action with the highest average so far.
 
-        while(!end)
+        RolloutWorker(GameState gs, Random rnd, StateHeuristic heuristic, int rolloutsBudget, int fmCallsBudget, int numRootActions)
         {
-            run = true;
+            this.gs = gs;
+            this.rnd = rnd;
+            this.heuristic = heuristic;
+            this.rolloutsBudget = rolloutsBudget;
+            this.fmCallsBudget = fmCallsBudget;
+            this.scores = new StatSummary[numRootActions];
+        }
 
-            //If it's time to force a turn end, do it
-            if(turnEndCountDown == 0)
+        void run(ArrayList<Action> rootActions)
+        {
+            boolean end = false;
+            double maxQ = Double.NEGATIVE_INFINITY;
+            int nRollouts = 0;
+            while (!end)
             {
-                EndTurn endTurn = new EndTurn(gsCopy.getActiveTribeID());
-                boolean canEndTurn = endTurn.isFeasible(gsCopy);
+                int rootActionIndex = rnd.nextInt(rootActions.size());
+                Action act = rootActions.get(rootActionIndex);
 
-                if(canEndTurn) //check if we can actually end the turn (game may be expecting a non EndTurn action in Tribes).
+                //Let's avoid unwanted EndTurn actions
+                while(act.getActionType() == Types.ACTION.END_TURN)
                 {
-                    advance(gsCopy, endTurn, true);
-                    turnEndCountDown = params.FORCE_TURN_END;
-                    run = false;
+                    rootActionIndex = rnd.nextInt(rootActions.size());
+                    act = rootActions.get(rootActionIndex);
                 }
-            }
 
-            //Actually run the action
-            if(run)
-            {
-                advance(gsCopy, act, true);
-                turnEndCountDown--;
-            }
+//                System.out.println("----- " + gs.getTick() + ":" + actionTurnCounter + ":" + nRollouts + " ------ " + gs.getActiveTribeID());
+
+                //Another rollout
+                double score = rollout(act);
+                nRollouts++;
+
+                //Update scores and keep a reference to the action with the highest average.
+                if(scores[rootActionIndex] == null)
+                    scores[rootActionIndex] = new StatSummary();
+
+                scores[rootActionIndex].add(score);
+                if(scores[rootActionIndex].mean() > maxQ)
+                {
+                    maxQ = scores[rootActionIndex].mean();
+                    bestAction = act;
+                }
 
-            //Check if it's time to end this rollout. 1) either because it's a game end, 2) we've reached the end of it...
-            step++;
-            end = gsCopy.isGameOver() || (step == params.ROLLOUT_LENGTH);
+                //Stop conditions:
+                if(params.stop_type == params.STOP_FMCALLS && fmCalls.get() >= fmCallsBudget)
+                    end = true;
+                if(params.stop_type == params.STOP_ITERATIONS && nRollouts >= rolloutsBudget)
+                    end = true;
+            }
+        }
 
-            // ... or 3) we have no more thinking time available (agent's budget)
-            boolean budgetOver = (params.stop_type == params.STOP_FMCALLS && fmCalls >= params.num_fmcalls);
-            end |= budgetOver;
+        /**
+         * Executes a Monte Carlo rollout.
+         * @param act action to start the rollout with.
+         * @return the score of the state found at the end of the rollout, as evaluated by a heuristic
+         */
+        private double rollout(Action act)
+        {
+            GameState gsCopy = copyGameState(gs, rnd);
+            boolean end = false;
+            int step = 0;
+            int turnEndCountDown = params.FORCE_TURN_END; // We force an EndTurn action every FORCE_TURN_END actions in the rollout.
+            boolean run;
 
-            if(!end)
+            while(!end)
             {
-                //If we can continue, pick another action to run at random
-                ArrayList<Action> allActions = gsCopy.getAllAvailableActions();
-                int numActions = allActions.size();
-                if(numActions == 1) {
-                    //If there's only 1 action available, it should be an EndTurn
-                    act = allActions.get(0);
-                    if(act.getActionType() == Types.ACTION.END_TURN)
-                        turnEndCountDown = params.FORCE_TURN_END + 1;
-                    else
-                        System.out.println("Warning: Unexpected non-EndTurn action in MC player");
-
-                }else
+                run = true;
+
+                //If it's time to force a turn end, do it
+                if(turnEndCountDown == 0)
+                {
+                    EndTurn endTurn = new EndTurn(gsCopy.getActiveTribeID());
+                    boolean canEndTurn = endTurn.isFeasible(gsCopy);
+
+                    if(canEndTurn) //check if we can actually end the turn (game may be expecting a non EndTurn action in Tribes).
+                    {
+                        advance(gsCopy, endTurn, true);
+                        turnEndCountDown = params.FORCE_TURN_END;
+                        run = false;
+                    }
+                }
+
+                //Actually run the action
+                if(run)
                 {
-                    //If there are many actions, we select the next action for the rollout at random, avoiding EndTurn.
-                    do {
-                        int actIdx = m_rnd.nextInt(numActions);
-                        act = allActions.get(actIdx);
+                    advance(gsCopy, act, true);
+                    turnEndCountDown--;
+                }
+
+                //Check if it's time to end this rollout. 1) either because it's a game end, 2) we've reached the end of it...
+                step++;
+                end = gsCopy.isGameOver() || (step == params.ROLLOUT_LENGTH);
+
+                // ... or 3) we have no more thinking time available (agent's budget)
+                boolean budgetOver = (params.stop_type == params.STOP_FMCALLS && fmCalls.get() >= fmCallsBudget);
+                end |= budgetOver;
 
-                    }  while(act.getActionType() == Types.ACTION.END_TURN);
+                if(!end)
+                {
+                    //If we can continue, pick another action to run at random
+                    int numActions = gsCopy.getActionCount();
+                    if(numActions == 1) {
+                        //If there's only 1 action available, it should be an EndTurn
+                        act = gsCopy.getAction(0);
+                        if(act.getActionType() == Types.ACTION.END_TURN)
+                            turnEndCountDown = params.FORCE_TURN_END + 1;
+                        else
+                            System.out.println("Warning: Unexpected non-EndTurn action in MC player");
+
+                    }else
+                    {
+                        //If there are many actions, we select the next action for the rollout at random, avoiding EndTurn.
+                        do {
+                            int actIdx = rnd.nextInt(numActions);
+                            act = gsCopy.getAction(actIdx);
+
+                        }  while(act.getActionType() == Types.ACTION.END_TURN);
+                    }
                 }
             }
-        }
 
-        //We evaluate the state found at the end of the rollout with an heuristic.
-        return heuristic.evaluateState(gs, gsCopy);
-    }
+            //We evaluate the state found at the end of the rollout with an heuristic.
+            return heuristic.evaluateState(gs, gsCopy);
+        }
 
-    /**
-     * Wrapper for advancing the game state. Updates the count of Forward Model usages.
-     * @param gs game state to advance
-     * @param act action to advance it with.
-     * @param computeActions true if the game state should compute the available actions after advancing the state.
-     */
-    private void advance(GameState gs, Action act, boolean computeActions)
-    {
-        gs.advance(act, computeActions);
-        fmCalls++;
+        /**
+         * Wrapper for advancing the game state. Updates the count of Forward Model usages.
+         * @param gs game state to advance
+         * @param act action to advance it with.
+         * @param computeActions true if the game state should compute the available actions after advancing the state.
+         */
+        private void advance(GameState gs, Action act, boolean computeActions)
+        {
+            gs.advance(act, computeActions);
+            fmCalls.incrementAndGet();
+        }
     }
 
     /**
      * The technology trees of the opponents are always empty (no technology is researched).
      * As a simple case of gamestate injection, we research N technologies (N=turn/2) for them
      * @param gs current game state.
+     * @param rnd random generator to pick the technologies.
      */
-    private void initTribesResearch(GameState gs)
+    private void initTribesResearch(GameState gs, Random rnd)
     {
         int turn = gs.getTick();
         int techsToResearch = (int) (turn / 2.0);
@@ -214,15 +307,20 @@ public class MonteCarloAgent extends Agent {
             if(t.getTribeId() != this.playerID)
             {
                 for(int i = 0; i < techsToResearch; ++i)
-                    t.getTechTree().researchAtRandom(this.m_rnd);
+                    t.getTechTree().researchAtRandom(rnd);
             }
         }
     }
 
     public GameState copyGameState(GameState gs)
+    {
+        return copyGameState(gs, m_rnd);
+    }
+
+    private GameState copyGameState(GameState gs, Random rnd)
     {
         GameState gsCopy = gs.copy();
-        initTribesResearch(gsCopy);
+        initTribesResearch(gsCopy, rnd);
         return gsCopy;
     }
 
@@ -13,6 +13,11 @@ public class MCTSParams extends AlgParams {
     public double K = Math.sqrt(2);
     public int ROLLOUT_LENGTH = 10;//10;
     public boolean ROLOUTS_ENABLED = true;
+    public boolean TRANSPOSITIONS = false;            //Merge nodes with the same game state into a DAG.
+    public int TRANSPOSITION_TABLE_SIZE = 20000;      //Max nodes indexed for transpositions (LRU replacement).
+    public int NUM_THREADS = 1;                       //Threads of the search (not with TRANSPOSITIONS).
+    public boolean TREE_PARALLEL = false;             //With NUM_THREADS > 1, threads grow a single tree instead of one tree each.
+    public double VIRTUAL_LOSS = 1.0;                 //Losses added to a node per thread with it in its current path (TREE_PARALLEL).
 
     public void setParameterValue(String param, Object value) {
         switch(param) {
@@ -6,9 +6,11 @@ import core.game.Game;
 import core.game.GameState;
 import players.Agent;
 import utils.ElapsedCpuTimer;
+import utils.WorkerPool;
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import static core.Constants.TURN_TIME_MILLIS;
 
@@ -17,6 +19,9 @@ public class MCTSPlayer extends Agent {
     private Random m_rnd;
     private MCTSParams params;
 
+    //Iterations per second of each thread in the last parallel search.
+    private double[] iterationsPerSecond = new double[0];
+
     public MCTSPlayer(long seed)
     {
         super(seed);
@@ -40,6 +45,18 @@ public class MCTSPlayer extends Agent {
         if(rootActions == null)
             return new EndTurn();
 
+        if(params.TRANSPOSITIONS)
+        {
+            TranspositionTreeNode m_root = new TranspositionTreeNode(params, m_rnd, rootActions.size(), rootActions, this.playerID);
+            m_root.setRootGameState(m_root, gs, allPlayerIDs);
+            m_root.mctsSearch(ect);
+            return rootActions.get(m_root.mostVisitedAction());
+        }
+
+        if(params.NUM_THREADS > 1)
+            return rootActions.get(params.TREE_PARALLEL ? treeParallelSearch(gs, ect, rootActions)
+                    : rootParallelSearch(gs, ect, rootActions));
+
         SingleTreeNode m_root = new SingleTreeNode(params, m_rnd, rootActions.size(), rootActions, this.playerID);
         m_root.setRootGameState(m_root, gs, allPlayerIDs);
 
@@ -50,6 +67,89 @@ public class MCTSPlayer extends Agent {
     }
 
 
+    /**
+     * Searches params.NUM_THREADS independent trees from the root in parallel, and selects the most visited
+     * action adding up the visits of all trees. Each tree has its own copy of the state and random generator,
+     * the same time budget, and an equal share of the iteration and FM calls budgets.
+     * @param gs current game state.
+     * @param ect timer of this decision.
+     * @param rootActions actions of the root.
+     * @return index of the action selected in rootActions.
+     */
+    private int rootParallelSearch(GameState gs, ElapsedCpuTimer ect, ArrayList<Action> rootActions)
+    {
+        int numTrees = params.NUM_THREADS;
+        long remaining = ect.remainingTimeMillis();
+        SingleTreeNode[] roots = new SingleTreeNode[numTrees];
+        ArrayList<Callable<Double>> searches = new ArrayList<>();
+        for(int i = 0; i < numTrees; i++)
+        {
+            //Copies are made here: copying a state is not safe while other threads copy it too.
+            SingleTreeNode root = new SingleTreeNode(params, new Random(m_rnd.nextLong()), rootActions.size(), rootActions, this.playerID);
+            root.setRootGameState(root, gs.copy(), allPlayerIDs);
+            roots[i] = root;
+            searches.add(() -> {
+                //The timer is created in the worker, as it may measure the CPU time of its thread.
+                ElapsedCpuTimer timer = new ElapsedCpuTimer(ect.getClock());
+                timer.setMaxTimeMillis(remaining);
+                long start = System.nanoTime();
+                int iterations = root.mctsSearch(timer, numTrees);
+                return iterations * 1e9 / Math.max(System.nanoTime() - start, 1);
+            });
+        }
+
+        ArrayList<Double> ips = WorkerPool.forThreads(numTrees).invokeAll(searches);
+        iterationsPerSecond = new double[numTrees];
+        for(int i = 0; i < numTrees; i++)
+            iterationsPerSecond[i] = ips.get(i);
+
+        return SingleTreeNode.mostVisitedAction(roots);
+    }
+
+    /**
+     * Grows a single tree from the root with params.NUM_THREADS threads, and selects its most visited action.
+     * Each thread has its own random generator, heuristic and copy of the root state as the reference of the
+     * heuristic, and the same time budget. The iteration and FM calls budgets are shared by all threads.
+     * @param gs current game state.
+     * @param ect timer of this decision.
+     * @param rootActions actions of the root.
+     * @return index of the action selected in rootActions.
+     */
+    private int treeParallelSearch(GameState gs, ElapsedCpuTimer ect, ArrayList<Action> rootActions)
+    {
+        int numThreads = params.NUM_THREADS;
+        long remaining = ect.remainingTimeMillis();
+        ParallelTreeNode root = new ParallelTreeNode(params, rootActions.size(), rootActions, this.playerID, gs.copy());
+        ArrayList<Callable<Double>> searches = new ArrayList<>();
+        for(int i = 0; i < numThreads; i++)
+        {
+            ParallelTreeNode.Worker worker = new ParallelTreeNode.Worker(new Random(m_rnd.nextLong()),
+                    params.getStateHeuristic(playerID, allPlayerIDs), gs.copy());
+            searches.add(() -> {
+                ElapsedCpuTimer timer = new ElapsedCpuTimer(ect.getClock());
+                timer.setMaxTimeMillis(remaining);
+                long start = System.nanoTime();
+                int iterations = root.mctsSearch(timer, worker);
+                return iterations * 1e9 / Math.max(System.nanoTime() - start, 1);
+            });
+        }
+
+        ArrayList<Double> ips = WorkerPool.forThreads(numThreads).invokeAll(searches);
+        iterationsPerSecond = new double[numThreads];
+        for(int i = 0; i < numThreads; i++)
+            iterationsPerSecond[i] = ips.get(i);
+
+        return root.mostVisitedAction(m_rnd);
+    }
+
+    /**
+     * Returns the iterations per second achieved by each thread in the last parallel search.
+     * @return iterations per second of each thread, empty if no parallel search has been run.
+     */
+    public double[] getIterationsPerSecond() {
+        return iterationsPerSecond;
+    }
+
     @Override
     public Agent copy() {
         return null;
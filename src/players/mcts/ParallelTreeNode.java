@@ -0,0 +1,437 @@
+package players.mcts;
+
+import core.actions.Action;
+import core.actions.tribeactions.EndTurn;
+import core.game.GameState;
+import players.heuristics.StateHeuristic;
+import utils.ElapsedCpuTimer;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static core.Types.ACTION.*;
+
+/**
+ * Node of an MCTS tree grown by several threads at the same time (tree parallelization). Statistics of the nodes
+ * are updated with atomic operations, and children are expanded with a compare-and-set: if two threads expand the
+ * same child, the first one wins and the other one continues from it. Threads in the middle of an iteration add a
+ * virtual loss to the nodes of their path, so others are steered towards different paths.
+ * Each thread has its own random generator, heuristic and reference state (see Worker). The game states of the
+ * nodes are only copied, one thread at a time.
+ */
+class ParallelTreeNode
+{
+    private MCTSParams params;
+
+    private ParallelTreeNode root;
+    private ParallelTreeNode parent;
+    private AtomicReferenceArray<ParallelTreeNode> children;
+    private AtomicInteger numExpanded = new AtomicInteger();
+    private AtomicLong totValue = new AtomicLong(Double.doubleToRawLongBits(0.0));     //Bits of a double.
+    private AtomicInteger nVisits = new AtomicInteger();
+    private AtomicInteger virtualLosses = new AtomicInteger();  //Threads with this node in their current path.
+    private AtomicLong[] bounds = new AtomicLong[]{new AtomicLong(Double.doubleToRawLongBits(Double.MAX_VALUE)),
+            new AtomicLong(Double.doubleToRawLongBits(-Double.MAX_VALUE))};
+    private int m_depth;
+    private int playerID;
+
+    private ArrayList<Action> actions;
+    private GameState state;
+
+    //Properties of the state, computed when the node is created.
+    private boolean gameOver;
+    private int forceEndAction;
+    private boolean playerMoving;
+
+    //Shared budget of the search, only used by the root.
+    private AtomicInteger fmCallsCount;
+    private AtomicInteger iterations;
+
+    //From MCTSPlayer
+    ParallelTreeNode(MCTSParams p, int num_actions, ArrayList<Action> actions, int playerID, GameState gs) {
+        this(p, null, num_actions, actions, playerID, null, gs);
+        this.root = this;
+        this.fmCallsCount = new AtomicInteger();
+        this.iterations = new AtomicInteger();
+    }
+
+    private ParallelTreeNode(MCTSParams p, ParallelTreeNode parent, int num_actions, ArrayList<Action> actions,
+                             int playerID, ParallelTreeNode root, GameState state) {
+        this.params = p;
+        this.parent = parent;
+        this.actions = actions;
+        this.root = root;
+        this.children = new AtomicReferenceArray<>(num_actions);
+        this.playerID = playerID;
+        this.state = state;
+        this.m_depth = parent != null ? parent.m_depth + 1 : 0;
+        this.gameOver = state.isGameOver();
+        this.forceEndAction = tryForceEnd(state, new EndTurn(state.getActiveTribeID()), m_depth);
+        this.playerMoving = state.getActiveTribeID() == playerID;
+    }
+
+    /**
+     * Per-thread data of the search: a thread must not share these with others.
+     */
+    static class Worker
+    {
+        private Random rnd;
+        private StateHeuristic heuristic;
+        private GameState referenceState;
+        private boolean expanded;   //Indicates if the last call to expand() created a node.
+
+        /**
+         * @param rnd random generator of the thread.
+         * @param heuristic heuristic used to evaluate the states reached.
+         * @param referenceState copy of the root state, as the reference of the heuristic.
+         */
+        Worker(Random rnd, StateHeuristic heuristic, GameState referenceState)
+        {
+            this.rnd = rnd;
+            this.heuristic = heuristic;
+            this.referenceState = referenceState;
+        }
+    }
+
+    /**
+     * Runs iterations on the tree of this root until the budget runs out. May be called by several threads at
+     * the same time, each one with its own worker and timer. Iterations and FM calls budgets are shared by all
+     * threads, the time budget is given by the timer of each one.
+     * @param elapsedTimer timer of this thread.
+     * @param w data of this thread.
+     * @return number of iterations run by this thread.
+     */
+    int mctsSearch(ElapsedCpuTimer elapsedTimer, Worker w) {
+        int numIters = 0;
+
+        int remainingLimit = 5;
+        boolean stop = false;
+        elapsedTimer.startIterations(params.time_check_period);
+
+        while(!stop){
+            if(params.stop_type == params.STOP_ITERATIONS && iterations.getAndIncrement() >= params.num_iterations)
+                break;
+
+            ParallelTreeNode selected = treePolicy(w);
+            double delta = selected.rollOut(w);
+            backUp(selected, delta);
+            numIters++;
+
+            //Stopping condition
+            if(params.stop_type == params.STOP_TIME) {
+                elapsedTimer.endIteration();
+                stop = !elapsedTimer.enoughBudgetIteration(remainingLimit);
+            }else if(params.stop_type == params.STOP_FMCALLS)
+            {
+                stop = fmCallsCount.get() > params.num_fmcalls;
+            }
+        }
+        return numIters;
+    }
+
+    private ParallelTreeNode treePolicy(Worker w) {
+
+        ParallelTreeNode cur = this;
+        cur.virtualLosses.incrementAndGet();
+
+        while (!cur.gameOver && cur.m_depth < params.ROLLOUT_LENGTH)
+        {
+            w.expanded = false;
+            ParallelTreeNode next = cur.notFullyExpanded() ? cur.expand(w) : cur.uct(w);
+            next.virtualLosses.incrementAndGet();
+            if (w.expanded)
+                return next;
+            cur = next;
+        }
+
+        return cur;
+    }
+
+    private int tryForceEnd(GameState state, EndTurn endTurn, int depth)
+    {
+        boolean willForceEnd = (depth > 0 && (depth % params.FORCE_TURN_END) == 0) && endTurn.isFeasible(state);
+        if(!willForceEnd)
+            return -1; //Not the time, or not available.
+
+        ArrayList<Action> availableActions = state.getAllAvailableActions();
+        int actionIdx = 0;
+        while(actionIdx < availableActions.size())
+        {
+            Action act = availableActions.get(actionIdx);
+            if(act.getActionType() == END_TURN)
+            {
+                //Here's the end turn, return it's index.
+                return actionIdx;
+            }else actionIdx++;
+        }
+
+        //This should not happen, but EndTurn is not available here.
+        return -1;
+    }
+
+    /**
+     * Expands a child of this node, or returns the child if another thread expanded it first.
+     * @param w data of this thread, where it's indicated if a node was created.
+     * @return the child.
+     */
+    private ParallelTreeNode expand(Worker w) {
+
+        int bestAction = forceEndAction;
+        if(bestAction == -1)
+        {
+            //No turn end, expand
+            double bestValue = -1;
+
+            for (int i = 0; i < children.length(); i++) {
+                double x = w.rnd.nextDouble();
+                if (x > bestValue && children.get(i) == null) {
+                    bestAction = i;
+                    bestValue = x;
+                }
+            }
+        }
+
+        if(bestAction == -1)
+            return uct(w);   //All children were expanded by other threads in the meantime.
+
+        ParallelTreeNode existing = children.get(bestAction);
+        if(existing != null)
+            return existing;   //Expanded by another thread in the meantime.
+
+        //Roll the state, create a new node and try to assign it.
+        GameState nextState = copyState();
+        ArrayList<Action> availableActions = m_depth == 0 && params.PRIORITIZE_ROOT ? actions : nextState.getAllAvailableActions();
+        ArrayList<Action> nextActions = advance(nextState, availableActions.get(bestAction));
+        ParallelTreeNode tn = new ParallelTreeNode(params, this, nextActions.size(), null, playerID, root, nextState);
+        if(children.compareAndSet(bestAction, null, tn))
+        {
+            numExpanded.incrementAndGet();
+            w.expanded = true;
+            return tn;
+        }
+        return children.get(bestAction);
+    }
+
+    private ArrayList<Action> advance(GameState gs, Action act)
+    {
+        gs.advance(act, true);
+        root.fmCallsCount.incrementAndGet();
+        return gs.getAllAvailableActions();
+    }
+
+    /**
+     * Copies the state of this node. Copies of a state are made one at a time, as copying writes on the
+     * copy-on-write flags of the state copied.
+     * @return a copy of the state of this node.
+     */
+    private GameState copyState()
+    {
+        synchronized (this)
+        {
+            return state.copy();
+        }
+    }
+
+    private ParallelTreeNode uct(Worker w) {
+
+        ParallelTreeNode selected;
+        int bestAction = forceEndAction;
+        if(bestAction == -1)
+        {
+            //No end turn, use uct. Each virtual loss counts as a visit with the worst value for the player moving.
+            double lowerBound = Double.longBitsToDouble(bounds[0].get());
+            double upperBound = Double.longBitsToDouble(bounds[1].get());
+            double lossValue = playerMoving ? Math.min(lowerBound, 0) : Math.max(upperBound, 1);
+            int parentVisits = nVisits.get() + virtualLosses.get();
+
+            int which = -1;
+            double bestValue = playerMoving ? -Double.MAX_VALUE : Double.MAX_VALUE;
+            for(int i = 0; i < children.length(); ++i)
+            {
+                ParallelTreeNode child = children.get(i);
+
+                double losses = child.virtualLosses.get() * params.VIRTUAL_LOSS;
+                double childVisits = child.nVisits.get() + losses;
+                double hvVal = Double.longBitsToDouble(child.totValue.get()) + losses * lossValue;
+                double childValue =  hvVal / (childVisits + params.epsilon);
+                childValue = normalise(childValue, lowerBound, upperBound);
+
+                double uctValue = childValue +
+                        params.K * Math.sqrt(Math.log(parentVisits + 1) / (childVisits + params.epsilon));
+
+                uctValue = noise(uctValue, params.epsilon, w.rnd.nextDouble());     //break ties randomly
+                if ((playerMoving && uctValue > bestValue) || (!playerMoving && uctValue < bestValue)){
+                    which = i;
+                    bestValue = uctValue;
+                }
+            }
+
+            if (which == -1)
+                which = w.rnd.nextInt(children.length());
+
+            selected = children.get(which);
+        }else
+        {
+            selected = children.get(bestAction);
+        }
+
+        //Closed loop, as in SingleTreeNode: the state is not advanced.
+        root.fmCallsCount.incrementAndGet();
+
+        return selected;
+    }
+
+    private double rollOut(Worker w)
+    {
+        if(params.ROLOUTS_ENABLED) {
+            GameState rolloutState = copyState();
+            int thisDepth = this.m_depth;
+            while (!finishRollout(rolloutState, thisDepth)) {
+                EndTurn endTurn = new EndTurn(rolloutState.getActiveTribeID());
+                int bestAction = tryForceEnd(rolloutState, endTurn, thisDepth);
+                Action next = (bestAction != -1) ? endTurn : rolloutState.getAction(w.rnd.nextInt(rolloutState.getActionCount()));
+                advance(rolloutState, next);
+                thisDepth++;
+            }
+            return normalise(w.heuristic.evaluateState(w.referenceState, rolloutState), 0, 1);
+        }
+
+        return normalise(w.heuristic.evaluateState(w.referenceState, copyState()), 0, 1);
+    }
+
+    private boolean finishRollout(GameState rollerState, int depth)
+    {
+        if (depth >= params.ROLLOUT_LENGTH)      //rollout end condition.
+            return true;
+
+        //end of game
+        return rollerState.isGameOver();
+    }
+
+
+    private void backUp(ParallelTreeNode node, double result)
+    {
+        ParallelTreeNode n = node;
+        while(n != null)
+        {
+            n.nVisits.incrementAndGet();
+            n.virtualLosses.decrementAndGet();
+            addDouble(n.totValue, result);
+            updateBound(n.bounds[0], result, true);
+            updateBound(n.bounds[1], result, false);
+            n = n.parent;
+        }
+    }
+
+    private static void addDouble(AtomicLong bits, double value)
+    {
+        long cur;
+        do {
+            cur = bits.get();
+        } while (!bits.compareAndSet(cur, Double.doubleToRawLongBits(Double.longBitsToDouble(cur) + value)));
+    }
+
+    private static void updateBound(AtomicLong bits, double value, boolean lower)
+    {
+        long cur;
+        while (true) {
+            cur = bits.get();
+            double bound = Double.longBitsToDouble(cur);
+            if ((lower && value >= bound) || (!lower && value <= bound))
+                return;
+            if (bits.compareAndSet(cur, Double.doubleToRawLongBits(value)))
+                return;
+        }
+    }
+
+    /**
+     * Selects the most visited action of the root. Must be called once all threads have finished.
+     * @param rnd random generator to break ties.
+     * @return index of the action selected.
+     */
+    int mostVisitedAction(Random rnd) {
+        int selected = -1;
+        double bestValue = -Double.MAX_VALUE;
+        boolean allEqual = true;
+        double first = -1;
+
+        for (int i=0; i<children.length(); i++) {
+            ParallelTreeNode child = children.get(i);
+            if(child != null)
+            {
+                if(first == -1)
+                    first = child.nVisits.get();
+                else if(first != child.nVisits.get())
+                {
+                    allEqual = false;
+                }
+
+                double childValue = child.nVisits.get();
+                childValue = noise(childValue, params.epsilon, rnd.nextDouble());     //break ties randomly
+                if (childValue > bestValue) {
+                    bestValue = childValue;
+                    selected = i;
+                }
+            }
+        }
+
+        if (selected == -1)
+        {
+            selected = 0;
+        }else if(allEqual)
+        {
+            //If all are equal, we opt to choose for the one with the best Q.
+            selected = bestAction(rnd);
+        }
+
+        return selected;
+    }
+
+    private int bestAction(Random rnd)
+    {
+        int selected = -1;
+        double bestValue = -Double.MAX_VALUE;
+
+        for (int i=0; i<children.length(); i++) {
+            ParallelTreeNode child = children.get(i);
+            if(child != null) {
+                double childValue = Double.longBitsToDouble(child.totValue.get()) / (child.nVisits.get() + params.epsilon);
+                childValue = noise(childValue, params.epsilon, rnd.nextDouble());     //break ties randomly
+                if (childValue > bestValue) {
+                    bestValue = childValue;
+                    selected = i;
+                }
+            }
+        }
+
+        if (selected == -1)
+        {
+            System.out.println("Unexpected selection!");
+            selected = 0;
+        }
+
+        return selected;
+    }
+
+
+    private boolean notFullyExpanded() {
+        return numExpanded.get() < children.length();
+    }
+
+    private double normalise(double a_value, double a_min, double a_max)
+    {
+        if(a_min < a_max)
+            return (a_value - a_min)/(a_max - a_min);
+        else    // if bounds are invalid, then return same value
+            return a_value;
+    }
+
+    private double noise(double input, double epsilon, double random)
+    {
+        return (input + epsilon) * (1.0 + epsilon * (random - 0.5));
+    }
+
+}
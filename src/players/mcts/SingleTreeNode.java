@@ -68,18 +68,27 @@ class SingleTreeNode
 
 
     void mctsSearch(ElapsedCpuTimer elapsedTimer) {
+        mctsSearch(elapsedTimer, 1);
+    }
 
-        double avgTimeTaken;
-        double acumTimeTaken = 0;
-        long remaining;
+    /**
+     * Searches from this root until the budget runs out.
+     * @param elapsedTimer timer of the search.
+     * @param numTrees number of trees searched in parallel from the same root, that share the iteration and FM
+     *                 calls budgets. The time budget is not shared.
+     * @return number of iterations of the search.
+     */
+    int mctsSearch(ElapsedCpuTimer elapsedTimer, int numTrees) {
         int numIters = 0;
+        int iterationsBudget = (params.num_iterations + numTrees - 1) / numTrees;
+        int fmCallsBudget = params.num_fmcalls / numTrees;
 
         int remainingLimit = 5;
         boolean stop = false;
+        elapsedTimer.startIterations(params.time_check_period);
 
         while(!stop){
 //            System.out.println("------- " + root.actions.size() + " -------");
-            ElapsedCpuTimer elapsedTimerIteration = new ElapsedCpuTimer();
             SingleTreeNode selected = treePolicy();
             double delta = selected.rollOut();
             backUp(selected, delta);
@@ -87,17 +96,16 @@ class SingleTreeNode
 
             //Stopping condition
             if(params.stop_type == params.STOP_TIME) {
-                acumTimeTaken += (elapsedTimerIteration.elapsedMillis()) ;
-                avgTimeTaken  = acumTimeTaken/numIters;
-                remaining = elapsedTimer.remainingTimeMillis();
-                stop = remaining <= 2 * avgTimeTaken || remaining <= remainingLimit;
+                elapsedTimer.endIteration();
+                stop = !elapsedTimer.enoughBudgetIteration(remainingLimit);
             }else if(params.stop_type == params.STOP_ITERATIONS) {
-                stop = numIters >= params.num_iterations;
+                stop = numIters >= iterationsBudget;
             }else if(params.stop_type == params.STOP_FMCALLS)
             {
-                stop = fmCallsCount > params.num_fmcalls;
+                stop = fmCallsCount > fmCallsBudget;
             }
         }
+        return numIters;
     }
 
     private SingleTreeNode treePolicy() {
@@ -253,7 +261,7 @@ class SingleTreeNode
             while (!finishRollout(rolloutState, thisDepth)) {
                 EndTurn endTurn = new EndTurn(rolloutState.getActiveTribeID());
                 int bestAction = tryForceEnd(rolloutState, endTurn, thisDepth);
-                Action next = (bestAction != -1) ? endTurn : rolloutState.getAllAvailableActions().get(m_rnd.nextInt(rolloutState.getAllAvailableActions().size()));
+                Action next = (bestAction != -1) ? endTurn : rolloutState.getAction(m_rnd.nextInt(rolloutState.getActionCount()));
                 advance(rolloutState, next, true);
                 thisDepth++;
             }
@@ -292,23 +300,52 @@ class SingleTreeNode
 
 
     int mostVisitedAction() {
+        return mostVisitedAction(new SingleTreeNode[]{this});
+    }
+
+    /**
+     * Selects the most visited action of a root, adding up the visits and values of its children in several
+     * trees searched from the same root (root parallelization).
+     * @param roots roots of the trees, with the same actions. Ties are broken with the generator of the first one.
+     * @return index of the action selected.
+     */
+    static int mostVisitedAction(SingleTreeNode[] roots) {
+        SingleTreeNode first = roots[0];
+        int numActions = first.children.length;
+        boolean[] expanded = new boolean[numActions];
+        int[] visits = new int[numActions];
+        double[] values = new double[numActions];
+        for (SingleTreeNode root : roots) {
+            for (int i = 0; i < numActions; i++) {
+                SingleTreeNode child = root.children[i];
+                if (child != null) {
+                    expanded[i] = true;
+                    visits[i] += child.nVisits;
+                    values[i] += child.totValue;
+                }
+            }
+        }
+        return first.mostVisitedAction(expanded, visits, values);
+    }
+
+    private int mostVisitedAction(boolean[] expanded, int[] visits, double[] values) {
         int selected = -1;
         double bestValue = -Double.MAX_VALUE;
         boolean allEqual = true;
         double first = -1;
 
-        for (int i=0; i<children.length; i++) {
+        for (int i=0; i<expanded.length; i++) {
 
-            if(children[i] != null)
+            if(expanded[i])
             {
                 if(first == -1)
-                    first = children[i].nVisits;
-                else if(first != children[i].nVisits)
+                    first = visits[i];
+                else if(first != visits[i])
                 {
                     allEqual = false;
                 }
 
-                double childValue = children[i].nVisits;
+                double childValue = visits[i];
                 childValue = noise(childValue, params.epsilon, this.m_rnd.nextDouble());     //break ties randomly
                 if (childValue > bestValue) {
                     bestValue = childValue;
@@ -323,21 +360,21 @@ class SingleTreeNode
         }else if(allEqual)
         {
             //If all are equal, we opt to choose for the one with the best Q.
-            selected = bestAction();
+            selected = bestAction(expanded, visits, values);
         }
 
         return selected;
     }
 
-    private int bestAction()
+    private int bestAction(boolean[] expanded, int[] visits, double[] values)
     {
         int selected = -1;
         double bestValue = -Double.MAX_VALUE;
 
-        for (int i=0; i<children.length; i++) {
+        for (int i=0; i<expanded.length; i++) {
 
-            if(children[i] != null) {
-                double childValue = children[i].totValue / (children[i].nVisits + params.epsilon);
+            if(expanded[i]) {
+                double childValue = values[i] / (visits[i] + params.epsilon);
                 childValue = noise(childValue, params.epsilon, this.m_rnd.nextDouble());     //break ties randomly
                 if (childValue > bestValue) {
                     bestValue = childValue;
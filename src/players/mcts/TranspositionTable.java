@@ -0,0 +1,57 @@
+package players.mcts;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded table of search nodes, indexed by a hash of their game state and depth. When full, the least
+ * recently used node is replaced. Replaced nodes stay in the graph (their parents keep them as children),
+ * but new transpositions to them can't be found anymore.
+ */
+class TranspositionTable
+{
+    // Nodes in the table, in access order (least recently used first).
+    private LinkedHashMap<Long, TranspositionTreeNode> nodes;
+
+    /**
+     * Creates a transposition table
+     * @param capacity maximum number of nodes in the table.
+     */
+    TranspositionTable(final int capacity)
+    {
+        nodes = new LinkedHashMap<Long, TranspositionTreeNode>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, TranspositionTreeNode> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets a node from the table, marking it as recently used.
+     * @param key hash of the node.
+     * @return the node, null if not in the table.
+     */
+    TranspositionTreeNode get(long key)
+    {
+        return nodes.get(key);
+    }
+
+    /**
+     * Adds a node to the table, replacing the least recently used node if the table is full.
+     * @param key hash of the node.
+     * @param node node to add.
+     */
+    void put(long key, TranspositionTreeNode node)
+    {
+        nodes.put(key, node);
+    }
+
+    /**
+     * Returns the number of nodes in the table.
+     */
+    int size()
+    {
+        return nodes.size();
+    }
+}
@@ -0,0 +1,373 @@
+package players.mcts;
+
+import core.actions.Action;
+import core.actions.tribeactions.EndTurn;
+import core.game.GameState;
+import players.heuristics.StateHeuristic;
+import utils.ElapsedCpuTimer;
+import utils.Zobrist;
+
+import java.util.ArrayList;
+import java.util.Random;
+import static core.Types.ACTION.*;
+
+/**
+ * Node of an MCTS search that merges transpositions: game states reached at the same depth through different
+ * sequences of actions (i.e. the same units moved in a different order) share a single node, found through a
+ * transposition table indexed by the hash of the state. The search builds a directed acyclic graph, and visits
+ * and values are backed up along the path followed in each iteration.
+ */
+class TranspositionTreeNode
+{
+    private MCTSParams params;
+
+    private TranspositionTreeNode root;
+    private TranspositionTreeNode[] children;
+    private double totValue;
+    private int nVisits;
+    private Random m_rnd;
+    private int m_depth;
+    private double[] bounds = new double[]{Double.MAX_VALUE, -Double.MAX_VALUE};
+    private int fmCallsCount;
+    private int playerID;
+
+    private ArrayList<Action> actions;
+    private GameState state;
+
+    private GameState rootState;
+    private StateHeuristic rootStateHeuristic;
+
+    //Transposition table, only used by the root.
+    private TranspositionTable table;
+
+    //From MCTSPlayer
+    TranspositionTreeNode(MCTSParams p, Random rnd, int num_actions, ArrayList<Action> actions, int playerID) {
+        this(p, rnd, num_actions, actions, null, playerID, null, null, 0);
+    }
+
+    private TranspositionTreeNode(MCTSParams p, Random rnd, int num_actions, ArrayList<Action> actions,
+                                  StateHeuristic sh, int playerID, TranspositionTreeNode root, GameState state, int depth) {
+        this.params = p;
+        this.fmCallsCount = 0;
+        this.m_rnd = rnd;
+        this.actions = actions;
+        this.root = root;
+        children = new TranspositionTreeNode[num_actions];
+        totValue = 0.0;
+        this.playerID = playerID;
+        this.state = state;
+        this.m_depth = depth;
+        this.rootStateHeuristic = sh;
+    }
+
+    void setRootGameState(TranspositionTreeNode root, GameState gs, ArrayList<Integer> allIDs)
+    {
+        this.state = gs;
+        this.root = root;
+        this.rootState = gs;
+        this.rootStateHeuristic = params.getStateHeuristic(playerID, allIDs);
+        this.table = new TranspositionTable(params.TRANSPOSITION_TABLE_SIZE);
+        this.table.put(key(gs, 0), this);
+    }
+
+
+    void mctsSearch(ElapsedCpuTimer elapsedTimer) {
+        int numIters = 0;
+
+        int remainingLimit = 5;
+        boolean stop = false;
+        elapsedTimer.startIterations(params.time_check_period);
+        ArrayList<TranspositionTreeNode> path = new ArrayList<>();
+
+        while(!stop){
+            path.clear();
+            TranspositionTreeNode selected = treePolicy(path);
+            double delta = selected.rollOut();
+            backUp(path, delta);
+            numIters++;
+
+            //Stopping condition
+            if(params.stop_type == params.STOP_TIME) {
+                elapsedTimer.endIteration();
+                stop = !elapsedTimer.enoughBudgetIteration(remainingLimit);
+            }else if(params.stop_type == params.STOP_ITERATIONS) {
+                stop = numIters >= params.num_iterations;
+            }else if(params.stop_type == params.STOP_FMCALLS)
+            {
+                stop = fmCallsCount > params.num_fmcalls;
+            }
+        }
+    }
+
+    /**
+     * Selects the node to roll out from, adding all the nodes traversed (this one included) to path.
+     */
+    private TranspositionTreeNode treePolicy(ArrayList<TranspositionTreeNode> path) {
+
+        TranspositionTreeNode cur = this;
+        path.add(cur);
+
+        while (!cur.state.isGameOver() && cur.m_depth < params.ROLLOUT_LENGTH)
+        {
+            if (cur.notFullyExpanded()) {
+                cur = cur.expand();
+                path.add(cur);
+                return cur;
+
+            } else {
+                cur = cur.uct();
+                path.add(cur);
+            }
+        }
+
+        return cur;
+    }
+
+    private int tryForceEnd(GameState state, EndTurn endTurn, int depth)
+    {
+        boolean willForceEnd = (depth > 0 && (depth % params.FORCE_TURN_END) == 0) && endTurn.isFeasible(state);
+        if(!willForceEnd)
+            return -1; //Not the time, or not available.
+
+        ArrayList<Action> availableActions = state.getAllAvailableActions();
+        for(int actionIdx = 0; actionIdx < availableActions.size(); actionIdx++)
+        {
+            if(availableActions.get(actionIdx).getActionType() == END_TURN)
+                return actionIdx;
+        }
+
+        //This should not happen, but EndTurn is not available here.
+        return -1;
+    }
+
+    private TranspositionTreeNode expand() {
+
+        int bestAction = tryForceEnd(state, new EndTurn(state.getActiveTribeID()), this.m_depth);
+        if(bestAction == -1)
+        {
+            //No turn end, expand
+            double bestValue = -1;
+
+            for (int i = 0; i < children.length; i++) {
+                double x = m_rnd.nextDouble();
+                if (x > bestValue && children[i] == null) {
+                    bestAction = i;
+                    bestValue = x;
+                }
+            }
+        }
+
+        //Roll the state and look for it in the transposition table. Only create a new node if it's not there.
+        GameState nextState = state.copy();
+        ArrayList<Action> availableActions = m_depth == 0 && params.PRIORITIZE_ROOT ? actions : nextState.getAllAvailableActions();
+        ArrayList<Action> nextActions = advance(nextState, availableActions.get(bestAction), true);
+
+        long key = key(nextState, m_depth + 1);
+        TranspositionTreeNode tn = root.table.get(key);
+        if(tn == null)
+        {
+            tn = new TranspositionTreeNode(params, this.m_rnd, nextActions.size(), null, rootStateHeuristic,
+                    this.playerID, this.root, nextState, this.m_depth + 1);
+            root.table.put(key, tn);
+        }
+        children[bestAction] = tn;
+        return tn;
+    }
+
+    /**
+     * Key of a node in the transposition table. It includes the depth, as turns are forced to end at
+     * certain depths and the rollout length depends on it.
+     */
+    private static long key(GameState gs, int depth)
+    {
+        return gs.getHash() ^ Zobrist.mix(depth + 1);
+    }
+
+    private ArrayList<Action> advance(GameState gs, Action act, boolean computeActions)
+    {
+        gs.advance(act, computeActions);
+        root.fmCallsCount++;
+        return gs.getAllAvailableActions();
+    }
+
+
+    private TranspositionTreeNode uct() {
+
+        TranspositionTreeNode selected;
+        boolean IamMoving = (state.getActiveTribeID() == this.playerID);
+        int bestAction = tryForceEnd(state, new EndTurn(state.getActiveTribeID()), this.m_depth);
+        if(bestAction == -1)
+        {
+            //No end turn, use uct. Children may be shared with other parents: their statistics include all
+            // the visits they received through any of them.
+            int which = -1;
+            double bestValue = IamMoving ? -Double.MAX_VALUE : Double.MAX_VALUE;
+            for(int i = 0; i < this.children.length; ++i)
+            {
+                TranspositionTreeNode child = children[i];
+
+                double childValue =  child.totValue / (child.nVisits + params.epsilon);
+                childValue = normalise(childValue, bounds[0], bounds[1]);
+
+                double uctValue = childValue +
+                        params.K * Math.sqrt(Math.log(this.nVisits + 1) / (child.nVisits + params.epsilon));
+
+                uctValue = noise(uctValue, params.epsilon, this.m_rnd.nextDouble());     //break ties randomly
+                if ((IamMoving && uctValue > bestValue) || (!IamMoving && uctValue < bestValue)){
+                    which = i;
+                    bestValue = uctValue;
+                }
+            }
+
+            if (which == -1)
+            {
+                System.out.println("Warning! couldn't find the best UCT value " + which + " : " + this.children.length + " " +
+                        + bounds[0] + " " + bounds[1]);
+                which = m_rnd.nextInt(children.length);
+            }
+
+            selected = children[which];
+
+        }else
+        {
+            selected = children[bestAction];
+        }
+
+        root.fmCallsCount++;
+
+        return selected;
+    }
+
+    private double rollOut()
+    {
+        if(params.ROLOUTS_ENABLED) {
+            GameState rolloutState = state.copy();
+            int thisDepth = this.m_depth;
+            while (!finishRollout(rolloutState, thisDepth)) {
+                EndTurn endTurn = new EndTurn(rolloutState.getActiveTribeID());
+                int bestAction = tryForceEnd(rolloutState, endTurn, thisDepth);
+                Action next = (bestAction != -1) ? endTurn : rolloutState.getAction(m_rnd.nextInt(rolloutState.getActionCount()));
+                advance(rolloutState, next, true);
+                thisDepth++;
+            }
+            return normalise(this.rootStateHeuristic.evaluateState(root.rootState, rolloutState), 0, 1);
+        }
+
+        return normalise(this.rootStateHeuristic.evaluateState(root.rootState, this.state), 0, 1);
+    }
+
+    private boolean finishRollout(GameState rollerState, int depth)
+    {
+        if (depth >= params.ROLLOUT_LENGTH)      //rollout end condition.
+            return true;
+
+        //end of game
+        return rollerState.isGameOver();
+    }
+
+
+    private void backUp(ArrayList<TranspositionTreeNode> path, double result)
+    {
+        for (TranspositionTreeNode n : path)
+        {
+            n.nVisits++;
+            n.totValue += result;
+            if (result < n.bounds[0]) {
+                n.bounds[0] = result;
+            }
+            if (result > n.bounds[1]) {
+                n.bounds[1] = result;
+            }
+        }
+    }
+
+
+    int mostVisitedAction() {
+        int selected = -1;
+        double bestValue = -Double.MAX_VALUE;
+        boolean allEqual = true;
+        double first = -1;
+
+        for (int i=0; i<children.length; i++) {
+
+            if(children[i] != null)
+            {
+                if(first == -1)
+                    first = children[i].nVisits;
+                else if(first != children[i].nVisits)
+                {
+                    allEqual = false;
+                }
+
+                double childValue = children[i].nVisits;
+                childValue = noise(childValue, params.epsilon, this.m_rnd.nextDouble());     //break ties randomly
+                if (childValue > bestValue) {
+                    bestValue = childValue;
+                    selected = i;
+                }
+            }
+        }
+
+        if (selected == -1)
+        {
+            selected = 0;
+        }else if(allEqual)
+        {
+            //If all are equal, we opt to choose for the one with the best Q.
+            selected = bestAction();
+        }
+
+        return selected;
+    }
+
+    private int bestAction()
+    {
+        int selected = -1;
+        double bestValue = -Double.MAX_VALUE;
+
+        for (int i=0; i<children.length; i++) {
+
+            if(children[i] != null) {
+                double childValue = children[i].totValue / (children[i].nVisits + params.epsilon);
+                childValue = noise(childValue, params.epsilon, this.m_rnd.nextDouble());     //break ties randomly
+                if (childValue > bestValue) {
+                    bestValue = childValue;
+                    selected = i;
+                }
+            }
+        }
+
+        if (selected == -1)
+        {
+            System.out.println("Unexpected selection!");
+            selected = 0;
+        }
+
+        return selected;
+    }
+
+
+    private boolean notFullyExpanded() {
+        for (TranspositionTreeNode tn : children) {
+            if (tn == null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private double normalise(double a_value, double a_min, double a_max)
+    {
+        if(a_min < a_max)
+            return (a_value - a_min)/(a_max - a_min);
+        else    // if bounds are invalid, then return same value
+            return a_value;
+    }
+
+    private double noise(double input, double epsilon, double random)
+    {
+        return (input + epsilon) * (1.0 + epsilon * (random - 0.5));
+    }
+
+}
@@ -9,6 +9,7 @@ import core.actors.City;
 import core.actors.units.Unit;
 import core.game.GameState;
 import players.Agent;
+import players.PrefixStateCache;
 import players.heuristics.StateHeuristic;
 import utils.ElapsedCpuTimer;
 import java.util.ArrayList;
@@ -26,6 +27,7 @@ public class OEPAgent extends Agent {
     private int fmCallsCount;
     private int fmCallsRun;
     private GameState root;
+    private PrefixStateCache cache;  //States reached by the action prefixes evaluated in this act() call, if enabled.
 
 
     public OEPAgent(long seed, OEPParams params) {
@@ -36,20 +38,18 @@ public class OEPAgent extends Agent {
 
     @Override
     public Action act(GameState gs, ElapsedCpuTimer ect) {
-        double avgTimeTaken;
-        double acumTimeTaken = 0;
-        long remaining;
         int numIters = 0;
         fmCallsCount = 0;
 
         int remainingLimit = 5;
         boolean stop = false;
 
+        this.cache = params.prefix_cache_size > 0 ? new PrefixStateCache(gs, params.prefix_cache_size) : null;
 
         //create a population of individuals defined in param
         ArrayList<Individual> population = new ArrayList<>();
         for(int i = 0; i < params.POP_SIZE; i++){
-            population.add(randomActions(gs.copy()));
+            population.add(randomActions(PrefixStateCache.start(cache, gs)));
         }
 
         this.heuristic = params.getStateHeuristic(playerID, allPlayerIDs);
@@ -59,10 +59,10 @@ public class OEPAgent extends Agent {
         this.root = gs.copy();
 
         //keep going until time limit gone
+        ect.startIterations(params.time_check_period);
         while(!stop){
 
             numIters ++;
-            ElapsedCpuTimer elapsedTimerIteration = new ElapsedCpuTimer();
             fmCallsRun = 0;
 
             // rate each individual and sort them
@@ -94,10 +94,10 @@ public class OEPAgent extends Agent {
                 population.remove(person1);
             }
 
-            population = procreate(gs.copy(), population);
+            population = procreate(gs, population);
 
             if(!even){
-                population.add(crossover(gs.copy(), person1, population.get(m_rnd.nextInt(population.size()))));
+                population.add(crossover(gs, person1, population.get(m_rnd.nextInt(population.size()))));
             }
 
             if(((fmCallsCount > params.num_fmcalls)  || ((numIters == 1) && (fmCallsCount >= (0.9 * params.num_fmcalls)))) && params.stop_type == params.STOP_FMCALLS){
@@ -105,21 +105,22 @@ public class OEPAgent extends Agent {
                 break;
             }
 
-            population = shiftPop(gs.copy(),population);
+            population = shiftPop(gs,population);
 
             if(params.stop_type == params.STOP_TIME) {
-                acumTimeTaken += (elapsedTimerIteration.elapsedMillis()) ;
-                avgTimeTaken  = acumTimeTaken/numIters;
-                remaining = ect.remainingTimeMillis();
-                stop = remaining <= 2 * avgTimeTaken || remaining <= remainingLimit;
+                ect.endIteration();
+                stop = !ect.enoughBudgetIteration(remainingLimit);
             }else if(params.stop_type == params.STOP_ITERATIONS) {
                 stop = numIters >= params.num_iterations;
             }else if(params.stop_type == params.STOP_FMCALLS){
-                stop = (fmCallsCount > params.num_fmcalls) || (fmCallsRun > (params.num_fmcalls - fmCallsCount));
+                //With the cache, an iteration that only revisits evaluated sequences doesn't consume budget: stop there.
+                stop = (fmCallsCount > params.num_fmcalls) || (fmCallsRun > (params.num_fmcalls - fmCallsCount))
+                        || (cache != null && fmCallsRun == 0);
             }
 
         }
         //System.out.println(numIters);
+        this.cache = null;
         return  bestIndividual.returnNext();
 
 
@@ -130,22 +131,22 @@ public class OEPAgent extends Agent {
         return null;
     }
 
-    private Individual randomActions(GameState gs){
+    private Individual randomActions(PrefixStateCache.Cursor cursor){
         ArrayList<Action> individual = new ArrayList<>();
-        while ((!gs.isGameOver() && (gs.getActiveTribeID() == getPlayerID())) && (individual.size() < (params.NODE_SIZE-1))){
-            ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+        while ((!cursor.state().isGameOver() && (cursor.state().getActiveTribeID() == getPlayerID())) && (individual.size() < (params.NODE_SIZE-1))){
+            ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
             Action a = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
             if(!(a.getActionType() == Types.ACTION.END_TURN)){
-                advance(gs, a);
+                advance(cursor, a);
                 individual.add(a);
             }else if(allAvailableActions.size() == 1){
-                advance(gs, a);
+                advance(cursor, a);
                 individual.add(a);
             }
         }
         //if one less then max node size
         if(individual.size() == (params.NODE_SIZE-1) && (individual.get((params.NODE_SIZE-2)).getActionType() != Types.ACTION.END_TURN)){
-            ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+            ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
             Action end = null; ;
             for(Action a : allAvailableActions){
                 if(a.getActionType() == Types.ACTION.END_TURN){
@@ -157,7 +158,7 @@ public class OEPAgent extends Agent {
         }
 
         Individual in = new Individual(individual);
-        in.setGs(gs.copy());
+        in.setGs(cursor.state());
         return in;
     }
 
@@ -179,7 +180,7 @@ public class OEPAgent extends Agent {
 
 
         for(int i = 0; i < group1.size(); i++){
-            population.add(crossover(gs.copy(), group1.get(i), group2.get(i)));
+            population.add(crossover(gs, group1.get(i), group2.get(i)));
         }
         return population;
     }
@@ -208,7 +209,7 @@ public class OEPAgent extends Agent {
     }
 
     //method to perform uniform crossover on two individuals
-    private Individual crossover(GameState clone, Individual individual1, Individual individual2){
+    private Individual crossover(GameState gs, Individual individual1, Individual individual2){
         ArrayList<Action> in1 = individual1.getActions();
         ArrayList<Action> in2 = individual2.getActions();
 
@@ -251,56 +252,56 @@ public class OEPAgent extends Agent {
                 }
             }
         }
-        Individual in = repair(clone, child);
+        Individual in = repair(PrefixStateCache.start(cache, gs), child);
         return in;
     }
     //repair an individual if actions can't be performed with a random action
-    private Individual repair(GameState gs, ArrayList<Action> child){
+    private Individual repair(PrefixStateCache.Cursor cursor, ArrayList<Action> child){
         ArrayList<Action> repairedChild = new ArrayList<>();
         boolean mutated = false;
         for(int a = 0 ;a < child.size(); a ++) {
-            if(!(gs.getActiveTribeID() == getPlayerID())){
+            if(!(cursor.state().getActiveTribeID() == getPlayerID())){
                 Individual in = new Individual(repairedChild);
-                in.setGs(gs.copy());
+                in.setGs(cursor.state());
                 return in;
             }
             int chance = m_rnd.nextInt((int)(params.MUTATION_RATE * 100));
             if((m_rnd.nextInt(100) < chance) && !mutated){
-                Action ac = mutation(gs.copy());
-                advance(gs, ac);
+                Action ac = mutation(cursor.state());
+                advance(cursor, ac);
                 repairedChild.add(ac);
                 mutated = true;
             }else{
-                GameState copy = gs.copy();
+                PrefixStateCache.Cursor copy = cursor.copy();
                 boolean added = false;
                 try {
-                    boolean done = checkActionFeasibility(child.get(a), gs.copy());
+                    boolean done = checkActionFeasibility(child.get(a), cursor.state());
                     if (!done) {
-                        ArrayList<Action> allAvailableActions = this.allGoodActions(gs.copy(), m_rnd);
+                        ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
                         Action ac = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
-                        advance(gs,ac);
+                        advance(cursor,ac);
                         repairedChild.add(ac);
                         added = true;
                     } else {
                         repairedChild.add(child.get(a));
                         added = true;
-                        advance(gs, child.get(a));
+                        advance(cursor, child.get(a));
                     }
                 } catch (Exception e) {
                     if(added){repairedChild.remove(repairedChild.size()-1);}
-                    gs = copy;
+                    cursor = copy;
 
                 }
             }
         }
 
-        if(!(gs.getActiveTribeID() == getPlayerID())){
+        if(!(cursor.state().getActiveTribeID() == getPlayerID())){
             Individual in = new Individual(repairedChild);
-            in.setGs(gs.copy());
+            in.setGs(cursor.state());
             return in;
         }
 
-        ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);
+        ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
         Action end = null; ;
         for(Action a : allAvailableActions){
             if(a.getActionType() == Types.ACTION.END_TURN){
@@ -311,7 +312,7 @@ public class OEPAgent extends Agent {
         repairedChild.add(end);
 
         Individual in = new Individual(repairedChild);
-        in.setGs(gs);
+        in.setGs(cursor.state());
         return in;
     }
 
@@ -324,23 +325,23 @@ public class OEPAgent extends Agent {
     private ArrayList<Individual> shiftPop(GameState gs, ArrayList<Individual> population){
         ArrayList<Individual> newPop = new ArrayList<>();
 
-        shift(gs.copy(), population.get(population.size()-1));
+        shift(gs, population.get(population.size()-1));
         newPop.add(population.get(population.size()-1));
 
         for(int i = 1; i < (params.POP_SIZE/2); i++){
-            Individual ind = mutateInd(population.get(population.size()-1), gs.copy());
+            Individual ind = mutateInd(population.get(population.size()-1), PrefixStateCache.start(cache, gs));
             newPop.add(ind);
         }
 
         for(int i = newPop.size(); i < params.POP_SIZE; i++){
-            newPop.add(randomActions(gs.copy()));
+            newPop.add(randomActions(PrefixStateCache.start(cache, gs)));
         }
 
         return newPop;
     }
 
     private void shift(GameState gs, Individual individual){
-        GameState clone = gs.copy();
+        PrefixStateCache.Cursor cursor = PrefixStateCache.start(cache, gs);
         individual.shift();
 
         boolean feasible = true;
@@ -348,60 +349,60 @@ public class OEPAgent extends Agent {
         while(feasible && j < individual.getActions().size())
         {
             Action act = individual.getActions().get(j);
-            feasible = checkActionFeasibility(act, gs);
+            feasible = checkActionFeasibility(act, cursor.state());
             if(feasible)
             {
-                advance(gs, act);
+                advance(cursor, act);
                 j++;
             }
         }
 
         int i = j;
-        while((!gs.isGameOver() && (gs.getActiveTribeID() == getPlayerID())) && i < params.NODE_SIZE)
+        while((!cursor.state().isGameOver() && (cursor.state().getActiveTribeID() == getPlayerID())) && i < params.NODE_SIZE)
         {
-            ArrayList<Action> allAvailableActions = this.allGoodActions(gs.copy(), m_rnd);
+            ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
             Action ac = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
             individual.getActions().add(ac);
-            advance(gs, ac);
+            advance(cursor, ac);
             i++;
         }
 
         //Eval individual
-        double score = heuristic.evaluateState(clone,gs);
+        double score = heuristic.evaluateState(gs,cursor.state());
         individual.setValue(score);
-        individual.setGs(gs.copy());
+        individual.setGs(cursor.state());
     }
 
-    private Individual mutateInd(Individual individual, GameState gs){
+    private Individual mutateInd(Individual individual, PrefixStateCache.Cursor cursor){
         ArrayList<Action> child = new ArrayList<>();
 
         for(int a = 0 ;a < individual.getActions().size(); a ++) {
-            if (!(gs.getActiveTribeID() == getPlayerID())) {
+            if (!(cursor.state().getActiveTribeID() == getPlayerID())) {
                 Individual in = new Individual(child);
-                in.setGs(gs.copy());
+                in.setGs(cursor.state());
                 return in;
             }
             int chance = m_rnd.nextInt((int) (params.MUTATION_RATE * 100));
             if ((m_rnd.nextInt(100) < chance) ) {
-                Action ac = mutation(gs.copy());
-                advance(gs, ac);
+                Action ac = mutation(cursor.state());
+                advance(cursor, ac);
                 child.add(ac);
             }else{
-                if(checkActionFeasibility(individual.getActions().get(a), gs.copy())){
-                    advance(gs,individual.getActions().get(a));
+                if(checkActionFeasibility(individual.getActions().get(a), cursor.state())){
+                    advance(cursor,individual.getActions().get(a));
                     child.add(individual.getActions().get(a));
                 }
                 else{
-                    ArrayList<Action> allAvailableActions = this.allGoodActions(gs.copy(), m_rnd);
+                    ArrayList<Action> allAvailableActions = this.allGoodActions(cursor.state(), m_rnd);
                     Action ac = allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
-                    advance(gs,ac);
+                    advance(cursor,ac);
                     child.add(ac);
                 }
             }
         }
 
         Individual in = new Individual(child);
-        in.setGs(gs.copy());
+        in.setGs(cursor.state());
         return in;
     }
 
@@ -440,9 +441,11 @@ public class OEPAgent extends Agent {
         return feasible;
     }
 
-    private void advance(GameState gs, Action move){
-        this.fmCallsCount++;
-        this.fmCallsRun++;
-        gs.advance(move,true);
+    private void advance(PrefixStateCache.Cursor cursor, Action move){
+        //States found in the cache don't call the forward model.
+        if(cursor.advance(move)) {
+            this.fmCallsCount++;
+            this.fmCallsRun++;
+        }
     }
 }
\ No newline at end of file
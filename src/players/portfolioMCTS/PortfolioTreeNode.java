@@ -86,18 +86,14 @@ public class PortfolioTreeNode
 
 
     void mctsSearch(ElapsedCpuTimer elapsedTimer) {
-
-        double avgTimeTaken;
-        double acumTimeTaken = 0;
-        long remaining;
         int numIters = 0;
 
         int remainingLimit = 5;
         boolean stop = false;
+        elapsedTimer.startIterations(params.time_check_period);
 
         while(!stop){
 //            System.out.println("------- " + root.actions.size() + " -------");
-            ElapsedCpuTimer elapsedTimerIteration = new ElapsedCpuTimer();
             PortfolioTreeNode selected = treePolicy();
             double delta = selected.rollOut();
             backUp(selected, delta);
@@ -105,10 +101,8 @@ public class PortfolioTreeNode
 
             //Stopping condition
             if(params.stop_type == params.STOP_TIME) {
-                acumTimeTaken += (elapsedTimerIteration.elapsedMillis()) ;
-                avgTimeTaken  = acumTimeTaken/numIters;
-                remaining = elapsedTimer.remainingTimeMillis();
-                stop = remaining <= 2 * avgTimeTaken || remaining <= remainingLimit;
+                elapsedTimer.endIteration();
+                stop = !elapsedTimer.enoughBudgetIteration(remainingLimit);
             }else if(params.stop_type == params.STOP_ITERATIONS) {
                 stop = numIters >= params.num_iterations;
             }else if(params.stop_type == params.STOP_FMCALLS)
@@ -8,12 +8,16 @@ import core.actors.City;
 import core.actors.units.Unit;
 import core.game.GameState;
 import players.Agent;
+import players.PrefixStateCache;
 import players.heuristics.StateHeuristic;
 import utils.ElapsedCpuTimer;
+import utils.WorkerPool;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RHEAAgent extends Agent {
 
@@ -22,7 +26,8 @@ public class RHEAAgent extends Agent {
     private RHEAParams params;
 
     private ArrayList<Genome> pop;
-    private int fmcalls;
+    private AtomicInteger fmcalls = new AtomicInteger();
+    private PrefixStateCache cache;  //States reached by the action prefixes evaluated in this act() call, if enabled.
     private int currentTurn;
     private boolean newTurn = true;
     private int actionInTurn = 0;
@@ -39,7 +44,11 @@ public class RHEAAgent extends Agent {
     public Action act(GameState gs, ElapsedCpuTimer ect) {
 
         this.heuristic = params.getStateHeuristic(playerID, allPlayerIDs);
-        this.fmcalls = 0;
+        this.fmcalls.set(0);
+
+        //Offspring share prefixes with their parents. Not with NUM_THREADS > 1: the cache is not thread safe.
+        this.cache = (params.prefix_cache_size > 0 && params.NUM_THREADS <= 1) ?
+                new PrefixStateCache(gs, params.prefix_cache_size) : null;
 
         if (currentTurn != gs.getTick()){
             currentTurn = gs.getTick();
@@ -56,6 +65,7 @@ public class RHEAAgent extends Agent {
         }
         rheaLoop(gs);
         newTurn = false;
+        this.cache = null;
 
         Action toExecute = pop.get(0).getActions().get(0);
 //        System.out.println(currentTurn + ":" + actionInTurn + ": toExecute: " + toExecute);
@@ -68,12 +78,14 @@ public class RHEAAgent extends Agent {
         boolean end = false;
         int numIters = 0;
         while (!end){
+            int fmcallsBefore = this.fmcalls.get();
             Collections.sort(pop);
             pop = nextGeneration(gs);
             numIters++;
 
+            //With the cache, a generation of individuals already evaluated doesn't consume budget: stop there.
             if(params.stop_type == params.STOP_FMCALLS)
-                end = this.fmcalls >= params.num_fmcalls;
+                end = this.fmcalls.get() >= params.num_fmcalls || (cache != null && this.fmcalls.get() == fmcallsBefore);
             else if(params.stop_type == params.STOP_ITERATIONS)
                 end = numIters >= params.num_iterations;
 
@@ -83,26 +95,77 @@ public class RHEAAgent extends Agent {
     }
 
     private void init(GameState gs){
-        pop = new ArrayList<>();
-        for(int i = 0; i < params.POP_SIZE; i++){
-            pop.add(newRandomIndividual(gs));
+        pop = buildIndividuals(gs, params.POP_SIZE, this::newRandomIndividual);
+    }
+
+    /**
+     * Data of the thread that builds and evaluates an individual: its random generator and heuristic.
+     */
+    private static class Worker
+    {
+        private Random rnd;
+        private StateHeuristic heuristic;
+
+        Worker(Random rnd, StateHeuristic heuristic)
+        {
+            this.rnd = rnd;
+            this.heuristic = heuristic;
         }
     }
 
-    private Genome newRandomIndividual(GameState gs)
+    /**
+     * Builds (and evaluates) an individual from a game state.
+     */
+    private interface IndividualBuilder
+    {
+        Genome build(Worker w, GameState gs);
+    }
+
+    /**
+     * Builds a number of individuals. With params.NUM_THREADS > 1, they're built in parallel, each one with its own
+     * copy of the state, heuristic and random generator (seeded from this agent's), so the individuals built for a
+     * seed don't depend on how the threads are scheduled. FM calls of all threads are added to the same counter.
+     * @param gs current game state.
+     * @param count number of individuals to build.
+     * @param builder function that builds each individual.
+     * @return the individuals built, in order.
+     */
+    private ArrayList<Genome> buildIndividuals(GameState gs, int count, IndividualBuilder builder)
+    {
+        ArrayList<Genome> built = new ArrayList<>();
+        if(params.NUM_THREADS <= 1)
+        {
+            Worker w = new Worker(m_rnd, heuristic);
+            for(int i = 0; i < count; i++)
+                built.add(builder.build(w, gs));
+            return built;
+        }
+
+        ArrayList<Callable<Genome>> tasks = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            //Copies are made here: copying a state is not safe while other threads copy it too.
+            Worker w = new Worker(new Random(m_rnd.nextLong()), params.getStateHeuristic(playerID, allPlayerIDs));
+            GameState source = gs.copy();
+            tasks.add(() -> builder.build(w, source));
+        }
+        return WorkerPool.forThreads(params.NUM_THREADS).invokeAll(tasks);
+    }
+
+    private Genome newRandomIndividual(Worker w, GameState gs)
     {
         //New individual
         ArrayList<Action> actions = new ArrayList<>();
-        GameState gsCopy = gs.copy();
+        PrefixStateCache.Cursor cursor = PrefixStateCache.start(cache, gs);
 
-        while (!gsCopy.isGameOver() && actions.size() < params.INDIVIDUAL_LENGTH){
-            Action a = getRandomAction(gsCopy);
-            advance(gsCopy, a, true);
+        while (!cursor.state().isGameOver() && actions.size() < params.INDIVIDUAL_LENGTH){
+            Action a = getRandomAction(w, cursor.state());
+            advance(cursor, a);
             actions.add(a);
         }
 
         Genome g = new Genome(actions);
-        double score = heuristic.evaluateState(gs, gsCopy);
+        double score = w.heuristic.evaluateState(gs, cursor.state());
         g.setValue(score);
         return g;
     }
@@ -112,26 +175,24 @@ public class RHEAAgent extends Agent {
         ArrayList<Genome> newPop = new ArrayList<>();
 
         //We shift the first individual, which is the only one that is likely to be feasible
-        shift(gs, pop.get(0));
-        newPop.add(pop.get(0));
+        Genome best = pop.get(0);
+        shift(new Worker(m_rnd, heuristic), gs, best);
+        newPop.add(best);
 
         //From 1 to (1+params.MUTATE_BEST), mutate the best individual
-        for(int i = 1; i < 1+params.MUTATE_BEST && i < params.POP_SIZE; ++i) {
-            Genome gen = mutate(pop.get(0), gs);
-            newPop.add(gen);
-        }
+        int numMutations = Math.max(Math.min(1+params.MUTATE_BEST, params.POP_SIZE) - 1, 0);
+        newPop.addAll(buildIndividuals(gs, numMutations, (w, state) -> mutate(w, best, state)));
 
         //From 1+params.MUTATE_BEST to params.POP_SIZE, generate at random
-        for(int i = 1+params.MUTATE_BEST; i < params.POP_SIZE; i++){
-            newPop.add(newRandomIndividual(gs));
-        }
+        int numRandom = Math.max(params.POP_SIZE - (1+params.MUTATE_BEST), 0);
+        newPop.addAll(buildIndividuals(gs, numRandom, this::newRandomIndividual));
         return newPop;
     }
 
-    private void shift(GameState gs, Genome individual)
+    private void shift(Worker w, GameState gs, Genome individual)
     {
         //shift buffer
-        GameState clone = gs.copy();
+        PrefixStateCache.Cursor cursor = PrefixStateCache.start(cache, gs);
         individual.shift();
 
         //advance the new game state
@@ -140,36 +201,36 @@ public class RHEAAgent extends Agent {
         while(feasible && j < individual.getActions().size())
         {
             Action act = individual.getActions().get(j);
-            feasible = checkActionFeasibility(act, clone);
+            feasible = checkActionFeasibility(act, cursor.state());
             if(feasible)
             {
-                advance(clone, act, true);
+                advance(cursor, act);
                 j++;
             }
         }
 
         //add new random actions at the end, from where we stopped
         int i = j;
-        while(!clone.isGameOver() && i < params.INDIVIDUAL_LENGTH)
+        while(!cursor.state().isGameOver() && i < params.INDIVIDUAL_LENGTH)
         {
-            Action newAction = getRandomAction(clone);
+            Action newAction = getRandomAction(w, cursor.state());
             individual.getActions().add(newAction);
-            advance(clone, newAction, true);
+            advance(cursor, newAction);
             i++;
         }
 
         //Eval individual
-        double score = heuristic.evaluateState(gs, clone);
+        double score = w.heuristic.evaluateState(gs, cursor.state());
         individual.setValue(score);
     }
 
-    private Action getRandomAction(GameState gs)
+    private Action getRandomAction(Worker w, GameState gs)
     {
         if(gs.isGameOver())
             return null;
 
-        ArrayList<Action> allAvailableActions = this.allGoodActions(gs, m_rnd);  //gs.getAllAvailableActions();
-        return allAvailableActions.get(m_rnd.nextInt(allAvailableActions.size()));
+        ArrayList<Action> allAvailableActions = this.allGoodActions(gs, w.rnd);  //gs.getAllAvailableActions();
+        return allAvailableActions.get(w.rnd.nextInt(allAvailableActions.size()));
     }
 
     private ArrayList<Genome> nextGeneration(GameState gs){
@@ -180,22 +241,17 @@ public class RHEAAgent extends Agent {
             newPop.add(pop.get(0));
         }
 
-        while (newPop.size() < params.POP_SIZE){
-            Genome g;
+        newPop.addAll(buildIndividuals(gs, params.POP_SIZE - newPop.size(), (w, state) -> {
             if(params.POP_SIZE > 1)
-            {
-                g = newIndividual(gs);
-            }else{
-                Genome gMut = mutate(pop.get(0), gs);
-                g = (gMut.getValue() >= pop.get(0).getValue()) ? gMut : pop.get(0);
-            }
+                return newIndividual(w, state);
 
-            newPop.add(g);
-        }
+            Genome gMut = mutate(w, pop.get(0), state);
+            return (gMut.getValue() >= pop.get(0).getValue()) ? gMut : pop.get(0);
+        }));
         return newPop;
     }
 
-    private int[] selection(){
+    private int[] selection(Worker w){
 
         //parent 1
         int p1idx = -1;
@@ -203,15 +259,15 @@ public class RHEAAgent extends Agent {
         ArrayList<Integer> tournament = new ArrayList<>();
         while (tournament.size() < params.TOURNAMENT_SIZE)
         {
-            int ind = m_rnd.nextInt(params.POP_SIZE);
+            int ind = w.rnd.nextInt(params.POP_SIZE);
             while(tournament.contains(ind))
             {
-                ind = m_rnd.nextInt(params.POP_SIZE);
+                ind = w.rnd.nextInt(params.POP_SIZE);
             }
             tournament.add(ind);
 
             //get the score of the individual, with small noise for tie breaks, to keep the best
-            double indValue = noise(pop.get(ind).getValue(), params.epsilon, this.m_rnd.nextDouble());
+            double indValue = noise(pop.get(ind).getValue(), params.epsilon, w.rnd.nextDouble());
             if(indValue > bestScore)
             {
                 p1idx = ind;
@@ -225,14 +281,14 @@ public class RHEAAgent extends Agent {
         bestScore = -Double.MAX_VALUE;
         while (tournament.size() < params.TOURNAMENT_SIZE)
         {
-            int ind = m_rnd.nextInt(params.POP_SIZE);
+            int ind = w.rnd.nextInt(params.POP_SIZE);
             while(tournament.contains(ind) && ind != p1idx)
             {
-                ind = m_rnd.nextInt(params.POP_SIZE);
+                ind = w.rnd.nextInt(params.POP_SIZE);
             }
             tournament.add(ind);
 
-            double indValue = noise(pop.get(ind).getValue(), params.epsilon, this.m_rnd.nextDouble());
+            double indValue = noise(pop.get(ind).getValue(), params.epsilon, w.rnd.nextDouble());
             if(indValue > bestScore)
             {
                 p2idx = ind;
@@ -243,36 +299,36 @@ public class RHEAAgent extends Agent {
         return new int[]{p1idx, p2idx};
     }
 
-    private Genome newIndividual(GameState state){
+    private Genome newIndividual(Worker w, GameState state){
 
         //The two parents to cross:
-        int[] parentsIdx = selection();
+        int[] parentsIdx = selection(w);
         ArrayList<Action> newIndividual = new ArrayList<>();
 
         //Uniform crossover
-        GameState crossState = state.copy();
+        PrefixStateCache.Cursor cursor = PrefixStateCache.start(cache, state);
         int actIdx = 0;
 
-        while(!crossState.isGameOver() && actIdx < params.INDIVIDUAL_LENGTH)
+        while(!cursor.state().isGameOver() && actIdx < params.INDIVIDUAL_LENGTH)
         {
             Action candidate = null;
             boolean feasibleAction;
 
             //Let's see first if we are to mutate this gene.
-            boolean mutate = m_rnd.nextDouble() < params.MUTATION_RATE;
+            boolean mutate = w.rnd.nextDouble() < params.MUTATION_RATE;
             if(mutate)
             {
-                candidate = getRandomAction(crossState);
+                candidate = getRandomAction(w, cursor.state());
                 feasibleAction = true;
                 //System.out.println("mutated");
             }else
             {
                 //No mutation, crossover
-                boolean firstParent = m_rnd.nextDouble()<0.5;
+                boolean firstParent = w.rnd.nextDouble()<0.5;
                 Genome from = firstParent ? pop.get(parentsIdx[0]) : pop.get(parentsIdx[1]);
                 if(actIdx < from.getActions().size()) {
                     candidate = from.getActions().get(actIdx);
-                    feasibleAction = checkActionFeasibility(candidate, crossState);
+                    feasibleAction = checkActionFeasibility(candidate, cursor.state());
                 }else feasibleAction = false;
 
                 if(!feasibleAction)
@@ -281,7 +337,7 @@ public class RHEAAgent extends Agent {
                     from = firstParent ? pop.get(parentsIdx[1]) : pop.get(parentsIdx[0]);
                     if(actIdx < from.getActions().size()) {
                         candidate = from.getActions().get(actIdx);
-                        feasibleAction = checkActionFeasibility(candidate, crossState);
+                        feasibleAction = checkActionFeasibility(candidate, cursor.state());
 
                     }else feasibleAction = false;
 
@@ -291,8 +347,8 @@ public class RHEAAgent extends Agent {
 
             if(feasibleAction && candidate != null)
             {
-                advance(crossState, candidate, true);
-                checkActionFeasibility(candidate, crossState);
+                advance(cursor, candidate);
+                checkActionFeasibility(candidate, cursor.state());
                 newIndividual.add(candidate);
             } //ELSE: Still not feasible: SKIP
 
@@ -302,55 +358,55 @@ public class RHEAAgent extends Agent {
         //At this point, we have up newIndividual.size() actions, but if we skipped unfeasible actions, this is < INDIVIDUAL_LENGTH.
         // if that's the case, fill with random actions
         int curSize = newIndividual.size();
-        while(!crossState.isGameOver() && curSize < params.INDIVIDUAL_LENGTH)
+        while(!cursor.state().isGameOver() && curSize < params.INDIVIDUAL_LENGTH)
         {
-            Action a = getRandomAction(crossState);
-            advance(crossState, a, true);
+            Action a = getRandomAction(w, cursor.state());
+            advance(cursor, a);
             newIndividual.add(a);
 
             curSize++;
         }
 
         Genome newInd = new Genome(newIndividual);
-        double score = heuristic.evaluateState(state, crossState);
+        double score = w.heuristic.evaluateState(state, cursor.state());
         newInd.setValue(score);
         return newInd;
     }
 
-    private Genome mutate(Genome gen, GameState state){
+    private Genome mutate(Worker w, Genome gen, GameState state){
 
         ArrayList<Action> newIndividual = new ArrayList<>();
-        GameState crossState = state.copy();
+        PrefixStateCache.Cursor cursor = PrefixStateCache.start(cache, state);
         int actIdx = 0;
 
-        while(!crossState.isGameOver() && actIdx < gen.getActions().size())
+        while(!cursor.state().isGameOver() && actIdx < gen.getActions().size())
         {
             Action candidate;
 
             //Let's see first if we are to mutate this gene.
-            boolean mutate = m_rnd.nextDouble() < params.MUTATION_RATE;
+            boolean mutate = w.rnd.nextDouble() < params.MUTATION_RATE;
             if(mutate)
             {
-                candidate = getRandomAction(crossState);
+                candidate = getRandomAction(w, cursor.state());
             }else
             {
                 //No mutation, keep it if possible
                 candidate = gen.getActions().get(actIdx);
-                boolean feasibleAction = checkActionFeasibility(candidate, crossState);
+                boolean feasibleAction = checkActionFeasibility(candidate, cursor.state());
                 if(!feasibleAction)
                 {
                     //Generate at random anyway.
-                    candidate = getRandomAction(crossState);
+                    candidate = getRandomAction(w, cursor.state());
                 }
             }
 
-            advance(crossState, candidate, true);
+            advance(cursor, candidate);
             newIndividual.add(candidate);
             actIdx++;
         }
 
         Genome newInd = new Genome(newIndividual);
-        double score = heuristic.evaluateState(state, crossState);
+        double score = w.heuristic.evaluateState(state, cursor.state());
         newInd.setValue(score);
 
         return newInd;
@@ -385,10 +441,11 @@ public class RHEAAgent extends Agent {
         return feasible;
     }
 
-    private void advance(GameState gs, Action act, boolean computeActions)
+    private void advance(PrefixStateCache.Cursor cursor, Action act)
     {
-        gs.advance(act, computeActions);
-        fmcalls++;
+        //States found in the cache don't call the forward model.
+        if(cursor.advance(act))
+            fmcalls.incrementAndGet();
     }
 
     private double noise(double input, double epsilon, double random)
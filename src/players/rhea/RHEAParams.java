@@ -10,6 +10,7 @@ public class RHEAParams extends AlgParams {
     public int TOURNAMENT_SIZE = 3;
     public int MUTATE_BEST = 9;
     public boolean ELITISM = true;
+    public int NUM_THREADS = 1;     //Threads building and evaluating the individuals of a generation in parallel.
 
     public void print() {
         System.out.println("RHEA Params:");
@@ -19,6 +20,7 @@ public class RHEAParams extends AlgParams {
         System.out.println("\tTournament Size: " + TOURNAMENT_SIZE);
         System.out.println("\tMutate best: " + MUTATE_BEST);
         System.out.println("\tElitism: " + ELITISM);
+        System.out.println("\tThreads: " + NUM_THREADS);
     }
 
 }
\ No newline at end of file
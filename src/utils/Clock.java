@@ -0,0 +1,81 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sources of time for ElapsedCpuTimer, in nanoseconds. They differ in what they measure and in the cost of
+ * reading them:
+ *  - THREAD_CPU: CPU time of the current thread (wall time on Windows). Each read is a system call.
+ *  - MONOTONIC: wall time from System.nanoTime(). Cheaper, but counts time when the thread is not running.
+ *  - COARSE: wall time cached by a background thread every RESOLUTION_NANOS. Reading it is a field read, at the
+ *    cost of being up to RESOLUTION_NANOS behind.
+ */
+public enum Clock
+{
+    THREAD_CPU {
+        @Override
+        public long time() {
+            if(OS_WIN)
+                return System.nanoTime();
+
+            if (BEAN.isCurrentThreadCpuTimeSupported()) {
+                return BEAN.getCurrentThreadCpuTime();
+            } else {
+                throw new RuntimeException("CpuTime NOT Supported");
+            }
+        }
+    },
+
+    MONOTONIC {
+        @Override
+        public long time() {
+            return System.nanoTime();
+        }
+    },
+
+    COARSE {
+        @Override
+        public long time() {
+            return CoarseTick.now;
+        }
+    };
+
+    //Update period of the COARSE clock.
+    public static final long RESOLUTION_NANOS = 1000000;
+
+    private static final boolean OS_WIN = System.getProperty("os.name").contains("Windows");
+    private static final ThreadMXBean BEAN = ManagementFactory.getThreadMXBean();
+
+    //Clock used by timers created without one.
+    private static volatile Clock defaultClock = THREAD_CPU;
+
+    /**
+     * Returns the current time of this clock.
+     * @return time in nanoseconds, from an arbitrary origin.
+     */
+    public abstract long time();
+
+    public static Clock getDefault() { return defaultClock; }
+    public static void setDefault(Clock clock) { defaultClock = clock; }
+
+    /**
+     * Time of the COARSE clock. The thread that updates it is started the first time the clock is read.
+     */
+    private static class CoarseTick
+    {
+        private static volatile long now = System.nanoTime();
+
+        static {
+            Thread ticker = new Thread(() -> {
+                while (true) {
+                    now = System.nanoTime();
+                    LockSupport.parkNanos(RESOLUTION_NANOS);
+                }
+            }, "coarse-clock");
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+    }
+}
@@ -5,31 +5,36 @@ package utils;
  */
 
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
-
 public class ElapsedCpuTimer {
 
-    private static final boolean OS_WIN = System.getProperty("os.name").contains("Windows");
-
-    // allows for easy reporting of elapsed time
-    private ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    // source of time of this timer (see Clock).
+    private Clock clock;
     private long oldTime;
     private long maxTime;
+
+    // iterations of the current search, time elapsed when it started and iterations between checks of the budget.
     private int nIters;
+    private long itersStart;
+    private int checkPeriod = 1;
 
     public ElapsedCpuTimer() {
+        this(Clock.getDefault());
+    }
+
+    public ElapsedCpuTimer(Clock clock) {
+        this.clock = clock;
         oldTime = getTime();
         nIters = 0;
     }
 
     public ElapsedCpuTimer copy()
     {
-        ElapsedCpuTimer newCpuTimer = new ElapsedCpuTimer();
+        ElapsedCpuTimer newCpuTimer = new ElapsedCpuTimer(clock);
         newCpuTimer.maxTime = this.maxTime;
         newCpuTimer.oldTime = this.oldTime;
-        newCpuTimer.bean = this.bean;
         newCpuTimer.nIters = this.nIters;
+        newCpuTimer.itersStart = this.itersStart;
+        newCpuTimer.checkPeriod = this.checkPeriod;
         return newCpuTimer;
     }
 
@@ -66,21 +71,12 @@ public class ElapsedCpuTimer {
         return ret;
     }
 
-    private long getTime() {
-        return getCpuTime();
+    public Clock getClock() {
+        return clock;
     }
 
-    private long getCpuTime() {
-
-        if(OS_WIN)
-            return System.nanoTime();
-
-        if (bean.isCurrentThreadCpuTimeSupported()) {
-            return bean.getCurrentThreadCpuTime();
-        } else {
-            throw new RuntimeException("CpuTime NOT Supported");
-        }
-
+    private long getTime() {
+        return clock.time();
     }
 
     public void setMaxTimeMillis(long time) {
@@ -99,15 +95,29 @@ public class ElapsedCpuTimer {
     }
 
     /**
-     * Calculates average time spent per iteration.
+     * Starts counting the iterations of a search, used to estimate if there's budget for more of them.
+     * @param checkPeriod - the time is only read every checkPeriod iterations (1 to read it on every check).
+     */
+    public void startIterations(int checkPeriod) {
+        this.nIters = 0;
+        this.itersStart = elapsed();
+        this.checkPeriod = Math.max(checkPeriod, 1);
+    }
+
+    /**
+     * Calculates average time spent per iteration. The time is only read every checkPeriod iterations (see
+     * startIterations()), so there must be budget for the iterations until the next check.
      * @param break_ms - optional parameter to add a safety check for early stopping, can be 0.
      * @return - true if enough budget is left for another iteration, false otherwise.
      */
     public boolean enoughBudgetIteration(int break_ms) {
-        long average;
-        if (nIters == 0) average = 0; else average = elapsedMillis() / nIters;
-        long remaining = remainingTimeMillis();
-        return remaining > 2 * average && remaining > break_ms;
+        if (nIters % checkPeriod != 0)
+            return true;
+
+        long elapsed = elapsed();
+        long average = (nIters == 0) ? 0 : (elapsed - itersStart) / nIters;
+        long remaining = maxTime - elapsed;
+        return remaining > (checkPeriod + 1) * average && remaining > break_ms * 1000000L;
     }
 
     /**
@@ -0,0 +1,78 @@
+package utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed neighbourhoods of the tiles of a square board. Tiles are indexed as x * size + y, and the
+ * neighbourhood of a tile at a given radius is an array with the indices of the tiles at a Chebyshev distance
+ * of radius or less (excluding the tile itself), clipped to the board borders. The order of the tiles is the
+ * same as the one of Vector2d.neighborhood().
+ * Tables are immutable and shared by all boards of the same size.
+ */
+public final class NeighbourTable
+{
+    // Largest radius with precomputed neighbourhoods. Larger ones are computed on each request.
+    public static final int MAX_RADIUS = 3;
+
+    // Tables already built, by board size.
+    private static final ConcurrentHashMap<Integer, NeighbourTable> tables = new ConcurrentHashMap<>();
+
+    // Size of the board.
+    private final int size;
+
+    // Neighbourhoods of each tile, indexed by [radius-1][tile].
+    private final int[][][] neighbours;
+
+    private NeighbourTable(int size)
+    {
+        this.size = size;
+        this.neighbours = new int[MAX_RADIUS][size * size][];
+        for (int r = 1; r <= MAX_RADIUS; r++)
+            for (int tile = 0; tile < size * size; tile++)
+                neighbours[r - 1][tile] = compute(tile / size, tile % size, r);
+    }
+
+    /**
+     * Returns the neighbour table for a board size.
+     * @param size size of the board.
+     * @return the table, built the first time it's requested.
+     */
+    public static NeighbourTable forSize(int size)
+    {
+        return tables.computeIfAbsent(size, NeighbourTable::new);
+    }
+
+    /**
+     * Returns the neighbourhood of a tile. The array returned must not be modified.
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @param radius radius of the neighbourhood (radius = 1 gives a 3x3 neighbourhood).
+     * @return indices (x * size + y) of the tiles in the neighbourhood.
+     */
+    public int[] get(int x, int y, int radius)
+    {
+        if (radius > MAX_RADIUS)
+            return compute(x, y, radius);
+        if (radius < 1)
+            return new int[0];
+        return neighbours[radius - 1][x * size + y];
+    }
+
+    /**
+     * Returns the size of the board of this table.
+     */
+    public int getSize() { return size; }
+
+    private int[] compute(int x, int y, int radius)
+    {
+        int minX = Math.max(x - radius, 0), maxX = Math.min(x + radius, size - 1);
+        int minY = Math.max(y - radius, 0), maxY = Math.min(y + radius, size - 1);
+        int[] tiles = new int[(maxX - minX + 1) * (maxY - minY + 1) - 1];
+        int n = 0;
+        for (int i = minX; i <= maxX; i++)
+            for (int j = minY; j <= maxY; j++)
+                if (i != x || j != y)
+                    tiles[n++] = i * size + j;
+        return tiles;
+    }
+}
@@ -0,0 +1,76 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pools of daemon threads used by agents to run parts of their search in parallel. Pools are shared by all
+ * agents that request the same number of threads and live until the program ends.
+ * Tasks run in a pool must not wait for other tasks of the same pool.
+ */
+public final class WorkerPool
+{
+    // Pools already created, by number of threads.
+    private static final ConcurrentHashMap<Integer, WorkerPool> pools = new ConcurrentHashMap<>();
+
+    // Number of threads of this pool.
+    private final int numThreads;
+
+    // Executor that runs the tasks.
+    private final ExecutorService executor;
+
+    private WorkerPool(int numThreads)
+    {
+        this.numThreads = numThreads;
+        AtomicInteger created = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, "worker-" + numThreads + "-" + created.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the pool with a number of threads.
+     * @param numThreads number of threads of the pool.
+     * @return the pool, created the first time it's requested.
+     */
+    public static WorkerPool forThreads(int numThreads)
+    {
+        return pools.computeIfAbsent(numThreads, WorkerPool::new);
+    }
+
+    public int getNumThreads() { return numThreads; }
+
+    /**
+     * Runs a list of tasks in this pool and waits for all of them to finish.
+     * @param tasks tasks to run.
+     * @param <T> type of the result of the tasks.
+     * @return the results of the tasks, in the same order as the tasks.
+     * @throws RuntimeException if any of the tasks fails, or if the calling thread is interrupted.
+     */
+    public <T> ArrayList<T> invokeAll(List<? extends Callable<T>> tasks)
+    {
+        ArrayList<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> f : executor.invokeAll(tasks))
+                results.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the workers", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,50 @@
+package utils;
+
+/**
+ * Keys for Zobrist hashing of game states. The hash of a state is the XOR of the keys of its features
+ * (i.e. the terrain at a tile or the stars of a tribe), so it can be updated incrementally by XOR-ing out the
+ * key of the old value of a feature and XOR-ing in the key of the new one.
+ * Keys are not stored in tables: they are computed by mixing the feature, index and value, which makes them
+ * independent of the board size and stable across runs.
+ */
+public final class Zobrist
+{
+    // Features of the game state that are hashed.
+    public static final int TERRAIN = 1;
+    public static final int RESOURCE = 2;
+    public static final int BUILDING = 3;
+    public static final int UNIT_AT = 4;
+    public static final int CITY_AT = 5;
+    public static final int NETWORK = 6;
+    public static final int TECHNOLOGY = 7;
+    public static final int UNIT = 8;
+    public static final int CITY = 9;
+    public static final int TRIBE = 10;
+    public static final int TURN = 11;
+
+    private Zobrist() {}
+
+    /**
+     * Returns the key of a feature of the game state.
+     * @param feature feature hashed (one of the constants of this class).
+     * @param index index of the element that has the feature (i.e. position on the board or actor id).
+     * @param value value of the feature.
+     * @return the key for this feature, index and value.
+     */
+    public static long key(int feature, int index, int value)
+    {
+        return mix(feature * 0x9E3779B97F4A7C15L + index * 0xC2B2AE3D27D4EB4FL + value * 0x165667B19E3779F9L);
+    }
+
+    /**
+     * Mixes the bits of a 64-bit value (SplitMix64 finalizer).
+     * @param z value to mix.
+     * @return mixed value.
+     */
+    public static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -2,17 +2,21 @@ package utils.graph;
 
 import utils.Vector2d;
 
-import java.util.ArrayList;
-
 public interface NeighbourHelper
 {
     /**
-     * Returns a list of nodes adjacent to "from" (in a graph sense)
-     * @param from position to find adjacent nodes of.
-     * @param costFrom Accummulated cost up to 'from'
-     * @return The lists of nodes adjacent to that in position 'from'
+     * Returns the size of the (square) grid the nodes of the graph belong to.
+     */
+    int getGridSize();
+
+    /**
+     * Adds the nodes adjacent to (x, y) (in a graph sense) to a list of neighbours.
+     * @param x x coordinate of the position to find adjacent nodes of.
+     * @param y y coordinate of the position to find adjacent nodes of.
+     * @param costFrom Accummulated cost up to (x, y)
+     * @param neighbours list where the adjacent nodes are added, with the cost of the step to them.
      */
-    ArrayList<PathNode> getNeighbours(Vector2d from, double costFrom);
+    void getNeighbours(int x, int y, double costFrom, NeighbourList neighbours);
 
     /**
      * Adds a jump link from 'from' to 'to'
@@ -0,0 +1,46 @@
+package utils.graph;
+
+import java.util.Arrays;
+
+/**
+ * List of the neighbours of a tile found during a path search, with the cost of the step to each of them.
+ * It is reused across expansions and searches, so neighbours are kept in primitive arrays that only grow.
+ */
+public class NeighbourList
+{
+    //Size of the grid, to index tiles.
+    private int gridSize;
+
+    //Tiles (as x * gridSize + y) and step costs of the neighbours.
+    private int[] tiles = new int[16];
+    private double[] stepCosts = new double[16];
+    private int size;
+
+    /**
+     * Adds a neighbour to the list.
+     * @param x x coordinate of the neighbour.
+     * @param y y coordinate of the neighbour.
+     * @param stepCost cost of moving to the neighbour.
+     */
+    public void add(int x, int y, double stepCost)
+    {
+        if(size == tiles.length)
+        {
+            tiles = Arrays.copyOf(tiles, size * 2);
+            stepCosts = Arrays.copyOf(stepCosts, size * 2);
+        }
+        tiles[size] = x * gridSize + y;
+        stepCosts[size] = stepCost;
+        size++;
+    }
+
+    void reset(int gridSize)
+    {
+        this.gridSize = gridSize;
+        size = 0;
+    }
+
+    int size() { return size; }
+    int getTile(int i) { return tiles[i]; }
+    double getStepCost(int i) { return stepCosts[i]; }
+}
@@ -32,6 +32,14 @@ public class PathNode implements Comparable<PathNode>
         this.totalCost = totalCost;
     }
 
+    public PathNode(int x, int y, double totalCost)
+    {
+        this.parent = null;
+        this.position = new Vector2d(x, y);
+        this.id = calcNodeId(position);
+        this.totalCost = totalCost;
+    }
+
     public int getId() {return id;}
     public int getX() {return position.x; }
     public int getY() {return position.y;}
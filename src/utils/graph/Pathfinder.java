@@ -3,19 +3,23 @@ package utils.graph;
 import utils.Vector2d;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 
 /**
  * Created by dperez on 13/01/16.
+ * Searches run on the tiles of a grid: costs, parents and the open list are primitive arrays indexed by tile,
+ * kept in a per-thread scratch space that is reused by all searches.
  */
 public class Pathfinder
 {
+    //Search memory, reused by all the searches of the same thread.
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
     public PathNode root;
     private NeighbourHelper provider;
 
-    public HashSet<PathNode> nodes;
-
     public Pathfinder(Vector2d rootPos, NeighbourHelper provider)
     {
         root = new PathNode(rootPos);
@@ -23,16 +27,18 @@ public class Pathfinder
     }
 
 
-    private ArrayList<PathNode> calculatePath(PathNode node)
+    private ArrayList<PathNode> calculatePath(Scratch s, int size, int start, int goal)
     {
         ArrayList<PathNode> path = new ArrayList<>();
-        while(node != null)
+        for(int tile = goal; tile != start; tile = s.parent[tile]) //to avoid adding the start node.
+            path.add(new PathNode(tile / size, tile % size, s.cost[tile]));
+        Collections.reverse(path);
+
+        PathNode parent = root;
+        for(PathNode node : path)
         {
-            if(node.getParent() != null) //to avoid adding the start node.
-            {
-                path.add(0,node);
-            }
-            node = node.getParent();
+            node.setParent(parent);
+            parent = node;
         }
         return path;
     }
@@ -46,147 +52,275 @@ public class Pathfinder
     //A* to destination
     public ArrayList<PathNode> findPathTo(Vector2d goalPosition)
     {
-        return _findPath(new PathNode(goalPosition));
+        return _findPath(goalPosition);
+    }
+
+    //Dijkstra to all possible destinations. Returns the tiles (x * size + y) reachable from the root, root included.
+    public BitSet findReachable()
+    {
+        return _reachable();
     }
 
 
     private ArrayList<PathNode> _dijkstra()
     {
-        nodes = new HashSet<>();
+        int size = provider.getGridSize();
+        Scratch s = scratch.get();
+        s.reset(size);
 
-        root.setVisited(true);
-        root.setTotalCost(0.0);
+        int start = root.getX() * size + root.getY();
+        s.discover(start, 0.0, 0.0, -1);
+        s.push(start);
 
         ArrayList<PathNode> destinationsFromStart = new ArrayList<>();
-        PathNode node;
+        NeighbourList neighbours = s.neighbours;
 
-        PriorityQueue<PathNode> openList = new PriorityQueue<>();
-        HashSet<PathNode> visited = new HashSet<>();
-        visited.add(root);
-        openList.add(root);
-        nodes.add(root);
-
-        while (openList.size() != 0)
+        while (s.heapSize != 0)
         {
-            node = openList.poll();
-            //nodes.add(node);
-//            System.out.println("Remaining in list: " + openList.size());
-
-            if (!destinationsFromStart.contains(node) && (node != root))
-            {
-                destinationsFromStart.add(node);
+            int node = s.poll();
+            double nodeCost = s.cost[node];
+            if (node != start)
+                destinationsFromStart.add(new PathNode(node / size, node % size, nodeCost));
+
+            neighbours.reset(size);
+            provider.getNeighbours(node / size, node % size, nodeCost, neighbours);
+            for (int i = 0; i < neighbours.size(); i++) {
+                int nb = neighbours.getTile(i);
+                double nbCost = neighbours.getStepCost(i) + nodeCost;
+
+                if (!s.isDiscovered(nb)) {
+                    s.discover(nb, nbCost, nbCost, node);
+                    s.push(nb);
+                } else if (nbCost < s.cost[nb]) {
+                    // Nodes are not moved in the open list when their cost is reduced: they keep their position
+                    // in it, which determines the order of the destinations returned.
+                    s.cost[nb] = nbCost;
+                    s.priority[nb] = nbCost;
+                }
             }
+        }
 
-            ArrayList<PathNode> neighbours = provider.getNeighbours(node.getPosition(), node.getTotalCost());
-            for (PathNode nb : neighbours) {
-                double nbCost = nb.getTotalCost();
-
-                boolean inCache = false;
-
-                PathNode neighbour = null;
-                if (nodes != null) {
-                    for (PathNode n2 : nodes) {
-                        if (nb.equals(n2)) {
-                            neighbour = n2;
-                            inCache = true;
-                            break;
-                        }
-                    }
-                }
-                if (neighbour == null) {
-                    neighbour = nb;  // Node was not found in cache
-                }
+        return destinationsFromStart;
+    }
+
+    private BitSet _reachable()
+    {
+        int size = provider.getGridSize();
+        Scratch s = scratch.get();
+        s.reset(size);
 
-                if (!visited.contains(neighbour)) {
-                    neighbour.setVisited(true);
-                    visited.add(neighbour);
-                    neighbour.setTotalCost(nbCost + node.getTotalCost());
-                    openList.add(neighbour);
-                    nodes.add(neighbour);
-                } else if (nbCost + node.getTotalCost() < neighbour.getTotalCost()) {
-                    neighbour.setTotalCost(nbCost + node.getTotalCost());
+        int start = root.getX() * size + root.getY();
+        s.discover(start, 0.0, 0.0, -1);
+        s.push(start);
+
+        BitSet reachable = new BitSet(size * size);
+        NeighbourList neighbours = s.neighbours;
+
+        while (s.heapSize != 0)
+        {
+            int node = s.poll();
+            s.close(node);
+            reachable.set(node);
+
+            //Costs are kept exact (nodes are moved up or reopened), as neighbours may depend on the cost to reach them.
+            double nodeCost = s.cost[node];
+            neighbours.reset(size);
+            provider.getNeighbours(node / size, node % size, nodeCost, neighbours);
+            for (int i = 0; i < neighbours.size(); i++) {
+                int nb = neighbours.getTile(i);
+                double nbCost = neighbours.getStepCost(i) + nodeCost;
+
+                if (!s.isDiscovered(nb)) {
+                    s.discover(nb, nbCost, nbCost, node);
+                    s.push(nb);
+                } else if (nbCost < s.cost[nb]) {
+                    s.cost[nb] = nbCost;
+                    s.priority[nb] = nbCost;
+                    if(s.isClosed(nb))
+                        s.push(nb);
+                    else
+                        s.siftUp(s.heapPos[nb], nb);
                 }
             }
         }
 
-        return destinationsFromStart;
+        return reachable;
     }
 
-    private ArrayList<PathNode> _findPath(PathNode goal)
+    private ArrayList<PathNode> _findPath(Vector2d goalPosition)
     {
         // TODO this method repeats calculations that are already done in _dijsktra above, could be made a lot more
         // efficient to avoid re-calculating neighbours
 
-        nodes = new HashSet<>();
-        PathNode node = null;
-        PriorityQueue<PathNode> openList = new PriorityQueue<>();
-        PriorityQueue<PathNode> closedList = new PriorityQueue<>();
+        int size = provider.getGridSize();
+        Scratch s = scratch.get();
+        s.reset(size);
 
-        root.setTotalCost(0.0);
-        double dist = Vector2d.chebychevDistance(root.getPosition(), goal.getPosition());
-        root.setEstimatedCost(dist);
-        openList.add(root);
-        nodes.add(root);
+        int start = root.getX() * size + root.getY();
+        int goal = goalPosition.x * size + goalPosition.y;
+        s.discover(start, 0.0, distance(start, goal, size), -1);
+        s.push(start);
 
-        while(openList.size() != 0)
+        NeighbourList neighbours = s.neighbours;
+
+        while(s.heapSize != 0)
         {
-            node = openList.poll();
-            //nodes.add(node);
-            closedList.add(node);
-
-            if(node.getX() == goal.getX() && node.getY() == goal.getY())
-                return calculatePath(node);
-
-            ArrayList<PathNode> neighbours = provider.getNeighbours(node.getPosition(), node.getTotalCost());
-
-            for (PathNode nb : neighbours) {
-                // This neighbour is a new object, it will not have any of the costs set up
-                // use the cached nodes HashSet to find the correct object with the information available,
-                // only missing estimated distance
-                double nbCost = nb.getTotalCost();
-                boolean inCache = false;
-
-                PathNode neighbour = null;
-                if (nodes != null) {
-                    for (PathNode n2 : nodes) {
-                        if (nb.equals(n2)) {
-                            neighbour = n2;
-                            inCache = true;
-                            break;
-                        }
-                    }
-                }
-                if (neighbour == null) {
-                    neighbour = nb;  // Node was not found in cache
+            int node = s.poll();
+            s.close(node);
+
+            if(node == goal)
+                return calculatePath(s, size, start, goal);
+
+            double nodeCost = s.cost[node];
+            neighbours.reset(size);
+            provider.getNeighbours(node / size, node % size, nodeCost, neighbours);
+
+            for (int i = 0; i < neighbours.size(); i++) {
+                int nb = neighbours.getTile(i);
+                double nbCost = neighbours.getStepCost(i) + nodeCost;
+
+                if (!s.isDiscovered(nb)) {
+                    s.discover(nb, nbCost, nbCost + distance(nb, goal, size), node);
+                    s.push(nb);
+
+                } else if (nbCost < s.cost[nb]) {
+                    s.priority[nb] += nbCost - s.cost[nb];
+                    s.cost[nb] = nbCost;
+                    s.parent[nb] = node;
+
+                    //Reopen the node, or move it up in the open list if it's still there.
+                    if(s.isClosed(nb))
+                        s.push(nb);
+                    else
+                        s.siftUp(s.heapPos[nb], nb);
                 }
+            }
+
+        }
+
+        return null; //not the goal
+
+    }
+
+    //Chebychev distance between two tiles.
+    private static double distance(int from, int to, int size)
+    {
+        return Math.max(Math.abs(from / size - to / size), Math.abs(from % size - to % size));
+    }
 
-                if (!openList.contains(neighbour) && !closedList.contains(neighbour)) {
-                    neighbour.setTotalCost(nbCost + node.getTotalCost());
-                    dist = Vector2d.chebychevDistance(neighbour.getPosition(), goal.getPosition());
-                    neighbour.setEstimatedCost(dist);
-                    neighbour.setParent(node);
 
-                    openList.add(neighbour);
-                    nodes.add(neighbour);
+    /**
+     * Memory used by a search: cost, priority and parent of each tile, the open list as a binary heap of tiles and
+     * the state of each tile in the current search. Tiles are discovered or closed in the current search if their
+     * mark equals the number of the search, so no arrays need to be cleared between searches.
+     */
+    private static class Scratch
+    {
+        private double[] cost = new double[0];
+        private double[] priority = new double[0];
+        private int[] parent = new int[0];
 
-                } else if (nbCost + node.getTotalCost() < neighbour.getTotalCost()) {
-                    neighbour.setTotalCost(nbCost + node.getTotalCost());
-                    neighbour.setParent(node);
+        //Open list. heapPos is the index in heap of each tile in the open list (-1 if it's not in it).
+        private int[] heap = new int[0];
+        private int[] heapPos = new int[0];
+        private int heapSize;
 
-                    openList.remove(neighbour);
-                    closedList.remove(neighbour);
+        private int[] discovered = new int[0];
+        private int[] closed = new int[0];
+        private int search;
 
-                    openList.add(neighbour);
-                }
+        private NeighbourList neighbours = new NeighbourList();
+
+        void reset(int size)
+        {
+            int n = size * size;
+            if(cost.length < n)
+            {
+                cost = new double[n];
+                priority = new double[n];
+                parent = new int[n];
+                heap = new int[n];
+                heapPos = new int[n];
+                discovered = new int[n];
+                closed = new int[n];
+                search = 0;
+            }
+            if(search == Integer.MAX_VALUE)
+            {
+                Arrays.fill(discovered, 0);
+                Arrays.fill(closed, 0);
+                search = 0;
             }
+            search++;
+            heapSize = 0;
+        }
+
+        boolean isDiscovered(int tile) { return discovered[tile] == search; }
+        boolean isClosed(int tile) { return closed[tile] == search; }
+        void close(int tile) { closed[tile] = search; }
+
+        void discover(int tile, double tileCost, double tilePriority, int tileParent)
+        {
+            discovered[tile] = search;
+            cost[tile] = tileCost;
+            priority[tile] = tilePriority;
+            parent[tile] = tileParent;
+        }
 
+        //The heap operations follow the ones of java.util.PriorityQueue, so ties are broken in the same way.
+        void push(int tile)
+        {
+            closed[tile] = 0;
+            siftUp(heapSize++, tile);
         }
 
-        if(node == null || node.getX() != goal.getX() || node.getY() != goal.getY()) //not the goal
-            return null;
+        int poll()
+        {
+            int result = heap[0];
+            heapPos[result] = -1;
+            int n = --heapSize;
+            if (n > 0)
+                siftDown(0, heap[n], n);
+            return result;
+        }
 
-        return calculatePath(node);
+        void siftUp(int k, int tile)
+        {
+            while (k > 0)
+            {
+                int parentIdx = (k - 1) >>> 1;
+                int e = heap[parentIdx];
+                if (Double.compare(priority[tile], priority[e]) >= 0)
+                    break;
+                place(k, e);
+                k = parentIdx;
+            }
+            place(k, tile);
+        }
 
+        private void siftDown(int k, int tile, int n)
+        {
+            int half = n >>> 1;
+            while (k < half)
+            {
+                int child = (k << 1) + 1;
+                int c = heap[child];
+                int right = child + 1;
+                if (right < n && Double.compare(priority[c], priority[heap[right]]) > 0)
+                    c = heap[child = right];
+                if (Double.compare(priority[tile], priority[c]) <= 0)
+                    break;
+                place(k, c);
+                k = child;
+            }
+            place(k, tile);
+        }
+
+        private void place(int k, int tile)
+        {
+            heap[k] = tile;
+            heapPos[tile] = k;
+        }
     }
 
 
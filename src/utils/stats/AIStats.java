@@ -1,20 +1,33 @@
 package utils.stats;
 
-import java.math.BigInteger;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Locale;
 
 public class AIStats
 {
-    //Action branching factor (per tick)
-    private HashMap<Integer, BigInteger> branchingFactorMult;
-    private HashMap<Integer, ArrayList<BigInteger>> branchingFactorAll;
-    private HashMap<Integer, ArrayList<Integer>> actionsPerStep;
-    private HashMap<Integer, ArrayList<Integer>> actionsPerStepArray;
+    //Width, in log space, of the buckets of the branching factor histogram.
+    private static final double LOG_BUCKET_WIDTH = 0.25;
+
+    //Action branching factor (per tick), in log space: the branching factor of a turn is the product of the
+    // branching factors of its moves, so its log is the sum of their logs.
+    private double[] logBranchingFactorTurn;    //[turn] -> sum of log(branching factor) of the moves of the turn.
+    private int[] movesTurn;                    //[turn] -> number of moves with a branching factor in the turn.
+    private int turnsWithBranching;
+
+    //Streaming summary of log(branching factor) of every move: min/max/mean and a histogram for quantiles.
+    private StatSummary logBranchingFactor;
+    private int[] logBranchingHistogram;
+
+    //Actions per step (per tick)
+    private int[] firstActionsPerStep;          //[turn] -> actions of the first step of the turn.
+    private long[] sumActionsPerStep;           //[turn] -> sum of actions of the steps of the turn.
+    private int[] stepsTurn;                    //[turn] -> number of steps of the turn.
+    private long[] multActionsPerStep;          //[turn] -> product of actions (> 0) of the steps of the turn, -1 if it overflows.
+    private double[] logMultActionsPerStep;     //[turn] -> log10 of that product.
     private int playerId;
 
     public int MAX = 0;
@@ -25,10 +38,16 @@ public class AIStats
     public AIStats(int playerId)
     {
         this.playerId = playerId;
-        branchingFactorMult = new HashMap<>();
-        branchingFactorAll = new HashMap<>();
-        actionsPerStep = new HashMap<>();
-        actionsPerStepArray = new HashMap<>();
+        int turns = 64;
+        logBranchingFactorTurn = new double[turns];
+        movesTurn = new int[turns];
+        logBranchingFactor = new StatSummary();
+        logBranchingHistogram = new int[64];
+        firstActionsPerStep = new int[turns];
+        sumActionsPerStep = new long[turns];
+        stepsTurn = new int[turns];
+        multActionsPerStep = new long[turns];
+        logMultActionsPerStep = new double[turns];
     }
 
     /**
@@ -38,155 +57,167 @@ public class AIStats
      */
     public void addBranchingFactor(int turn, ArrayList<Integer> values)
     {
-        BigInteger bInt = BigInteger.valueOf(1);
-        for(Integer val : values)
+        double logValue = 0;
+        for(int val : values)
         {
-            if(val == 0)
-            {
-                val = 1;
-            }
-
-            bInt = bInt.multiply(BigInteger.valueOf(val));
+            if(val > 1)
+                logValue += Math.log(val);
         }
 
-        if(!branchingFactorMult.containsKey(turn))
-        {
-            branchingFactorMult.put(turn, bInt);
-
-            ArrayList<BigInteger> newList = new ArrayList<>();
-            newList.add(bInt);
-            branchingFactorAll.put(turn, newList);
-        }else{
-            BigInteger prevValue = branchingFactorMult.get(turn);
-            BigInteger newValue = prevValue.multiply(bInt);
-            branchingFactorMult.put(turn, newValue);
-
-            ArrayList<BigInteger> list = branchingFactorAll.get(turn);
-            list.add(bInt);
-        }
+        ensureTurn(turn);
+        if(movesTurn[turn] == 0)
+            turnsWithBranching++;
+        movesTurn[turn]++;
+        logBranchingFactorTurn[turn] += logValue;
+
+        logBranchingFactor.add(logValue);
+        int bucket = (int) (logValue / LOG_BUCKET_WIDTH);
+        if(bucket >= logBranchingHistogram.length)
+            logBranchingHistogram = Arrays.copyOf(logBranchingHistogram, Math.max(bucket + 1, logBranchingHistogram.length * 2));
+        logBranchingHistogram[bucket]++;
     }
 
     public void addActionsPerStep(int turn, int n_actions)
     {
-        if(!actionsPerStep.containsKey(turn))
+        ensureTurn(turn);
+        if(stepsTurn[turn] == 0)
         {
-            ArrayList<Integer> newList = new ArrayList<>();
-            newList.add(n_actions);
-            actionsPerStep.put(turn, newList);
-
-            ArrayList<Integer> newList2 = new ArrayList<>();
-            newList2.add(n_actions);
-            actionsPerStepArray.put(turn, newList2);
-        }else{
-            ArrayList<Integer> listAvg = actionsPerStepArray.get(turn);
-            listAvg.add(n_actions);
+            firstActionsPerStep[turn] = n_actions;
+            multActionsPerStep[turn] = 1;
         }
-    }
+        stepsTurn[turn]++;
+        sumActionsPerStep[turn] += n_actions;
 
-    public void print()
-    {
-        NumberFormat formatter = new DecimalFormat("0.######E0", DecimalFormatSymbols.getInstance(Locale.ROOT));
-//
-//        System.out.print("Branching Factor (Turn): " + playerId + ", "  + branchingFactorMult.size() + ", ");
-//        for(Integer it : branchingFactorMult.keySet())
-//        {
-////            System.out.print(branchingFactorMult.get(it) + " ");
-//            BigInteger bi = branchingFactorMult.get(it);
-//            String valStr = formatter.format(bi);
-//            System.out.print(valStr + " ");
-//        }
-//        System.out.println();
-
-//        System.out.print("Branching Factor (" + REPORT + "): " + playerId + ", "  + branchingFactorMult.size() + ", ");
-//        for(Integer it : branchingFactorAll.keySet())
-//        {
-//            StatSummary ss = new StatSummary();
-//            BigInteger first = BigInteger.valueOf(-1);
-//            for(BigInteger val : branchingFactorAll.get(it)) {
-//                ss.add(val);
-//                if(first.intValue()==-1)
-//                    first = val;
-//            }
-////            System.out.print(ss.mean() + " (" + ss.stdErr() + ") ");
-//
-//            StatSummary ss2 = new StatSummary();
-//            for(BigInteger val : branchingFactorSum.get(it)) {
-//                ss2.add(val);
-//            }
-//
-//
-//            double toPrint = -1;
-//            if(REPORT == MEAN)          toPrint = ss.mean();
-//            else if(REPORT == MAX)      toPrint = ss.max();
-//            else if(REPORT == FIRST)    toPrint = first.doubleValue();
-//
-//            String valStr = formatter.format(toPrint);
-//            System.out.print(valStr + " ");
-////            System.out.printf("%.2f ", ss.mean());
-//        }
-//        System.out.println();
-
-        System.out.print("Actions Per Step (" + REPORT + "): " + playerId + ", "  + branchingFactorMult.size() + ", ");
-        for(Integer it : actionsPerStep.keySet())
+        if(n_actions > 0)
         {
-            StatSummary ss2 = new StatSummary();
-            for(Integer val : actionsPerStep.get(it)) {
-                ss2.add(val);
-            }
-
-
-            double toPrint = ss2.mean();
-//            String valStr = formatter.format(toPrint);
-            System.out.print(toPrint + " ");
-//            System.out.printf("%.2f ", ss.mean());
+            logMultActionsPerStep[turn] += Math.log10(n_actions);
+            long mult = multActionsPerStep[turn];
+            if(mult != -1)
+                multActionsPerStep[turn] = (Long.MAX_VALUE / n_actions < mult) ? -1 : mult * n_actions;
         }
-        System.out.println();
+    }
 
-        System.out.print("Actions Per Step Avg (" + REPORT + "): " + playerId + ", "  + branchingFactorMult.size() + ", ");
-        for(Integer it : actionsPerStepArray.keySet())
-        {
-            StatSummary ss2 = new StatSummary();
-            for(Integer val : actionsPerStepArray.get(it)) {
-                ss2.add(val);
-            }
+    /**
+     * Makes sure the arrays indexed by turn have space for a given turn.
+     * @param turn turn to record.
+     */
+    private void ensureTurn(int turn)
+    {
+        int turns = movesTurn.length;
+        if(turn < turns)
+            return;
+
+        while (turn >= turns) turns *= 2;
+        logBranchingFactorTurn = Arrays.copyOf(logBranchingFactorTurn, turns);
+        movesTurn = Arrays.copyOf(movesTurn, turns);
+        firstActionsPerStep = Arrays.copyOf(firstActionsPerStep, turns);
+        sumActionsPerStep = Arrays.copyOf(sumActionsPerStep, turns);
+        stepsTurn = Arrays.copyOf(stepsTurn, turns);
+        multActionsPerStep = Arrays.copyOf(multActionsPerStep, turns);
+        logMultActionsPerStep = Arrays.copyOf(logMultActionsPerStep, turns);
+    }
 
+    /**
+     * Returns the (natural) log of the branching factor of a turn, the sum of the logs of its moves.
+     * @param turn turn to query.
+     * @return log of the branching factor of the turn, 0 if there were no moves in it.
+     */
+    public double getLogBranchingFactor(int turn)
+    {
+        return turn < logBranchingFactorTurn.length ? logBranchingFactorTurn[turn] : 0;
+    }
 
-            double toPrint = ss2.mean();
-//            String valStr = formatter.format(toPrint);
-            System.out.print(toPrint + " ");
-//            System.out.printf("%.2f ", ss.mean());
-        }
-        System.out.println();
+    /**
+     * Returns the summary (min, max, mean...) of the log of the branching factors of all the moves.
+     * @return summary of log(branching factor) per move.
+     */
+    public StatSummary getLogBranchingFactorSummary()
+    {
+        return logBranchingFactor;
+    }
 
-        System.out.print("Branching factor mult (" + REPORT + "): " + playerId + ", "  + branchingFactorMult.size() + ", ");
-        for(Integer it : actionsPerStepArray.keySet())
+    /**
+     * Estimates a quantile of the log of the branching factors of all the moves, with a precision of
+     * LOG_BUCKET_WIDTH.
+     * @param q quantile, in [0, 1].
+     * @return upper bound of the bucket of the histogram where the quantile falls, 0 if there are no moves.
+     */
+    public double getLogBranchingFactorQuantile(double q)
+    {
+        int n = logBranchingFactor.n();
+        if(n == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(q * n));
+        long acum = 0;
+        for(int bucket = 0; bucket < logBranchingHistogram.length; bucket++)
         {
-            BigInteger bInt = BigInteger.valueOf(1);
-            for(Integer val : actionsPerStepArray.get(it)) {
-                if(val > 0) {
-                    BigInteger other = BigInteger.valueOf(val);
-                    bInt = bInt.multiply(other);
-                }
-            }
-
-
-//            double toPrint = ss2.mean();
-            String valStr = formatter.format(bInt);
-            System.out.print(valStr + " ");
-//            System.out.printf("%.2f ", ss.mean());
+            acum += logBranchingHistogram[bucket];
+            if(acum >= target)
+                return Math.min((bucket + 1) * LOG_BUCKET_WIDTH, logBranchingFactor.max());
         }
-        System.out.println();
+        return logBranchingFactor.max();
+    }
 
-        System.out.print("#moves in turn: " + playerId + ", "  + branchingFactorMult.size() + ", ");
-        for(Integer it : branchingFactorAll.keySet())
+    public void print()
+    {
+        System.out.print(report());
+    }
+
+    /**
+     * Builds the report of these stats, as printed by print().
+     * @return the report, one line per stat.
+     */
+    public String report()
+    {
+        NumberFormat formatter = new DecimalFormat("0.######E0", DecimalFormatSymbols.getInstance(Locale.ROOT));
+        StringBuilder sb = new StringBuilder();
+        int turns = movesTurn.length;
+
+        sb.append("Actions Per Step (").append(REPORT).append("): ").append(playerId).append(", ").append(turnsWithBranching).append(", ");
+        for(int turn = 0; turn < turns; turn++)
+            if(stepsTurn[turn] > 0)
+                sb.append((double) firstActionsPerStep[turn]).append(' ');
+        sb.append(System.lineSeparator());
+
+        sb.append("Actions Per Step Avg (").append(REPORT).append("): ").append(playerId).append(", ").append(turnsWithBranching).append(", ");
+        for(int turn = 0; turn < turns; turn++)
+            if(stepsTurn[turn] > 0)
+                sb.append((double) sumActionsPerStep[turn] / stepsTurn[turn]).append(' ');
+        sb.append(System.lineSeparator());
+
+        sb.append("Branching factor mult (").append(REPORT).append("): ").append(playerId).append(", ").append(turnsWithBranching).append(", ");
+        for(int turn = 0; turn < turns; turn++)
+            if(stepsTurn[turn] > 0)
+                sb.append(multActionsPerStep[turn] != -1 ? formatter.format(multActionsPerStep[turn])
+                        : formatLog10(logMultActionsPerStep[turn])).append(' ');
+        sb.append(System.lineSeparator());
+
+        sb.append("#moves in turn: ").append(playerId).append(", ").append(turnsWithBranching).append(", ");
+        for(int turn = 0; turn < turns; turn++)
+            if(movesTurn[turn] > 0)
+                sb.append(movesTurn[turn]).append(' ');
+        sb.append(System.lineSeparator());
+
+        return sb.toString();
+    }
+
+    /**
+     * Formats a number given by its log10 as the "0.######E0" format does, for numbers too large for a double.
+     * @param log10 log10 of the number.
+     * @return the number in scientific notation.
+     */
+    private static String formatLog10(double log10)
+    {
+        long exponent = (long) Math.floor(log10);
+        double mantissa = Math.round(Math.pow(10, log10 - exponent) * 1e6) / 1e6;
+        if(mantissa >= 10)
         {
-            StatSummary ss = new StatSummary();
-            for(BigInteger val : branchingFactorAll.get(it))
-                ss.add(val);
-//            System.out.print(ss.mean() + " (" + ss.stdErr() + ") ");
-            System.out.printf("%d ", ss.n());
+            mantissa /= 10;
+            exponent++;
         }
-        System.out.println();
+        NumberFormat formatter = new DecimalFormat("0.######", DecimalFormatSymbols.getInstance(Locale.ROOT));
+        return formatter.format(mantissa) + "E" + exponent;
     }
 
 }
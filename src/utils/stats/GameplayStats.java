@@ -25,38 +25,40 @@ public class GameplayStats {
     private TribeResult tribeResult;
     private int maxPotentialCities;
 
-    //Data
-    private TreeMap<Types.ACTION, HashMap<Integer, Integer>> actionsBreakdown;  //ACTION -> {[turn, count], [turn, count]...}
-    private TreeMap<Types.ACTION, Integer> actionsCount;                        //ACTION -> turn count.
-    private TreeMap<String, HashMap<Integer, Integer>> statsCount;              //String -> {[turn, count], [turn, count]...}
-    private TreeMap<String, Integer> actionSubtypeCount;                        //String (actionsubtype) -> count
-    private TreeMap<String, HashMap<Integer, Integer>> actionSubtypeCountTurn;  //String (actionsubtype) -> {[turn, count], [turn, count]...}
+    //Data, indexed by turn in the last dimension. Stats and action subtypes are indexed by their position in
+    // STATS and ACTION_SUBTYPES.
+    private int[][] actionsBreakdown;       //[ACTION][turn] -> count.
+    private int[] actionsCount;             //[ACTION] -> total count.
+    private int[][] statsCount;             //[stat][turn] -> value.
+    private int[] actionSubtypeCount;       //[actionsubtype] -> total count.
+    private int[][] actionSubtypeCountTurn; //[actionsubtype][turn] -> count.
+    private int numStatTurns;               //Turns with game state stats (0 to numStatTurns-1).
 
     public int getFinalActionCount(Types.ACTION action)
     {
-        return actionsCount.get(action);
+        return actionsCount[action.ordinal()];
     }
 
     public int getFinalActionCount(String action)
     {
-        return actionSubtypeCount.get(action);
+        return actionSubtypeCount[SUBTYPE_INDEX.get(action)];
     }
 
     //Array helpers for data collection
-    private final String[] stats = new String[]{"Production", "Num cities", "Tiles owned",
+    private static final String[] STATS = new String[]{"Production", "Num cities", "Tiles owned",
             "Num units", "Num units WARRIOR", "Num units RIDER", "Num units DEFENDER", "Num units SWORDMAN", "Num units ARCHER",
             "Num units CATAPULT", "Num units KNIGHT", "Num units MIND_BENDER", "Num units BOAT", "Num units SHIP", "Num units BATTLESHIP", "Num units SUPERUNIT",
             "Num techs", "Num techs farm", "Num techs mountain", "Num techs naval", "Num techs range", "Num techs roads",
             "Num monuments", "Num temples", "Num buildings", "Num buildings PORT", "Num buildings MINE", "Num buildings FORGE", "Num buildings FARM", "Num buildings WINDMILL",
             "Num buildings CUSTOMS_HOUSE", "Num buildings LUMBER_HUT", "Num buildings SAWMILL",
     };
-    private final List<Types.TECHNOLOGY> farmTechs = Arrays.asList(ORGANIZATION, FARMING, SHIELDS, CONSTRUCTION);
-    private final List<Types.TECHNOLOGY> mountainTechs = Arrays.asList(CLIMBING, MINING, MEDITATION, SMITHERY, PHILOSOPHY);
-    private final List<Types.TECHNOLOGY> navalTechs = Arrays.asList(FISHING, WHALING, SAILING, NAVIGATION, AQUATISM);
-    private final List<Types.TECHNOLOGY> rangeTechs = Arrays.asList(HUNTING, ARCHERY, FORESTRY, SPIRITUALISM, MATHEMATICS);
-    private final List<Types.TECHNOLOGY> roadTechs = Arrays.asList(RIDING, ROADS, FREE_SPIRIT, CHIVALRY, TRADE);
+    private static final List<Types.TECHNOLOGY> farmTechs = Arrays.asList(ORGANIZATION, FARMING, SHIELDS, CONSTRUCTION);
+    private static final List<Types.TECHNOLOGY> mountainTechs = Arrays.asList(CLIMBING, MINING, MEDITATION, SMITHERY, PHILOSOPHY);
+    private static final List<Types.TECHNOLOGY> navalTechs = Arrays.asList(FISHING, WHALING, SAILING, NAVIGATION, AQUATISM);
+    private static final List<Types.TECHNOLOGY> rangeTechs = Arrays.asList(HUNTING, ARCHERY, FORESTRY, SPIRITUALISM, MATHEMATICS);
+    private static final List<Types.TECHNOLOGY> roadTechs = Arrays.asList(RIDING, ROADS, FREE_SPIRIT, CHIVALRY, TRADE);
 
-    private final String[] actionSubtypes = new String[]{
+    private static final String[] ACTION_SUBTYPES = new String[]{
             "Spawn WARRIOR", "Spawn RIDER", "Spawn DEFENDER", "Spawn SWORDMAN", "Spawn ARCHER",
             "Spawn CATAPULT", "Spawn KNIGHT", "Spawn MIND_BENDER",
             "Build monuments", "Build temples", "Build PORT", "Build MINE", "Build FORGE", "Build FARM", "Build WINDMILL",
@@ -64,12 +66,67 @@ public class GameplayStats {
             "Research farm", "Research mountain", "Research naval", "Research range", "Research roads",
     };
 
+    //Names of stats and action subtypes resolved to their indices, once.
+    private static final HashMap<String, Integer> STAT_INDEX = indexOf(STATS);
+    private static final HashMap<String, Integer> SUBTYPE_INDEX = indexOf(ACTION_SUBTYPES);
+    private static final int PRODUCTION = STAT_INDEX.get("Production"), NUM_CITIES = STAT_INDEX.get("Num cities"),
+            TILES_OWNED = STAT_INDEX.get("Tiles owned"), NUM_UNITS = STAT_INDEX.get("Num units"),
+            NUM_TECHS = STAT_INDEX.get("Num techs"), NUM_MONUMENTS = STAT_INDEX.get("Num monuments"),
+            NUM_TEMPLES = STAT_INDEX.get("Num temples"), NUM_BUILDINGS = STAT_INDEX.get("Num buildings");
+    private static final int[] UNIT_STAT = new int[Types.UNIT.values().length];          //UNIT -> "Num units X"
+    private static final int[] BUILDING_STAT = new int[Types.BUILDING.values().length];  //BUILDING -> "Num buildings X", or -1
+    private static final int[] TECH_STAT = new int[Types.TECHNOLOGY.values().length];    //TECHNOLOGY -> "Num techs <group>"
+    private static final int[] SPAWN_SUBTYPE = new int[Types.UNIT.values().length];      //UNIT -> "Spawn X"
+    private static final int[] BUILD_SUBTYPE = new int[Types.BUILDING.values().length];  //BUILDING -> "Build X"
+    private static final int[] RESEARCH_SUBTYPE = new int[Types.TECHNOLOGY.values().length]; //TECHNOLOGY -> "Research <group>"
+
+    //Stats in the order they're printed (alphabetical).
+    private static final int[] STATS_PRINT_ORDER;
+
+    static {
+        for(Types.UNIT unitType : Types.UNIT.values())
+        {
+            UNIT_STAT[unitType.ordinal()] = STAT_INDEX.get("Num units " + unitType);
+            SPAWN_SUBTYPE[unitType.ordinal()] = SUBTYPE_INDEX.getOrDefault("Spawn " + unitType, -1);
+        }
+        for(Types.BUILDING buildingType : Types.BUILDING.values())
+        {
+            int b = buildingType.ordinal();
+            if(buildingType.isTemple()) BUILD_SUBTYPE[b] = SUBTYPE_INDEX.get("Build temples");
+            else if(buildingType.isMonument()) BUILD_SUBTYPE[b] = SUBTYPE_INDEX.get("Build monuments");
+            else BUILD_SUBTYPE[b] = SUBTYPE_INDEX.get("Build " + buildingType);
+            BUILDING_STAT[b] = (buildingType.isMonument() || buildingType.isTemple()) ? -1 : STAT_INDEX.get("Num buildings " + buildingType);
+        }
+        for(Types.TECHNOLOGY t : Types.TECHNOLOGY.values())
+        {
+            String group = "";
+            if(farmTechs.contains(t)) group = "farm";
+            if(mountainTechs.contains(t)) group = "mountain";
+            if(navalTechs.contains(t)) group = "naval";
+            if(rangeTechs.contains(t)) group = "range";
+            if(roadTechs.contains(t)) group = "roads";
+            TECH_STAT[t.ordinal()] = STAT_INDEX.getOrDefault("Num techs " + group, -1);
+            RESEARCH_SUBTYPE[t.ordinal()] = SUBTYPE_INDEX.getOrDefault("Research " + group, -1);
+        }
+
+        String[] sorted = STATS.clone();
+        Arrays.sort(sorted);
+        STATS_PRINT_ORDER = new int[sorted.length];
+        for(int i = 0; i < sorted.length; i++)
+            STATS_PRINT_ORDER[i] = STAT_INDEX.get(sorted[i]);
+    }
+
+    private static HashMap<String, Integer> indexOf(String[] names)
+    {
+        HashMap<String, Integer> index = new HashMap<>();
+        for(int i = 0; i < names.length; i++)
+            index.put(names[i], i);
+        return index;
+    }
+
     public int[] getStatsArray(String key)
     {
-        HashMap<Integer, Integer> list = statsCount.get(key);
-        int[] data = new int[list.size()];
-        for(int i =0; i < list.size(); i++) data[i] = list.get(i);
-        return data;
+        return Arrays.copyOf(statsCount[STAT_INDEX.get(key)], numStatTurns);
     }
     
     public GameplayStats(int playerID)
@@ -82,45 +139,39 @@ public class GameplayStats {
 
     private void init()
     {
-        actionsBreakdown = new TreeMap<>();
-        actionsCount = new TreeMap<>();
-        for(Types.ACTION actionType : Types.ACTION.values())
-        {
-            actionsBreakdown.put(actionType, new HashMap<>());
-            actionsCount.put(actionType, 0);
-        }
-
-        statsCount = new TreeMap<>();
-        for(String st : stats)
-        {
-            statsCount.put(st, new HashMap<>());
-        }
-
-        actionSubtypeCountTurn = new TreeMap<>();
-        actionSubtypeCount = new TreeMap<>();
-        for(String st: actionSubtypes)
-        {
-            actionSubtypeCountTurn.put(st, new HashMap<>());
-            actionSubtypeCount.put(st, 0);
-        }
+        int turns = 64;
+        actionsBreakdown = new int[Types.ACTION.values().length][turns];
+        actionsCount = new int[Types.ACTION.values().length];
+        statsCount = new int[STATS.length][turns];
+        actionSubtypeCountTurn = new int[ACTION_SUBTYPES.length][turns];
+        actionSubtypeCount = new int[ACTION_SUBTYPES.length];
+        numStatTurns = 0;
+    }
 
+    /**
+     * Makes sure the arrays indexed by turn have space for a given turn.
+     * @param turn turn to record.
+     */
+    private void ensureTurn(int turn)
+    {
+        int turns = statsCount[0].length;
+        if(turn < turns)
+            return;
+
+        while (turn >= turns) turns *= 2;
+        for(int i = 0; i < actionsBreakdown.length; i++) actionsBreakdown[i] = Arrays.copyOf(actionsBreakdown[i], turns);
+        for(int i = 0; i < statsCount.length; i++) statsCount[i] = Arrays.copyOf(statsCount[i], turns);
+        for(int i = 0; i < actionSubtypeCountTurn.length; i++) actionSubtypeCountTurn[i] = Arrays.copyOf(actionSubtypeCountTurn[i], turns);
     }
 
     public void logAction(Action act, int turn)
     {
         Types.ACTION actionType = act.getActionType();
+        ensureTurn(turn);
 
-        //Update total action count
-        int totalActionCount = actionsCount.get(actionType);
-        actionsCount.put(actionType, totalActionCount+1);
-
-        int actionCountTurn = 0;
-        HashMap<Integer, Integer> turnCount = actionsBreakdown.get(actionType);
-        if(turnCount.containsKey(turn))
-            actionCountTurn = turnCount.get(turn);
-
-        //Update action count for this turn.
-        turnCount.put(turn, actionCountTurn+1);
+        //Update total action count and action count for this turn.
+        actionsCount[actionType.ordinal()]++;
+        actionsBreakdown[actionType.ordinal()][turn]++;
 
         //Special actions for which we want to log subtypes:
         if(actionType == Types.ACTION.RESEARCH_TECH || actionType == Types.ACTION.BUILD || actionType == Types.ACTION.SPAWN)
@@ -133,58 +184,36 @@ public class GameplayStats {
     private void logSubAction(Action act, int turn)
     {
         Types.ACTION actionType = act.getActionType();
-        String key = "";
+        int subtype = -1;
         if(actionType == Types.ACTION.RESEARCH_TECH)
-        {
-            ResearchTech rt = (ResearchTech)act;
-            key = "Research";
-            if(farmTechs.contains(rt.getTech())) key = "Research farm";
-            if(mountainTechs.contains(rt.getTech())) key = "Research mountain";
-            if(navalTechs.contains(rt.getTech())) key = "Research naval";
-            if(rangeTechs.contains(rt.getTech())) key = "Research range";
-            if(roadTechs.contains(rt.getTech())) key = "Research roads";
-
-        }else if(actionType == Types.ACTION.SPAWN)
-        {
-            Spawn sp = (Spawn)act;
-            key = "Spawn " + sp.getUnitType();
+            subtype = RESEARCH_SUBTYPE[((ResearchTech)act).getTech().ordinal()];
+        else if(actionType == Types.ACTION.SPAWN)
+            subtype = SPAWN_SUBTYPE[((Spawn)act).getUnitType().ordinal()];
+        else if(actionType == Types.ACTION.BUILD)
+            subtype = BUILD_SUBTYPE[((Build)act).getBuildingType().ordinal()];
 
-        }else if(actionType == Types.ACTION.BUILD)
+        if(subtype == -1)
         {
-            Build build = (Build)act;
-            if(build.getBuildingType().isTemple()) key = "Build temples";
-            else if(build.getBuildingType().isMonument()) key = "Build monuments";
-            else key = "Build " + build.getBuildingType();
+            System.out.println("No action subtype for " + act);
+            return;
         }
 
-        //Global count:
-        try {
-            actionSubtypeCount.put(key, 1 + actionSubtypeCount.get(key));
-        }catch (Exception e)
-        {
-            System.out.println(key);
-            e.printStackTrace();
-            actionSubtypeCount.put(key, 1 + actionSubtypeCount.get(key));
-        }
-
-        //Turn count:
-        int num = 0;
-        HashMap<Integer, Integer> counts = actionSubtypeCountTurn.get(key);
-        if(counts.containsKey(turn))
-            num = counts.get(turn);
-        counts.put(turn, num+1);
+        actionSubtypeCount[subtype]++;
+        actionSubtypeCountTurn[subtype][turn]++;
     }
 
 
     public void logGameState(GameState gs)
     {
         int turn = gs.getTick();
+        ensureTurn(turn);
+        if(turn >= numStatTurns) numStatTurns = turn + 1;
 
         //Production is easy.
-        statsCount.get("Production").put(turn, gs.getTribeProduction(playerID));
+        statsCount[PRODUCTION][turn] = gs.getTribeProduction(playerID);
 
         //Cities is easy too.
-        statsCount.get("Num cities").put(turn, gs.getCities(playerID).size());
+        statsCount[NUM_CITIES][turn] = gs.getCities(playerID).size();
 
         //Count number of potential cities and villages, plus the number of tiles owned by this player.
         maxPotentialCities = 0;
@@ -201,82 +230,45 @@ public class GameplayStats {
                 if(gs.getTribe(playerID).getCitiesID().contains(cityId))
                     ownedTiles++;
             }
-        statsCount.get("Tiles owned").put(turn, ownedTiles);
+        statsCount[TILES_OWNED][turn] = ownedTiles;
 
         //Units
-        HashMap<Types.UNIT, Integer> unitCount = new HashMap<>();
+        for(int stat : UNIT_STAT)
+            statsCount[stat][turn] = 0;
         for(Unit u : gs.getUnits(playerID))
-        {
-            Types.UNIT unitType = u.getType();
-            int numU = 0;
-            if(unitCount.containsKey(unitType))
-                numU = unitCount.get(unitType);
-            unitCount.put(unitType, numU+1);
-        }
-        for(Types.UNIT unitType : Types.UNIT.values())
-        {
-            String key = "Num units " + unitType;
-            int num = 0;
-            if(unitCount.containsKey(unitType))
-                num = unitCount.get(unitType);
-            statsCount.get(key).put(turn, num);
-        }
-        statsCount.get("Num units").put(turn, gs.getUnits(playerID).size());
+            statsCount[UNIT_STAT[u.getType().ordinal()]][turn]++;
+        statsCount[NUM_UNITS][turn] = gs.getUnits(playerID).size();
 
         //Techs
         TechnologyTree tree = gs.getTribeTechTree(playerID);
-        statsCount.get("Num techs").put(turn, tree.getNumResearched());
+        statsCount[NUM_TECHS][turn] = tree.getNumResearched();
+        for(int stat : TECH_STAT)
+            if(stat != -1) statsCount[stat][turn] = 0;
         boolean[] allResearched = tree.getResearched();
-        int farmB=0, mountainB=0, navalB=0, rangeB=0, roadsB=0;
-        for(Types.TECHNOLOGY t : Types.TECHNOLOGY.values())
-        {
-            if(allResearched[t.ordinal()])
-            {
-                if(farmTechs.contains(t)) farmB++;
-                if(mountainTechs.contains(t)) mountainB++;
-                if(navalTechs.contains(t)) navalB++;
-                if(rangeTechs.contains(t)) rangeB++;
-                if(roadTechs.contains(t)) roadsB++;
-            }
-        }
-        statsCount.get("Num techs farm").put(turn, farmB);
-        statsCount.get("Num techs mountain").put(turn, mountainB);
-        statsCount.get("Num techs naval").put(turn, navalB);
-        statsCount.get("Num techs range").put(turn, rangeB);
-        statsCount.get("Num techs roads").put(turn, roadsB);
+        for(int t = 0; t < TECH_STAT.length; t++)
+            if(allResearched[t] && TECH_STAT[t] != -1)
+                statsCount[TECH_STAT[t]][turn]++;
 
         //Buildings
         int totalNBuildings = 0, totalTemples = 0, totalMonuments = 0;
-        HashMap<Types.BUILDING, Integer> buildingCount = new HashMap<>();
+        for(int stat : BUILDING_STAT)
+            if(stat != -1) statsCount[stat][turn] = 0;
         for(City c : gs.getCities(playerID))
         {
             for(Building b : c.getBuildings())
             {
                 Types.BUILDING buildingType = b.type;
-                int numB = 0;
-                if(buildingCount.containsKey(buildingType))
-                    numB = buildingCount.get(buildingType);
-                buildingCount.put(buildingType, numB+1);
-
                 if(buildingType.isTemple()) totalTemples++;
                 else if(buildingType.isMonument()) totalMonuments++;
-                else totalNBuildings++;
-            }
-        }
-        statsCount.get("Num buildings").put(turn, totalNBuildings);
-        statsCount.get("Num temples").put(turn, totalTemples);
-        statsCount.get("Num monuments").put(turn, totalMonuments);
-
-        for(Types.BUILDING buildingType : Types.BUILDING.values())
-        {
-            if(!buildingType.isMonument() && !buildingType.isTemple()) {
-                String key = "Num buildings " + buildingType;
-                int num = 0;
-                if(buildingCount.containsKey(buildingType))
-                    num = buildingCount.get(buildingType);
-                statsCount.get(key).put(turn, num);
+                else {
+                    totalNBuildings++;
+                    statsCount[BUILDING_STAT[buildingType.ordinal()]][turn]++;
+                }
             }
         }
+        statsCount[NUM_BUILDINGS][turn] = totalNBuildings;
+        statsCount[NUM_TEMPLES][turn] = totalTemples;
+        statsCount[NUM_MONUMENTS][turn] = totalMonuments;
     }
 
 
@@ -284,46 +276,39 @@ public class GameplayStats {
     {
         //ACTION COUNTS
         System.out.println("Total Action count: ");
-        for(Types.ACTION actionType : actionsCount.keySet())
+        for(Types.ACTION actionType : Types.ACTION.values())
         {
-            System.out.print(actionType + ":" + actionsCount.get(actionType) + ";");
-            HashMap<Integer, Integer> turnCount = actionsBreakdown.get(actionType);
-            printTurns(turnCount);
+            System.out.print(actionType + ":" + actionsCount[actionType.ordinal()] + ";");
+            printTurns(actionsBreakdown[actionType.ordinal()]);
             System.out.println();
         }
 
         //GAME STATE STATS
         System.out.println("Game State stats: ");
-        for(String key : statsCount.keySet())
+        for(int stat : STATS_PRINT_ORDER)
         {
-            System.out.print(key + ":");
-            printTurns(statsCount.get(key));
+            System.out.print(STATS[stat] + ":");
+            printTurns(statsCount[stat]);
             System.out.println();
         }
 
         //SUBACTIONS
         System.out.println("Subactions: ");
-        for(String key : actionSubtypes)
+        for(int i = 0; i < ACTION_SUBTYPES.length; i++)
         {
-            System.out.print(key + ":" + actionSubtypeCount.get(key) + ";");
-            HashMap<Integer, Integer> turnCount = actionSubtypeCountTurn.get(key);
-            printTurns(turnCount);
+            System.out.print(ACTION_SUBTYPES[i] + ":" + actionSubtypeCount[i] + ";");
+            printTurns(actionSubtypeCountTurn[i]);
             System.out.println();
         }
 
     }
 
-    private void printTurns(HashMap<Integer, Integer> values)
+    private void printTurns(int[] values)
     {
+        StringBuilder sb = new StringBuilder();
         for(int turn = 0;  turn< maxTurn; ++turn)
-        {
-            int valueInTurn = 0;
-            if(values.containsKey(turn))
-            {
-                valueInTurn = values.get(turn);
-            }
-            System.out.print(valueInTurn + " ");
-        }
+            sb.append(turn < values.length ? values[turn] : 0).append(' ');
+        System.out.print(sb);
     }
 
 